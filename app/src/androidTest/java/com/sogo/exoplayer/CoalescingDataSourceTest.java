@@ -0,0 +1,252 @@
+package com.sogo.exoplayer;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer2.upstream.FileDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSink;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheUtil;
+import com.google.android.exoplayer2.upstream.cache.NoOpCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 真实的 SimpleCache + CacheDataSource, 本地的慢速服务按 Range 返回数据, 每 8KB 停一下.
+ * 预加载和线上一样通过 {@link InFlightDataSink} 按小段提交, 在它下载开头时开始播放,
+ * 比较直接用 CacheDataSource 和包一层 {@link CoalescingDataSource} 时服务端发出的字节数.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CoalescingDataSourceTest {
+    private static final String KEY = "video";
+    private static final String USER_AGENT = "CoalescingDataSourceTest";
+    private static final int CHUNK_BYTES = 8 * 1024;
+    private static final long CHUNK_DELAY_MS = 20;
+    private static final int FILE_BYTES = 256 * 1024;
+    private static final int PRELOAD_BYTES = 128 * 1024;
+    private static final long FRAGMENT_BYTES = 16 * 1024;
+
+    private ServerSocket serverSocket;
+    private final AtomicLong servedBytes = new AtomicLong();
+    private File directory;
+    private SimpleCache cache;
+    private InFlightRanges ranges;
+    private Uri uri;
+    private volatile long preloadEndMs;
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }).start();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        directory = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "coalescing_test");
+        delete(directory);
+        cache = new SimpleCache(directory, new NoOpCacheEvictor());
+        ranges = new InFlightRanges();
+        uri = Uri.parse("http://127.0.0.1:" + serverSocket.getLocalPort() + "/video");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        serverSocket.close();
+        cache.release();
+        delete(directory);
+    }
+
+    @Test
+    public void cacheDataSourceAloneDownloadsPreloadedHeadAgain() throws Exception {
+        Thread preload = startPreload();
+        awaitInFlight();
+        assertEquals(FILE_BYTES, play(new CacheDataSource(cache, playbackUpstream())));
+        preload.join();
+
+        // 预加载锁住的部分绕过缓存又下载了一遍
+        assertTrue(ranges.getDuplicateBytes() > 0);
+        assertTrue(servedBytes.get() > FILE_BYTES);
+    }
+
+    @Test
+    public void coalescingReadsPreloadedHeadFromCache() throws Exception {
+        Thread preload = startPreload();
+        awaitInFlight();
+        long start = SystemClock.elapsedRealtime();
+        DataSource dataSource = new CoalescingDataSource(new CacheDataSource(cache, playbackUpstream()), ranges,
+                InFlightRanges.DEFAULT_ATTACH_TIMEOUT_MS);
+        final long[] firstByteMs = new long[1];
+        assertEquals(FILE_BYTES, play(dataSource, firstByteMs));
+        preload.join();
+
+        // 每个字节只下载一次
+        assertEquals(0, ranges.getDuplicateBytes());
+        assertEquals(FILE_BYTES, servedBytes.get());
+        assertEquals(0, ranges.getAttachTimeoutCount());
+        // 第一段提交后就开始读, 不等整个预加载结束
+        assertTrue("first byte at " + (firstByteMs[0] - start) + "ms, preload ended at "
+                + (preloadEndMs - start) + "ms", firstByteMs[0] < preloadEndMs);
+    }
+
+    private DataSource playbackUpstream() {
+        return new InFlightDataSource(new DefaultHttpDataSource(USER_AGENT, null), ranges,
+                InFlightRanges.PRIORITY_PLAYBACK);
+    }
+
+    /**
+     * 和 SegmentedPreloader 一样通过 CacheUtil 写缓存, sink 每 FRAGMENT_BYTES 提交一次
+     */
+    private Thread startPreload() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                DataSource upstream = new InFlightDataSource(new DefaultHttpDataSource(USER_AGENT, null), ranges,
+                        InFlightRanges.PRIORITY_PRELOAD);
+                CacheDataSource dataSource = new CacheDataSource(cache, upstream, new FileDataSource(),
+                        new InFlightDataSink(new CacheDataSink(cache, FRAGMENT_BYTES), FRAGMENT_BYTES, ranges),
+                        0, null);
+                try {
+                    CacheUtil.cache(new DataSpec(uri, 0, PRELOAD_BYTES, KEY), cache, dataSource,
+                            new byte[CacheUtil.DEFAULT_BUFFER_SIZE_BYTES], null, 0, null, null, false);
+                } catch (IOException | InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    preloadEndMs = SystemClock.elapsedRealtime();
+                }
+            }
+        });
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        thread.start();
+        return thread;
+    }
+
+    private void awaitInFlight() throws InterruptedException {
+        while (ranges.getInFlightCount() == 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    private long play(DataSource dataSource) throws IOException {
+        return play(dataSource, new long[1]);
+    }
+
+    /**
+     * 像播放器一样从头读到尾, 长度未知
+     *
+     * @param firstByteMs 读到第一个字节的时间
+     */
+    private long play(DataSource dataSource, long[] firstByteMs) throws IOException {
+        try {
+            dataSource.open(new DataSpec(uri, 0, C.LENGTH_UNSET, KEY));
+            byte[] buffer = new byte[4096];
+            long total = 0;
+            int read;
+            while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+                if (total == 0) {
+                    firstByteMs[0] = SystemClock.elapsedRealtime();
+                }
+                total += read;
+            }
+            return total;
+        } finally {
+            dataSource.close();
+        }
+    }
+
+    /**
+     * 没有 Range 时返回整个文件, 否则按 bytes=start-[end] 返回 206
+     */
+    private void serve(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            OutputStream out = socket.getOutputStream();
+            byte[] chunk = new byte[CHUNK_BYTES];
+            String line;
+            while (in.readLine() != null) {
+                long start = 0;
+                long end = FILE_BYTES;
+                boolean partial = false;
+                while ((line = in.readLine()) != null && !line.isEmpty()) {
+                    if (line.toLowerCase().startsWith("range: bytes=")) {
+                        String[] range = line.substring("range: bytes=".length()).split("-", -1);
+                        start = Long.parseLong(range[0].trim());
+                        if (!range[1].trim().isEmpty()) {
+                            end = Math.min(FILE_BYTES, Long.parseLong(range[1].trim()) + 1);
+                        }
+                        partial = true;
+                    }
+                }
+                long length = end - start;
+                String header = partial
+                        ? "HTTP/1.1 206 Partial Content\r\nContent-Range: bytes " + start + "-" + (end - 1)
+                        + "/" + FILE_BYTES + "\r\n"
+                        : "HTTP/1.1 200 OK\r\n";
+                out.write((header + "Content-Length: " + length + "\r\n\r\n").getBytes("UTF-8"));
+                for (long sent = 0; sent < length; ) {
+                    int n = (int) Math.min(CHUNK_BYTES, length - sent);
+                    Thread.sleep(CHUNK_DELAY_MS);
+                    // 先计数, 客户端读完时计数已经更新
+                    servedBytes.addAndGet(n);
+                    out.write(chunk, 0, n);
+                    out.flush();
+                    sent += n;
+                }
+            }
+        } catch (IOException | InterruptedException ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,105 @@
+package com.sogo.exoplayer;
+
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 和原来的 HashMap&lt;Integer, String&gt; 比较绑定 + 播放(put + get)的耗时和分配, 结果输出到 logcat.
+ */
+@RunWith(AndroidJUnit4.class)
+public class IntLruMapBenchmark {
+    private static final String TAG = "IntLruMapBenchmark";
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    @Test
+    public void compareWithHashMap() {
+        for (int n : new int[]{1000, 10000, 100000}) {
+            String[] urls = new String[n];
+            for (int i = 0; i < n; i++) {
+                urls[i] = "http://a/" + i + ".mp4";
+            }
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                runHashMap(urls);
+                runIntLruMap(urls);
+            }
+            Result hashMap = measure(urls, false);
+            Result intMap = measure(urls, true);
+            Log.i(TAG, "ids=" + n
+                    + " HashMap=" + hashMap.nanos / n + "ns/op " + hashMap.allocCount + " allocs "
+                    + hashMap.allocBytes / 1024 + "KB"
+                    + " IntLruMap=" + intMap.nanos / n + "ns/op " + intMap.allocCount + " allocs "
+                    + intMap.allocBytes / 1024 + "KB");
+        }
+    }
+
+    private static class Result {
+        long nanos = Long.MAX_VALUE;
+        int allocCount;
+        int allocBytes;
+    }
+
+    /**
+     * 取 ROUNDS 次中最短的耗时, 分配数是一次的
+     */
+    @SuppressWarnings("deprecation")
+    private static Result measure(String[] urls, boolean intMap) {
+        Result result = new Result();
+        for (int round = 0; round < ROUNDS; round++) {
+            result.nanos = Math.min(result.nanos, intMap ? runIntLruMap(urls) : runHashMap(urls));
+        }
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        if (intMap) {
+            runIntLruMap(urls);
+        } else {
+            runHashMap(urls);
+        }
+        Debug.stopAllocCounting();
+        result.allocCount = Debug.getThreadAllocCount();
+        result.allocBytes = Debug.getThreadAllocSize();
+        return result;
+    }
+
+    private static long runHashMap(String[] urls) {
+        int n = urls.length;
+        long start = System.nanoTime();
+        Map<Integer, String> map = new HashMap<>();
+        int found = 0;
+        for (int i = 0; i < n; i++) {
+            map.put(i * 7919, urls[i]);
+            if (map.get((i / 2) * 7919) != null) {
+                found++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(n, found);
+        return elapsed;
+    }
+
+    private static long runIntLruMap(String[] urls) {
+        int n = urls.length;
+        long start = System.nanoTime();
+        IntLruMap<String> map = new IntLruMap<>(n);
+        int found = 0;
+        for (int i = 0; i < n; i++) {
+            map.put(i * 7919, urls[i]);
+            if (map.get((i / 2) * 7919) != null) {
+                found++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(n, found);
+        return elapsed;
+    }
+}
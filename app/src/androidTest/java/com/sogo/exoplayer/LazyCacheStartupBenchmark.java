@@ -0,0 +1,94 @@
+package com.sogo.exoplayer;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.google.android.exoplayer2.upstream.cache.CacheSpan;
+import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.NoOpCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 预先写入几千个 span 的缓存目录, 比较在调用线程上直接创建 SimpleCache 和 {@link LazyCache#start()} 的耗时.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LazyCacheStartupBenchmark {
+    private static final String TAG = "LazyCacheBenchmark";
+    private static final String DIR = "lazy_cache_benchmark";
+    private static final int KEYS = 1000;
+    private static final int SPANS_PER_KEY = 4;
+    private static final int SPAN_BYTES = 4 * 1024;
+    private static final long MAX_BYTES = 512 * 1024 * 1024;
+
+    private Context context;
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getTargetContext();
+        directory = new File(context.getExternalCacheDir(), DIR);
+        // 写入很慢, 目录保留给下一次运行
+        if (!directory.exists()) {
+            populate(directory);
+        }
+    }
+
+    @Test
+    public void startDoesNotBlockCaller() throws Exception {
+        long start = SystemClock.elapsedRealtime();
+        SimpleCache cache = new SimpleCache(directory, new LeastRecentlyUsedCacheEvictor(MAX_BYTES));
+        long blockingMs = SystemClock.elapsedRealtime() - start;
+        int keys = cache.getKeys().size();
+        cache.release();
+
+        LazyCache lazyCache = new LazyCache(context, DIR, new LeastRecentlyUsedCacheEvictor(MAX_BYTES));
+        start = SystemClock.elapsedRealtime();
+        lazyCache.start();
+        long startMs = SystemClock.elapsedRealtime() - start;
+        assertNotNull(lazyCache.await(30 * 1000));
+        long readyMs = SystemClock.elapsedRealtime() - start;
+        lazyCache.release();
+
+        Log.i(TAG, "keys=" + keys + " spans=" + keys * SPANS_PER_KEY
+                + " blocking=" + blockingMs + "ms"
+                + " lazyStart=" + startMs + "ms"
+                + " lazyReady=" + readyMs + "ms"
+                + " lazyInit=" + lazyCache.getInitTimeMs() + "ms");
+        assertTrue(startMs < blockingMs);
+    }
+
+    private static void populate(File directory) throws Exception {
+        long start = SystemClock.elapsedRealtime();
+        SimpleCache cache = new SimpleCache(directory, new NoOpCacheEvictor());
+        byte[] data = new byte[SPAN_BYTES];
+        for (int i = 0; i < KEYS; i++) {
+            String key = "hash:" + i + ".mp4";
+            for (int j = 0; j < SPANS_PER_KEY; j++) {
+                long position = (long) j * SPAN_BYTES;
+                CacheSpan hole = cache.startReadWrite(key, position);
+                File file = cache.startFile(key, position, SPAN_BYTES);
+                FileOutputStream out = new FileOutputStream(file);
+                out.write(data);
+                out.close();
+                cache.commitFile(file);
+                cache.releaseHoleSpan(hole);
+            }
+        }
+        cache.release();
+        Log.i(TAG, "populate: " + KEYS * SPANS_PER_KEY + " spans in "
+                + (SystemClock.elapsedRealtime() - start) + "ms");
+    }
+}
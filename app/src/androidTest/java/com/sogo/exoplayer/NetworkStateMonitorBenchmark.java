@@ -0,0 +1,62 @@
+package com.sogo.exoplayer;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 比较每次查询 {@link VUtil#isWifiConnected} 和读取 {@link NetworkStateMonitor} 缓存状态的单次耗时,
+ * 以及 {@link LdDefaultLoadControl#shouldContinueLoading} 的单次耗时.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NetworkStateMonitorBenchmark {
+    private static final String TAG = "NetworkStateBenchmark";
+    private static final int WARMUP = 200;
+    private static final int SYSTEM_CALLS = 5000;
+    private static final int CACHED_CALLS = 1000000;
+
+    @Test
+    public void cachedStateIsCheaperThanSystemLookup() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        NetworkStateMonitor monitor = new NetworkStateMonitor(context);
+        int sink = 0;
+
+        for (int i = 0; i < WARMUP; i++) {
+            sink += VUtil.isWifiConnected(context) ? 1 : 0;
+            sink += monitor.isUnmetered() ? 1 : 0;
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < SYSTEM_CALLS; i++) {
+            sink += VUtil.isWifiConnected(context) ? 1 : 0;
+        }
+        long systemNs = (SystemClock.elapsedRealtimeNanos() - start) / SYSTEM_CALLS;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < CACHED_CALLS; i++) {
+            sink += monitor.isUnmetered() ? 1 : 0;
+        }
+        long cachedNs = (SystemClock.elapsedRealtimeNanos() - start) / CACHED_CALLS;
+
+        // 预加载的 player 每次都会检查网络
+        LdDefaultLoadControl loadControl = new LdDefaultLoadControl(false, new PreloadBudget());
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < SYSTEM_CALLS; i++) {
+            sink += loadControl.shouldContinueLoading(0, 1f) ? 1 : 0;
+        }
+        long loadControlNs = (SystemClock.elapsedRealtimeNanos() - start) / SYSTEM_CALLS;
+
+        Log.i(TAG, "isWifiConnected=" + systemNs + "ns/call"
+                + " cached=" + cachedNs + "ns/call"
+                + " shouldContinueLoading=" + loadControlNs + "ns/call"
+                + " " + monitor + " sink=" + sink);
+        assertTrue(cachedNs * 10 < systemNs);
+    }
+}
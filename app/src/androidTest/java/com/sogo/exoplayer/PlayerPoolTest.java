@@ -0,0 +1,161 @@
+package com.sogo.exoplayer;
+
+import android.app.Instrumentation;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * {@link PlayerPool} 的取出、归还和上限. player 需要 Looper, 池子只能在主线程使用,
+ * 所以操作都放到主线程执行, 断言在测试线程.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PlayerPoolTest {
+
+    private Instrumentation instrumentation;
+    private PlayerPool pool;
+    // 测试中取出没有归还的, 结束时释放
+    private final List<PlayerPool.PooledPlayer> acquired = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+    }
+
+    @After
+    public void tearDown() {
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (PlayerPool.PooledPlayer pooledPlayer : acquired) {
+                    pooledPlayer.getPlayer().release();
+                }
+                if (pool != null) {
+                    pool.setMaxSize(0);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void recycledPlayerIsReused() {
+        final PlayerPool.PooledPlayer[] players = new PlayerPool.PooledPlayer[2];
+        final String[] state = new String[1];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pool = createPool(2);
+                players[0] = pool.acquire(true);
+                pool.recycle(players[0]);
+                players[1] = acquire(false);
+                // 在预先创建之前记下状态
+                state[0] = pool.toString();
+            }
+        });
+        assertSame(players[0], players[1]);
+        assertEquals("PlayerPool{idle=0, inUse=1, max=2, created=1, reused=1}", state[0]);
+    }
+
+    @Test
+    public void recycleReleasesPlayersBeyondMaxSize() {
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pool = createPool(1);
+                // acquire 不受上限限制
+                PlayerPool.PooledPlayer first = pool.acquire(true);
+                PlayerPool.PooledPlayer second = pool.acquire(true);
+                // 还有一个在用, 池子已满, 直接 release
+                pool.recycle(first);
+                pool.recycle(second);
+            }
+        });
+        instrumentation.waitForIdleSync();
+        // 空闲的那个已经够了, 不再预先创建
+        assertEquals(2, pool.getCreatedCount());
+        assertEquals(0, pool.getInUseCount());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void tryAcquireStopsAtMaxSize() {
+        final PlayerPool.PooledPlayer[] players = new PlayerPool.PooledPlayer[2];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pool = createPool(1);
+                players[0] = acquire(true);
+                players[1] = pool.tryAcquire(false);
+            }
+        });
+        instrumentation.waitForIdleSync();
+        assertNotNull(players[0]);
+        assertNull(players[1]);
+        assertEquals(1, pool.getCreatedCount());
+    }
+
+    @Test
+    public void prewarmKeepsAtMostOneIdlePlayer() {
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pool = createPool(3);
+                acquire(true);
+            }
+        });
+        // acquire 之后主线程空闲时预先创建一个
+        instrumentation.waitForIdleSync();
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(2, pool.getCreatedCount());
+
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pool.prewarm();
+                pool.prewarm();
+            }
+        });
+        instrumentation.waitForIdleSync();
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(2, pool.getCreatedCount());
+    }
+
+    @Test
+    public void prewarmDoesNothingWhenPoolIsFull() {
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pool = createPool(1);
+                acquire(true);
+            }
+        });
+        instrumentation.waitForIdleSync();
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(1, pool.getCreatedCount());
+    }
+
+    private PlayerPool createPool(int maxSize) {
+        return new PlayerPool(instrumentation.getTargetContext(), new DefaultBandwidthMeter(),
+                new PreloadBudget(), null, maxSize);
+    }
+
+    private PlayerPool.PooledPlayer acquire(boolean userAction) {
+        PlayerPool.PooledPlayer pooledPlayer = pool.acquire(userAction);
+        acquired.add(pooledPlayer);
+        return pooledPlayer;
+    }
+}
@@ -0,0 +1,167 @@
+package com.sogo.exoplayer;
+
+import android.app.Instrumentation;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.android.exoplayer2.source.ConcatenatingMediaSource;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link PreparedPlayers} 的名额、retain 丢弃和 take. 和 {@link PlayerPoolTest} 一样在主线程操作, 测试线程断言.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PreparedPlayersTest {
+
+    private Instrumentation instrumentation;
+    private PlayerPool pool;
+    private PreparedPlayers preparedPlayers;
+    private final List<String> created = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> takenUrls = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> discarded = Collections.synchronizedList(new ArrayList<String>());
+    // take 出来的, 结束时释放
+    private final List<PlayerPool.PooledPlayer> taken = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pool = new PlayerPool(instrumentation.getTargetContext(), new DefaultBandwidthMeter(),
+                        new PreloadBudget(), null, PlayerPool.DEFAULT_MAX_SIZE);
+                preparedPlayers = new PreparedPlayers(pool, new PreparedPlayers.MediaSourceFactory() {
+                    @Override
+                    public MediaSource createMediaSource(String videoUrl) {
+                        created.add(videoUrl);
+                        // 空的播放列表, prepare 不需要网络
+                        return new ConcatenatingMediaSource();
+                    }
+
+                    @Override
+                    public void onTaken(String videoUrl) {
+                        takenUrls.add(videoUrl);
+                    }
+
+                    @Override
+                    public void onDiscarded(String videoUrl) {
+                        discarded.add(videoUrl);
+                    }
+                });
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                preparedPlayers.releaseAll();
+                for (PlayerPool.PooledPlayer pooledPlayer : taken) {
+                    pooledPlayer.getPlayer().release();
+                }
+                pool.setMaxSize(0);
+            }
+        });
+    }
+
+    @Test
+    public void preparesAtMostMaxPrepared() {
+        final boolean[] results = new boolean[4];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                results[0] = preparedPlayers.prepare("url1");
+                results[1] = preparedPlayers.prepare("url2");
+                results[2] = preparedPlayers.prepare("url3");
+                // 已经 prepare 过的不再创建
+                results[3] = preparedPlayers.prepare("url1");
+            }
+        });
+        assertTrue(results[0]);
+        assertTrue(results[1]);
+        assertFalse(results[2]);
+        assertTrue(results[3]);
+        assertEquals(PreparedPlayers.MAX_PREPARED, preparedPlayers.size());
+        assertEquals(Arrays.asList("url1", "url2"), created);
+    }
+
+    @Test
+    public void retainDiscardsAndRecyclesOthers() {
+        final int[] inUse = new int[2];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                preparedPlayers.prepare("url1");
+                preparedPlayers.prepare("url2");
+                inUse[0] = pool.getInUseCount();
+                preparedPlayers.retain(Collections.singletonList("url2"));
+                inUse[1] = pool.getInUseCount();
+            }
+        });
+        assertEquals(2, inUse[0]);
+        assertEquals(1, inUse[1]);
+        assertFalse(preparedPlayers.isPrepared("url1"));
+        assertTrue(preparedPlayers.isPrepared("url2"));
+        assertEquals(Collections.singletonList("url1"), discarded);
+    }
+
+    @Test
+    public void takeReturnsPreparedPlayerOnce() {
+        final PreparedPlayers.Prepared[] results = new PreparedPlayers.Prepared[3];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                preparedPlayers.prepare("url1");
+                results[0] = preparedPlayers.take("unknown");
+                results[1] = preparedPlayers.take("url1");
+                results[2] = preparedPlayers.take("url1");
+                if (results[1] != null) {
+                    taken.add(results[1].pooledPlayer);
+                }
+            }
+        });
+        assertNull(results[0]);
+        assertNotNull(results[1]);
+        assertEquals("url1", results[1].videoUrl);
+        assertNull(results[2]);
+        assertEquals(1, preparedPlayers.getHitCount());
+        assertEquals(2, preparedPlayers.getMissCount());
+        assertEquals(Collections.singletonList("url1"), takenUrls);
+        // 取出的 player 归调用方, 不算丢弃
+        assertTrue(discarded.isEmpty());
+    }
+
+    @Test
+    public void doesNotPrepareWhenPoolIsExhausted() {
+        final boolean[] result = new boolean[1];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pool.setMaxSize(1);
+                taken.add(pool.acquire(true));
+                result[0] = preparedPlayers.prepare("url1");
+            }
+        });
+        assertFalse(result[0]);
+        assertTrue(created.isEmpty());
+    }
+}
@@ -0,0 +1,94 @@
+package com.sogo.exoplayer;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link PlayerManager} 当前绑定的 holder 和 url.
+ * <p>
+ * 每次绑定都换成一个新的不可变 {@link Attachment}, 用 CAS 切换, 不加锁.
+ * 每个 Attachment 只会被一次 {@link #attach} 替换或者一次 {@link #detach} 移除,
+ * 所以快速滑动时同一个 holder 不会被解绑两次.
+ */
+final class AttachmentState {
+
+    static final class Attachment {
+        static final Attachment NONE = new Attachment(null, null);
+
+        final PlayerManager.PlayerHolder holder;
+        final String videoUrl;
+
+        Attachment(PlayerManager.PlayerHolder holder, String videoUrl) {
+            this.holder = holder;
+            this.videoUrl = videoUrl;
+        }
+
+        boolean isNone() {
+            return holder == null;
+        }
+
+        boolean matches(PlayerManager.PlayerHolder holder, String videoUrl) {
+            return this.holder == holder && this.videoUrl != null && this.videoUrl.equals(videoUrl);
+        }
+
+        @Override
+        public String toString() {
+            return "Attachment{" + holder + ", " + videoUrl + "}";
+        }
+    }
+
+    private final AtomicReference<Attachment> current = new AtomicReference<>(Attachment.NONE);
+
+    Attachment get() {
+        return current.get();
+    }
+
+    /**
+     * 绑定到新的 holder.
+     *
+     * @return 被替换掉的绑定, 可能是 {@link Attachment#NONE}
+     */
+    Attachment attach(PlayerManager.PlayerHolder holder, String videoUrl) {
+        Attachment next = new Attachment(holder, videoUrl);
+        while (true) {
+            Attachment previous = current.get();
+            if (current.compareAndSet(previous, next)) {
+                return previous;
+            }
+        }
+    }
+
+    /**
+     * 当前没有绑定到 holder 时绑定到 holder, 检查和切换是同一次 CAS.
+     *
+     * @return 被替换掉的绑定, 可能是 {@link Attachment#NONE}; 已经绑定到 holder 时返回 null
+     */
+    Attachment attachIfAbsent(PlayerManager.PlayerHolder holder, String videoUrl) {
+        Attachment next = new Attachment(holder, videoUrl);
+        while (true) {
+            Attachment previous = current.get();
+            if (previous.holder == holder) {
+                return null;
+            }
+            if (current.compareAndSet(previous, next)) {
+                return previous;
+            }
+        }
+    }
+
+    /**
+     * 当前绑定的是 holder 和 videoUrl 时解绑.
+     *
+     * @return 被移除的绑定, 没有解绑时返回 null
+     */
+    Attachment detach(PlayerManager.PlayerHolder holder, String videoUrl) {
+        while (true) {
+            Attachment attached = current.get();
+            if (!attached.matches(holder, videoUrl)) {
+                return null;
+            }
+            if (current.compareAndSet(attached, Attachment.NONE)) {
+                return attached;
+            }
+        }
+    }
+}
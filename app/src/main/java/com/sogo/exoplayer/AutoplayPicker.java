@@ -0,0 +1,58 @@
+package com.sogo.exoplayer;
+
+/**
+ * 列表停下时选出要自动播放的行: 露出比例最大、并且不低于 minVisibleFraction 的一行.
+ * <p>
+ * 当前播放的行仍然满足要求时, 只有其他行比它多露出 switchMargin 以上才切换,
+ * 避免两行露出差不多时来回切换.
+ */
+public class AutoplayPicker {
+    public static final int NO_POSITION = -1;
+
+    public static final float DEFAULT_MIN_VISIBLE_FRACTION = 0.6f;
+    public static final float DEFAULT_SWITCH_MARGIN = 0.15f;
+
+    private final float minVisibleFraction;
+    private final float switchMargin;
+
+    public AutoplayPicker() {
+        this(DEFAULT_MIN_VISIBLE_FRACTION, DEFAULT_SWITCH_MARGIN);
+    }
+
+    public AutoplayPicker(float minVisibleFraction, float switchMargin) {
+        this.minVisibleFraction = minVisibleFraction;
+        this.switchMargin = switchMargin;
+    }
+
+    /**
+     * @param firstPosition    visibleFractions[0] 对应的位置
+     * @param visibleFractions 每一行露出的比例, 0 到 1
+     * @param count            visibleFractions 中有效的个数
+     * @param currentPosition  正在播放的位置, 没有时为 {@link #NO_POSITION}
+     * @return 应该播放的位置, 可能等于 currentPosition; 没有足够可见的行时返回 {@link #NO_POSITION}
+     */
+    public int pick(int firstPosition, float[] visibleFractions, int count, int currentPosition) {
+        int best = NO_POSITION;
+        float bestFraction = 0f;
+        float currentFraction = 0f;
+        for (int i = 0; i < count; i++) {
+            int position = firstPosition + i;
+            float fraction = visibleFractions[i];
+            if (position == currentPosition) {
+                currentFraction = fraction;
+            }
+            if (fraction > bestFraction) {
+                best = position;
+                bestFraction = fraction;
+            }
+        }
+        if (best == NO_POSITION || bestFraction < minVisibleFraction) {
+            return NO_POSITION;
+        }
+        if (currentPosition != NO_POSITION && currentFraction >= minVisibleFraction
+                && bestFraction - currentFraction < switchMargin) {
+            return currentPosition;
+        }
+        return best;
+    }
+}
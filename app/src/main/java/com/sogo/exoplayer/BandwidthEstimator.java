@@ -0,0 +1,88 @@
+package com.sogo.exoplayer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * 把 {@link DefaultBandwidthMeter} 的带宽估计和首字节延迟交给 {@link PreloadBudget}.
+ * <p>
+ * 作为 {@link TransferListener} 挂在上游 DataSource 上, 预加载和播放的请求都会参与测速.
+ */
+public class BandwidthEstimator implements TransferListener<Object> {
+    private static final String TAG = "BandwidthEstimator";
+
+    private final DefaultBandwidthMeter bandwidthMeter;
+    private final PreloadBudget budget;
+
+    // 已经打开还没有收到数据的请求, 记录打开的时间
+    private final Map<Object, Long> pendingFirstBytes = new IdentityHashMap<>();
+
+    public BandwidthEstimator(final PreloadBudget budget) {
+        this.budget = budget;
+        bandwidthMeter = new DefaultBandwidthMeter(new Handler(Looper.getMainLooper()),
+                new BandwidthMeter.EventListener() {
+                    @Override
+                    public void onBandwidthSample(int elapsedMs, long bytes, long bitrate) {
+                        VLog.d(TAG, "onBandwidthSample: " + bytes + " bytes in " + elapsedMs
+                                + "ms, estimate:" + bitrate);
+                        budget.onBandwidthSample(bitrate);
+                    }
+                });
+    }
+
+    public BandwidthMeter getBandwidthMeter() {
+        return bandwidthMeter;
+    }
+
+    public PreloadBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * 换了网络: 清除预算中的估计, 旧网络上打开的请求不再参与首字节延迟.
+     * DefaultBandwidthMeter 没有重置的方法, 之后的几次采样仍会带上旧网络的传输
+     */
+    public void onNetworkChanged() {
+        synchronized (pendingFirstBytes) {
+            pendingFirstBytes.clear();
+        }
+        budget.resetEstimates();
+    }
+
+    @Override
+    public void onTransferStart(Object source, DataSpec dataSpec) {
+        synchronized (pendingFirstBytes) {
+            pendingFirstBytes.put(source, SystemClock.elapsedRealtime());
+        }
+        bandwidthMeter.onTransferStart(source, dataSpec);
+    }
+
+    @Override
+    public void onBytesTransferred(Object source, int bytesTransferred) {
+        Long start;
+        synchronized (pendingFirstBytes) {
+            start = pendingFirstBytes.remove(source);
+        }
+        if (start != null) {
+            budget.onLatencySample(SystemClock.elapsedRealtime() - start);
+        }
+        bandwidthMeter.onBytesTransferred(source, bytesTransferred);
+    }
+
+    @Override
+    public void onTransferEnd(Object source) {
+        synchronized (pendingFirstBytes) {
+            pendingFirstBytes.remove(source);
+        }
+        bandwidthMeter.onTransferEnd(source);
+    }
+}
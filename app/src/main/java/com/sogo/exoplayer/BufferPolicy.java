@@ -0,0 +1,124 @@
+package com.sogo.exoplayer;
+
+/**
+ * 根据视频时长、划走的比例和带宽计算 {@link LdDefaultLoadControl} 的缓冲水位.
+ * <p>
+ * 信息流的视频只有 10~60 秒, 大部分在几秒内就被划走, 固定的 15s/30s 水位会多下载很多用不到的数据.
+ * 短视频和经常被划走时降低水位; 带宽高时减少起播需要的缓冲, 更快开始播放.
+ * 每次决定都会输出日志, 用于离线调整参数. 所有 player 共用一个实例.
+ */
+public class BufferPolicy {
+    private static final String TAG = "BufferPolicy";
+
+    public static final long DURATION_UNKNOWN = -1;
+
+    /**
+     * 看了不到这么久就结束算划走
+     */
+    static final long ABANDON_WATCH_MS = 3000;
+    private static final float ABANDON_WEIGHT = 0.2f;
+    /**
+     * 全部划走时水位降低的比例
+     */
+    static final float MAX_ABANDON_SCALE = 0.6f;
+
+    static final long MIN_BUFFER_FLOOR_MS = 4000;
+    static final long HIGH_BANDWIDTH_BUFFER_FOR_PLAYBACK_MS = 1000;
+    static final long MEDIUM_BANDWIDTH_BUFFER_FOR_PLAYBACK_MS = 1500;
+    static final long HIGH_BANDWIDTH_BUFFER_AFTER_REBUFFER_MS = 2500;
+
+    public static final class Watermarks {
+        public final long minBufferMs;
+        public final long maxBufferMs;
+        public final long bufferForPlaybackMs;
+        public final long bufferForPlaybackAfterRebufferMs;
+
+        public Watermarks(long minBufferMs, long maxBufferMs,
+                          long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs) {
+            this.minBufferMs = minBufferMs;
+            this.maxBufferMs = maxBufferMs;
+            this.bufferForPlaybackMs = bufferForPlaybackMs;
+            this.bufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+        }
+
+        @Override
+        public String toString() {
+            return "Watermarks{min=" + minBufferMs
+                    + ", max=" + maxBufferMs
+                    + ", play=" + bufferForPlaybackMs
+                    + ", rebuffer=" + bufferForPlaybackAfterRebufferMs + "}";
+        }
+    }
+
+    private final Watermarks defaults;
+
+    // 划走比例的滑动平均, 没有数据时为 0, 即默认水位
+    private float abandonRate = 0f;
+    private int plays = 0;
+    private int abandons = 0;
+
+    public BufferPolicy(Watermarks defaults) {
+        this.defaults = defaults;
+    }
+
+    /**
+     * 一次播放结束
+     *
+     * @param watchedMs  播放到的位置
+     * @param durationMs 视频时长, 不知道时为 {@link #DURATION_UNKNOWN}
+     */
+    public synchronized void onPlayEnded(long watchedMs, long durationMs) {
+        boolean abandoned = watchedMs < ABANDON_WATCH_MS && (durationMs <= 0 || watchedMs * 2 < durationMs);
+        plays++;
+        if (abandoned) {
+            abandons++;
+        }
+        abandonRate = abandonRate * (1 - ABANDON_WEIGHT) + (abandoned ? ABANDON_WEIGHT : 0f);
+        VLog.d(TAG, "onPlayEnded: watched=" + watchedMs + ", duration=" + durationMs
+                + ", abandoned=" + abandoned + ", abandonRate=" + abandonRate);
+    }
+
+    /**
+     * @param durationMs 视频时长, 不知道时为 {@link #DURATION_UNKNOWN}
+     * @param bitrate    带宽估计(bit/s), 没有时为 {@link PreloadBudget#NO_ESTIMATE}
+     */
+    public synchronized Watermarks decide(long durationMs, long bitrate) {
+        long minBufferMs = defaults.minBufferMs;
+        long maxBufferMs = defaults.maxBufferMs;
+        if (durationMs > 0) {
+            // 最多缓冲整个视频, 低水位是一半
+            maxBufferMs = Math.min(maxBufferMs, durationMs);
+            minBufferMs = Math.min(minBufferMs, durationMs / 2);
+        }
+        float scale = 1f - MAX_ABANDON_SCALE * abandonRate;
+        minBufferMs = Math.max(MIN_BUFFER_FLOOR_MS, (long) (minBufferMs * scale));
+        maxBufferMs = Math.max(minBufferMs, (long) (maxBufferMs * scale));
+
+        long bufferForPlaybackMs = defaults.bufferForPlaybackMs;
+        long bufferAfterRebufferMs = defaults.bufferForPlaybackAfterRebufferMs;
+        if (bitrate >= PreloadBudget.HIGH_BITRATE) {
+            bufferForPlaybackMs = Math.min(bufferForPlaybackMs, HIGH_BANDWIDTH_BUFFER_FOR_PLAYBACK_MS);
+            bufferAfterRebufferMs = Math.min(bufferAfterRebufferMs, HIGH_BANDWIDTH_BUFFER_AFTER_REBUFFER_MS);
+        } else if (bitrate >= PreloadBudget.MEDIUM_BITRATE) {
+            bufferForPlaybackMs = Math.min(bufferForPlaybackMs, MEDIUM_BANDWIDTH_BUFFER_FOR_PLAYBACK_MS);
+        }
+        Watermarks watermarks = new Watermarks(minBufferMs, maxBufferMs,
+                Math.min(bufferForPlaybackMs, minBufferMs), Math.min(bufferAfterRebufferMs, minBufferMs));
+        VLog.d(TAG, "decide: duration=" + durationMs + ", bitrate=" + bitrate
+                + ", abandonRate=" + abandonRate + ", plays=" + plays + " -> " + watermarks);
+        return watermarks;
+    }
+
+    public Watermarks getDefaults() {
+        return defaults;
+    }
+
+    public synchronized float getAbandonRate() {
+        return abandonRate;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BufferPolicy{plays=" + plays + ", abandons=" + abandons + ", abandonRate=" + abandonRate + "}";
+    }
+}
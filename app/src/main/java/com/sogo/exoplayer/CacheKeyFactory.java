@@ -0,0 +1,160 @@
+package com.sogo.exoplayer;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 视频地址到 SimpleCache key 的转换, 预加载和播放使用同一个 key.
+ * <p>
+ * 同一个视频换了签名或者 CDN 域名时地址会变, 按完整地址做 key 会重复下载和保存.
+ * 默认的 {@link #CONTENT_HASH} 使用地址中的内容 hash (例如 e75aa445....mp4.f20.mp4), 与域名和参数无关.
+ * 同时统计播放时 key 已经有缓存的比例, 以及其中地址不同、靠 key 归一才命中的次数.
+ */
+public class CacheKeyFactory {
+    private static final String TAG = "CacheKeyFactory";
+
+    public interface Strategy {
+        String buildKey(String videoUrl);
+    }
+
+    /**
+     * 完整地址, 即 ExoPlayer 默认的 key
+     */
+    public static final Strategy FULL_URL = new Strategy() {
+        @Override
+        public String buildKey(String videoUrl) {
+            return videoUrl;
+        }
+
+        @Override
+        public String toString() {
+            return "FULL_URL";
+        }
+    };
+
+    /**
+     * 去掉签名参数
+     */
+    public static final Strategy STRIP_QUERY = new Strategy() {
+        @Override
+        public String buildKey(String videoUrl) {
+            return stripQuery(videoUrl);
+        }
+
+        @Override
+        public String toString() {
+            return "STRIP_QUERY";
+        }
+    };
+
+    // 最后一段路径以 32 位 hex 开头, 后面是格式后缀
+    private static final Pattern CONTENT_HASH_SEGMENT = Pattern.compile("^([0-9a-fA-F]{32})(\\..*)?$");
+
+    /**
+     * 路径最后一段以内容 hash 开头时使用 hash 和后缀(不同转码格式的数据不一样), 否则同 {@link #STRIP_QUERY}
+     */
+    public static final Strategy CONTENT_HASH = new Strategy() {
+        @Override
+        public String buildKey(String videoUrl) {
+            String path = stripQuery(videoUrl);
+            String segment = path.substring(path.lastIndexOf('/') + 1);
+            Matcher matcher = CONTENT_HASH_SEGMENT.matcher(segment);
+            if (!matcher.matches()) {
+                return path;
+            }
+            String suffix = matcher.group(2);
+            return "hash:" + matcher.group(1).toLowerCase(Locale.US) + (suffix == null ? "" : suffix);
+        }
+
+        @Override
+        public String toString() {
+            return "CONTENT_HASH";
+        }
+    };
+
+    private static final int MAX_TRACKED_KEYS = 256;
+
+    private volatile Strategy strategy;
+
+    // key 最近一次使用的地址
+    private final Map<String, String> lastUrls = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_TRACKED_KEYS;
+        }
+    };
+    private long lookupCount = 0;
+    private long hitCount = 0;
+    private long sharedHitCount = 0;
+
+    public CacheKeyFactory(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public void setStrategy(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public String buildKey(String videoUrl) {
+        return strategy.buildKey(videoUrl);
+    }
+
+    /**
+     * 记录一次播放使用的 key
+     *
+     * @param cached key 是否已经有缓存的数据
+     */
+    public synchronized void onPlay(String videoUrl, String key, boolean cached) {
+        lookupCount++;
+        String lastUrl = lastUrls.put(key, videoUrl);
+        if (cached) {
+            hitCount++;
+            if (lastUrl != null && !lastUrl.equals(videoUrl)) {
+                sharedHitCount++;
+                VLog.d(TAG, "onPlay: shared " + key + ", " + lastUrl + " -> " + videoUrl);
+            }
+        }
+    }
+
+    public synchronized long getLookupCount() {
+        return lookupCount;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return 地址和上次不同但 key 相同而命中的次数, 按完整地址做 key 时这些都会重新下载
+     */
+    public synchronized long getSharedHitCount() {
+        return sharedHitCount;
+    }
+
+    public synchronized float getHitRate() {
+        return lookupCount == 0 ? 0f : (float) hitCount / lookupCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CacheKeyFactory{" + strategy
+                + ", lookups=" + lookupCount
+                + ", hits=" + hitCount
+                + ", shared=" + sharedHitCount + "}";
+    }
+
+    static String stripQuery(String videoUrl) {
+        int end = videoUrl.indexOf('?');
+        if (end < 0) {
+            end = videoUrl.indexOf('#');
+        }
+        return end < 0 ? videoUrl : videoUrl.substring(0, end);
+    }
+}
@@ -0,0 +1,301 @@
+package com.sogo.exoplayer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 视频缓存的统计: 每次播放从磁盘和网络读取的字节数, 预加载数据的使用率, 淘汰次数, 缓存大小.
+ * <p>
+ * 播放的数据来自 {@link CacheMetricsListener}, 淘汰来自 {@link MeteredCacheEvictor},
+ * 预加载来自 {@link PlayerWrapper#preload}. 可以随时取 {@link #snapshot()}, 也可以定时输出.
+ */
+public class CacheMetrics {
+    private static final String TAG = "CacheMetrics";
+
+    private static final int MAX_TRACKED_KEYS = 256;
+    // 同时记录的播放数, 超出时丢弃最早开始的
+    private static final int MAX_ACTIVE_PLAYS = 16;
+
+    public interface Gauge {
+        long get();
+    }
+
+    public interface Reporter {
+        void report(Snapshot snapshot);
+    }
+
+    /**
+     * 一次播放(一个 MediaSource)读取的数据, 在加载线程上更新
+     */
+    public static final class Play {
+        public final String key;
+        final AtomicLong bytesFromCache = new AtomicLong();
+        final AtomicLong bytesFromNetwork = new AtomicLong();
+
+        Play(String key) {
+            this.key = key;
+        }
+
+        public void onCacheRead(long bytes) {
+            bytesFromCache.addAndGet(bytes);
+        }
+
+        public void onNetworkRead(long bytes) {
+            bytesFromNetwork.addAndGet(bytes);
+        }
+
+        public long getBytesFromCache() {
+            return bytesFromCache.get();
+        }
+
+        public long getBytesFromNetwork() {
+            return bytesFromNetwork.get();
+        }
+
+        @Override
+        public String toString() {
+            return "Play{" + key + ", cache=" + bytesFromCache.get() + ", network=" + bytesFromNetwork.get() + "}";
+        }
+    }
+
+    public static final class Snapshot {
+        public final int plays;
+        public final int discardedPlays;
+        public final long bytesFromCache;
+        public final long bytesFromNetwork;
+        public final long lastPlayBytesFromCache;
+        public final long lastPlayBytesFromNetwork;
+        public final long preloadedBytes;
+        public final long preloadUsedBytes;
+        public final long preloadEvictedBytes;
+        public final int evictions;
+        public final long evictedBytes;
+        public final long cacheBytes;
+        public final long cacheKeys;
+        public final long indexBytes;
+
+        Snapshot(int plays, int discardedPlays, long bytesFromCache, long bytesFromNetwork,
+                 long lastPlayBytesFromCache, long lastPlayBytesFromNetwork,
+                 long preloadedBytes, long preloadUsedBytes, long preloadEvictedBytes,
+                 int evictions, long evictedBytes, long cacheBytes, long cacheKeys, long indexBytes) {
+            this.plays = plays;
+            this.discardedPlays = discardedPlays;
+            this.bytesFromCache = bytesFromCache;
+            this.bytesFromNetwork = bytesFromNetwork;
+            this.lastPlayBytesFromCache = lastPlayBytesFromCache;
+            this.lastPlayBytesFromNetwork = lastPlayBytesFromNetwork;
+            this.preloadedBytes = preloadedBytes;
+            this.preloadUsedBytes = preloadUsedBytes;
+            this.preloadEvictedBytes = preloadEvictedBytes;
+            this.evictions = evictions;
+            this.evictedBytes = evictedBytes;
+            this.cacheBytes = cacheBytes;
+            this.cacheKeys = cacheKeys;
+            this.indexBytes = indexBytes;
+        }
+
+        /**
+         * @return 播放数据中来自磁盘的比例
+         */
+        public float getCacheRatio() {
+            long total = bytesFromCache + bytesFromNetwork;
+            return total == 0 ? 0f : (float) bytesFromCache / total;
+        }
+
+        /**
+         * @return 预加载的数据中被播放用到的比例
+         */
+        public float getPreloadUtilization() {
+            return preloadedBytes == 0 ? 0f : (float) preloadUsedBytes / preloadedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "CacheMetrics{plays=" + plays
+                    + ", discarded=" + discardedPlays
+                    + ", cache=" + bytesFromCache
+                    + ", network=" + bytesFromNetwork
+                    + ", cacheRatio=" + getCacheRatio()
+                    + ", lastPlay=" + lastPlayBytesFromCache + "/" + lastPlayBytesFromNetwork
+                    + ", preloaded=" + preloadedBytes
+                    + ", preloadUsed=" + preloadUsedBytes
+                    + ", preloadEvicted=" + preloadEvictedBytes
+                    + ", utilization=" + getPreloadUtilization()
+                    + ", evictions=" + evictions + "/" + evictedBytes
+                    + ", size=" + cacheBytes
+                    + ", keys=" + cacheKeys
+                    + ", index=" + indexBytes + "}";
+        }
+    }
+
+    private static final Gauge ZERO = new Gauge() {
+        @Override
+        public long get() {
+            return 0;
+        }
+    };
+
+    // 正在播放或已经 prepare 的
+    private final Map<String, Play> activePlays = new LinkedHashMap<>();
+    // 预加载过、还没有被播放用到的字节数
+    private final Map<String, Long> pendingPreloads = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_TRACKED_KEYS;
+        }
+    };
+
+    private int plays = 0;
+    private int discardedPlays = 0;
+    private long bytesFromCache = 0;
+    private long bytesFromNetwork = 0;
+    private long lastPlayBytesFromCache = 0;
+    private long lastPlayBytesFromNetwork = 0;
+    private long preloadedBytes = 0;
+    private long preloadUsedBytes = 0;
+    private long preloadEvictedBytes = 0;
+    private int evictions = 0;
+    private long evictedBytes = 0;
+
+    private Gauge cacheBytes = ZERO;
+    private Gauge cacheKeys = ZERO;
+    private Gauge indexBytes = ZERO;
+
+    private ScheduledExecutorService reportExecutor;
+
+    public synchronized void setGauges(Gauge cacheBytes, Gauge cacheKeys, Gauge indexBytes) {
+        this.cacheBytes = cacheBytes;
+        this.cacheKeys = cacheKeys;
+        this.indexBytes = indexBytes;
+    }
+
+    /**
+     * 开始一次播放, 同一个 key 还没有结束的播放会先结束
+     */
+    public synchronized Play startPlay(String key) {
+        Play old = activePlays.remove(key);
+        if (old != null) {
+            finish(old);
+        }
+        Play play = new Play(key);
+        activePlays.put(key, play);
+        if (activePlays.size() > MAX_ACTIVE_PLAYS) {
+            // 没有结束的记录(比如漏掉了 finishPlay)只保留最近的
+            discard(activePlays.values().iterator().next());
+        }
+        return play;
+    }
+
+    public synchronized void finishPlay(String key) {
+        Play play = activePlays.remove(key);
+        if (play != null) {
+            finish(play);
+        }
+    }
+
+    /**
+     * 没有播放就丢弃, 例如提前 prepare 后没有滑过去. 读取的字节数计入总数, 但不算一次播放
+     */
+    public synchronized void discardPlay(String key) {
+        Play play = activePlays.get(key);
+        if (play != null) {
+            discard(play);
+        }
+    }
+
+    public synchronized void onPreloaded(String key, long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        preloadedBytes += bytes;
+        Long pending = pendingPreloads.get(key);
+        pendingPreloads.put(key, pending == null ? bytes : pending + bytes);
+    }
+
+    /**
+     * 缓存淘汰了一段数据
+     */
+    public synchronized void onEvicted(String key, long bytes) {
+        evictions++;
+        evictedBytes += bytes;
+        Long pending = pendingPreloads.get(key);
+        if (pending != null) {
+            long evicted = Math.min(pending, bytes);
+            preloadEvictedBytes += evicted;
+            if (pending - evicted > 0) {
+                pendingPreloads.put(key, pending - evicted);
+            } else {
+                pendingPreloads.remove(key);
+            }
+        }
+    }
+
+    public synchronized Snapshot snapshot() {
+        long activeCache = 0;
+        long activeNetwork = 0;
+        for (Play play : activePlays.values()) {
+            activeCache += play.getBytesFromCache();
+            activeNetwork += play.getBytesFromNetwork();
+        }
+        return new Snapshot(plays, discardedPlays, bytesFromCache + activeCache, bytesFromNetwork + activeNetwork,
+                lastPlayBytesFromCache, lastPlayBytesFromNetwork,
+                preloadedBytes, preloadUsedBytes, preloadEvictedBytes,
+                evictions, evictedBytes, cacheBytes.get(), cacheKeys.get(), indexBytes.get());
+    }
+
+    /**
+     * 每隔 intervalMs 在后台线程输出一次 {@link #snapshot()}
+     */
+    public synchronized void startReporting(long intervalMs, final Reporter reporter) {
+        stopReporting();
+        reportExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        reportExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                reporter.report(snapshot());
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopReporting() {
+        if (reportExecutor != null) {
+            reportExecutor.shutdownNow();
+            reportExecutor = null;
+        }
+    }
+
+    // 以下方法需持有锁
+
+    private void discard(Play play) {
+        activePlays.remove(play.key);
+        discardedPlays++;
+        bytesFromCache += play.getBytesFromCache();
+        bytesFromNetwork += play.getBytesFromNetwork();
+        VLog.d(TAG, "discard: " + play);
+    }
+
+    private void finish(Play play) {
+        plays++;
+        lastPlayBytesFromCache = play.getBytesFromCache();
+        lastPlayBytesFromNetwork = play.getBytesFromNetwork();
+        bytesFromCache += lastPlayBytesFromCache;
+        bytesFromNetwork += lastPlayBytesFromNetwork;
+        Long pending = pendingPreloads.remove(play.key);
+        if (pending != null) {
+            preloadUsedBytes += Math.min(pending, lastPlayBytesFromCache);
+        }
+        VLog.d(TAG, "finish: " + play);
+    }
+}
@@ -0,0 +1,73 @@
+package com.sogo.exoplayer;
+
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+
+/**
+ * 一次播放的 {@link CacheDataSource} 监听: 磁盘读取来自 {@link CacheDataSource.EventListener},
+ * 网络读取来自挂在上游的 {@link TransferListener}, 上游的传输事件继续交给 delegate 测速.
+ * 第一次读到数据时记录到 {@link PlaybackTimings.Session}.
+ * 提前 prepare 的 player 在被取出播放之前, 网络读取计入 {@link PreloadBudget}.
+ */
+public class CacheMetricsListener implements CacheDataSource.EventListener, TransferListener<Object> {
+
+    private final CacheMetrics.Play play;
+    private final TransferListener<Object> delegate;
+    private final PlaybackTimings.Session session;
+    // 不为 null 时网络读取算作预加载
+    private volatile PreloadBudget backgroundBudget;
+
+    public CacheMetricsListener(CacheMetrics.Play play, TransferListener<Object> delegate,
+                                PlaybackTimings.Session session) {
+        this.play = play;
+        this.delegate = delegate;
+        this.session = session;
+    }
+
+    public CacheMetrics.Play getPlay() {
+        return play;
+    }
+
+    /**
+     * @param budget 之后的网络读取计入这个预算, null 表示已经开始播放, 不再计入
+     */
+    public void setBackgroundBudget(@Nullable PreloadBudget budget) {
+        backgroundBudget = budget;
+    }
+
+    @Override
+    public void onCachedBytesRead(long cacheSizeBytes, long cachedBytesRead) {
+        play.onCacheRead(cachedBytesRead);
+        markFirstBytes();
+    }
+
+    @Override
+    public void onTransferStart(Object source, DataSpec dataSpec) {
+        delegate.onTransferStart(source, dataSpec);
+    }
+
+    @Override
+    public void onBytesTransferred(Object source, int bytesTransferred) {
+        play.onNetworkRead(bytesTransferred);
+        PreloadBudget budget = backgroundBudget;
+        if (budget != null) {
+            budget.onPreloaded(bytesTransferred);
+        }
+        markFirstBytes();
+        delegate.onBytesTransferred(source, bytesTransferred);
+    }
+
+    @Override
+    public void onTransferEnd(Object source) {
+        delegate.onTransferEnd(source);
+    }
+
+    private void markFirstBytes() {
+        if (!session.has(PlaybackTimings.FIRST_BYTES)) {
+            session.mark(PlaybackTimings.FIRST_BYTES);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.sogo.exoplayer;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.cache.CacheUtil;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * 播放用的 DataSource, 包在 CacheDataSource 外面.
+ * <p>
+ * 打开之前先 {@link InFlightRanges#attach}: 预加载正在下载这个位置时, 等这一段提交到缓存,
+ * 然后只打开已经提交的部分; 读完再 attach 下一段, 直到预加载结束.
+ * CacheDataSource 遇到预加载还锁着的部分会绕过缓存把剩下的都下载一遍, 所以不能一次打开到底.
+ * 没有预加载或者等待超时时照常打开.
+ */
+public class CoalescingDataSource implements DataSource {
+
+    public static final class Factory implements DataSource.Factory {
+        private final DataSource.Factory cacheFactory;
+        private final InFlightRanges ranges;
+        private final long attachTimeoutMs;
+
+        public Factory(DataSource.Factory cacheFactory, InFlightRanges ranges, long attachTimeoutMs) {
+            this.cacheFactory = cacheFactory;
+            this.ranges = ranges;
+            this.attachTimeoutMs = attachTimeoutMs;
+        }
+
+        @Override
+        public DataSource createDataSource() {
+            return new CoalescingDataSource(cacheFactory.createDataSource(), ranges, attachTimeoutMs);
+        }
+    }
+
+    private final DataSource cacheDataSource;
+    private final InFlightRanges ranges;
+    private final long attachTimeoutMs;
+
+    private DataSpec dataSpec;
+    private String key;
+    // 下一个要读的位置, 当前打开的一段的结束位置(没有限制时为 C.POSITION_UNSET)
+    private long position;
+    private long segmentEnd;
+    private boolean opened;
+
+    public CoalescingDataSource(DataSource cacheDataSource, InFlightRanges ranges, long attachTimeoutMs) {
+        this.cacheDataSource = cacheDataSource;
+        this.ranges = ranges;
+        this.attachTimeoutMs = attachTimeoutMs;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        this.dataSpec = dataSpec;
+        key = CacheUtil.getKey(dataSpec);
+        position = dataSpec.absoluteStreamPosition;
+        long length = openSegment();
+        // 只打开了已经提交的一段时, 总长度按请求的长度返回
+        return segmentEnd == C.POSITION_UNSET ? length : dataSpec.length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        while (true) {
+            int read = cacheDataSource.read(buffer, offset, readLength);
+            if (read != C.RESULT_END_OF_INPUT) {
+                position += read;
+                return read;
+            }
+            if (segmentEnd == C.POSITION_UNSET || position < segmentEnd) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            // 已经提交的一段读完了, 接着等预加载的下一段
+            closeSegment();
+            openSegment();
+        }
+    }
+
+    @Override
+    public Uri getUri() {
+        return cacheDataSource.getUri();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeSegment();
+    }
+
+    /**
+     * 从 position 打开, 预加载正在下载时只打开到已经提交的位置
+     */
+    private long openSegment() throws IOException {
+        long committed;
+        try {
+            committed = ranges.attach(key, position, attachTimeoutMs);
+        } catch (InterruptedException e) {
+            // 加载被取消
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        long end = end();
+        segmentEnd = committed > position && (end == C.POSITION_UNSET || committed < end)
+                ? committed : C.POSITION_UNSET;
+        long offset = position - dataSpec.absoluteStreamPosition;
+        long length;
+        if (segmentEnd != C.POSITION_UNSET) {
+            length = segmentEnd - position;
+        } else {
+            length = dataSpec.length == C.LENGTH_UNSET ? C.LENGTH_UNSET : dataSpec.length - offset;
+        }
+        long result = cacheDataSource.open(dataSpec.subrange(offset, length));
+        opened = true;
+        return result;
+    }
+
+    private void closeSegment() throws IOException {
+        if (opened) {
+            opened = false;
+            cacheDataSource.close();
+        }
+    }
+
+    // 请求的结束位置, 长度未知时为 C.POSITION_UNSET
+    private long end() {
+        return dataSpec.length == C.LENGTH_UNSET ? C.POSITION_UNSET : dataSpec.absoluteStreamPosition + dataSpec.length;
+    }
+}
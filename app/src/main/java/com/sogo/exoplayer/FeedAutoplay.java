@@ -0,0 +1,124 @@
+package com.sogo.exoplayer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+/**
+ * 列表自动播放: 滑动停下 debounceMs 之后, 用 {@link AutoplayPicker} 选出露出最多的一行,
+ * 把唯一的 player 切换过去.
+ * <p>
+ * 停下之前重新开始滑动会取消这次切换. 惯性滑动时 {@link ScrollPrefetcher} 已经提前 prepare 了停下的那一行,
+ * 切换时直接使用, 不需要重新 prepare. 从停下到第一帧的耗时记在
+ * {@link PlaybackTimings#AUTOPLAY_SWITCH}.
+ */
+public class FeedAutoplay extends RecyclerView.OnScrollListener {
+    private static final String TAG = "FeedAutoplay";
+
+    public static final long DEFAULT_DEBOUNCE_MS = 250;
+
+    private final RecyclerView recyclerView;
+    private final LinearLayoutManager layoutManager;
+    private final AutoplayPicker picker;
+    private final long debounceMs;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private boolean enabled = true;
+    // 最近一次停下的时间, System.nanoTime
+    private long settleNs = 0;
+    private float[] fractions = new float[4];
+
+    private final Runnable settleCheck = new Runnable() {
+        @Override
+        public void run() {
+            autoplayMostVisible();
+        }
+    };
+
+    public static FeedAutoplay attach(RecyclerView recyclerView, LinearLayoutManager layoutManager) {
+        FeedAutoplay autoplay = new FeedAutoplay(recyclerView, layoutManager, new AutoplayPicker(),
+                DEFAULT_DEBOUNCE_MS);
+        recyclerView.addOnScrollListener(autoplay);
+        return autoplay;
+    }
+
+    public FeedAutoplay(RecyclerView recyclerView, LinearLayoutManager layoutManager, AutoplayPicker picker,
+                        long debounceMs) {
+        this.recyclerView = recyclerView;
+        this.layoutManager = layoutManager;
+        this.picker = picker;
+        this.debounceMs = debounceMs;
+    }
+
+    /**
+     * 页面不可见时关闭, 已经在等待的切换会被取消
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            handler.removeCallbacks(settleCheck);
+        }
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        handler.removeCallbacks(settleCheck);
+        if (newState == RecyclerView.SCROLL_STATE_IDLE && enabled) {
+            settleNs = System.nanoTime();
+            handler.postDelayed(settleCheck, debounceMs);
+        }
+    }
+
+    private void autoplayMostVisible() {
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (!enabled || first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION) {
+            return;
+        }
+        int count = last - first + 1;
+        if (fractions.length < count) {
+            fractions = new float[count];
+        }
+        PlayerManager manager = PlayerManager.getInstance();
+        HolderRegistry holders = manager.getHolderRegistry();
+        int current = AutoplayPicker.NO_POSITION;
+        for (int i = 0; i < count; i++) {
+            int position = first + i;
+            fractions[i] = getVisibleFraction(layoutManager.findViewByPosition(position));
+            PlayerManager.PlayerHolder holder = getHolder(holders, position);
+            if (holder != null && manager.isAttached(holder)) {
+                current = position;
+            }
+        }
+
+        int position = picker.pick(first, fractions, count, current);
+        if (position == AutoplayPicker.NO_POSITION || position == current) {
+            return;
+        }
+        PlayerManager.PlayerHolder holder = getHolder(holders, position);
+        if (holder == null) {
+            VLog.d(TAG, "autoplayMostVisible: no holder at " + position);
+            return;
+        }
+        VLog.d(TAG, "autoplayMostVisible: " + current + " -> " + position + ", settled "
+                + (System.nanoTime() - settleNs) / 1000000 + "ms ago");
+        holder.autoplay(settleNs);
+    }
+
+    private static PlayerManager.PlayerHolder getHolder(HolderRegistry holders, int position) {
+        String videoUrl = holders.getUrlAt(position);
+        return videoUrl == null ? null : holders.get(videoUrl);
+    }
+
+    // 露在列表范围内的高度占这一行的比例
+    private float getVisibleFraction(View child) {
+        if (child == null || child.getHeight() == 0) {
+            return 0f;
+        }
+        int top = Math.max(child.getTop(), 0);
+        int bottom = Math.min(child.getBottom(), recyclerView.getHeight());
+        return Math.max(0, bottom - top) / (float) child.getHeight();
+    }
+}
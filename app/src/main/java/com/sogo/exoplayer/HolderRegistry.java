@@ -0,0 +1,129 @@
+package com.sogo.exoplayer;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * url 到 {@link PlayerManager.PlayerHolder} 的注册表, 同时记录列表位置到 url 的对应关系.
+ * <p>
+ * holder 持有 View 和 Context, 这里只保存弱引用, 被回收的条目会在下次访问时清理;
+ * 条目数量超过上限时按 LRU 淘汰, 长时间滑动列表内存也不会增长.
+ * <p>
+ * 所有方法用同一把锁: 按访问排序的 LinkedHashMap 在 get 时也会修改,
+ * 而且 url 和位置两个表、弱引用的清理需要一起更新. 调用都很短, 竞争只来自主线程和预加载线程.
+ */
+public class HolderRegistry {
+
+    public static final int DEFAULT_MAX_SIZE = 64;
+
+    private static final class Entry extends WeakReference<PlayerManager.PlayerHolder> {
+        final String videoUrl;
+        final int position;
+
+        Entry(String videoUrl, int position, PlayerManager.PlayerHolder holder,
+              ReferenceQueue<PlayerManager.PlayerHolder> queue) {
+            super(holder, queue);
+            this.videoUrl = videoUrl;
+            this.position = position;
+        }
+    }
+
+    private final int maxSize;
+    private final ReferenceQueue<PlayerManager.PlayerHolder> queue = new ReferenceQueue<>();
+    private final Map<Integer, String> positionUrls = new HashMap<>();
+    private final LinkedHashMap<String, Entry> entries;
+
+    private long evictedCount = 0;
+    private long collectedCount = 0;
+
+    public HolderRegistry(int maxSize) {
+        this.maxSize = maxSize;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > HolderRegistry.this.maxSize) {
+                    evictedCount++;
+                    removePosition(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized void put(int position, String videoUrl, PlayerManager.PlayerHolder holder) {
+        purge();
+        Entry old = entries.put(videoUrl, new Entry(videoUrl, position, holder, queue));
+        if (old != null && old.position != position) {
+            removePosition(old);
+        }
+        if (position != PlayerManager.NO_POSITION) {
+            positionUrls.put(position, videoUrl);
+        }
+    }
+
+    public synchronized PlayerManager.PlayerHolder get(String videoUrl) {
+        purge();
+        Entry entry = entries.get(videoUrl);
+        return entry == null ? null : entry.get();
+    }
+
+    /**
+     * @return 位置上最近绑定的 url, 没有记录时返回 null
+     */
+    public synchronized String getUrlAt(int position) {
+        purge();
+        return positionUrls.get(position);
+    }
+
+    public synchronized void remove(String videoUrl) {
+        Entry entry = entries.remove(videoUrl);
+        if (entry != null) {
+            removePosition(entry);
+        }
+    }
+
+    public synchronized int size() {
+        purge();
+        return entries.size();
+    }
+
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    public synchronized long getCollectedCount() {
+        return collectedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "HolderRegistry{size=" + entries.size()
+                + ", max=" + maxSize
+                + ", evicted=" + evictedCount
+                + ", collected=" + collectedCount + "}";
+    }
+
+    // 以下方法需持有锁
+
+    private void purge() {
+        Entry entry;
+        while ((entry = (Entry) queue.poll()) != null) {
+            // 同一个 url 可能已经绑定了新的 holder
+            if (entries.get(entry.videoUrl) == entry) {
+                entries.remove(entry.videoUrl);
+                removePosition(entry);
+                collectedCount++;
+            }
+        }
+    }
+
+    private void removePosition(Entry entry) {
+        if (entry.videoUrl.equals(positionUrls.get(entry.position))) {
+            positionUrls.remove(entry.position);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.sogo.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSink;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSink;
+import com.google.android.exoplayer2.upstream.cache.CacheUtil;
+
+import java.io.IOException;
+
+/**
+ * 预加载写缓存用的 DataSink, 把已经提交到缓存的位置报告给 {@link InFlightRanges}.
+ * <p>
+ * CacheDataSink 每写满 fragmentBytes 就提交一个 span, 播放不用等整个预加载结束就能从缓存读开头.
+ */
+public class InFlightDataSink implements DataSink {
+
+    /**
+     * 预加载写缓存时每个 span 的大小
+     */
+    public static final long DEFAULT_FRAGMENT_BYTES = 64 * 1024;
+
+    public static final class Factory implements DataSink.Factory {
+        private final Cache cache;
+        private final long fragmentBytes;
+        private final InFlightRanges ranges;
+
+        public Factory(Cache cache, long fragmentBytes, InFlightRanges ranges) {
+            this.cache = cache;
+            this.fragmentBytes = fragmentBytes;
+            this.ranges = ranges;
+        }
+
+        @Override
+        public DataSink createDataSink() {
+            return new InFlightDataSink(new CacheDataSink(cache, fragmentBytes), fragmentBytes, ranges);
+        }
+    }
+
+    private final DataSink sink;
+    private final long fragmentBytes;
+    private final InFlightRanges ranges;
+    private InFlightRanges.Fetch fetch;
+    private long position;
+    private long written;
+
+    /**
+     * @param sink          CacheDataSink, 每个文件最大 fragmentBytes
+     * @param fragmentBytes 和 sink 的最大文件大小一致
+     */
+    public InFlightDataSink(DataSink sink, long fragmentBytes, InFlightRanges ranges) {
+        this.sink = sink;
+        this.fragmentBytes = fragmentBytes;
+        this.ranges = ranges;
+    }
+
+    @Override
+    public void open(DataSpec dataSpec) throws IOException {
+        sink.open(dataSpec);
+        position = dataSpec.absoluteStreamPosition;
+        written = 0;
+        // 长度未知时 CacheDataSink 可能不写缓存, 不报告, 播放照旧等预加载结束
+        if (dataSpec.length != C.LENGTH_UNSET) {
+            fetch = ranges.beginCommit(CacheUtil.getKey(dataSpec), position);
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        sink.write(buffer, offset, length);
+        written += length;
+        if (fetch != null && written > fragmentBytes) {
+            // 写满的文件在写入下一个字节时才提交, 最后一个文件在 close 时提交
+            ranges.onCommitted(fetch, position + (written - 1) / fragmentBytes * fragmentBytes);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sink.close();
+            if (fetch != null) {
+                ranges.onCommitted(fetch, position + written);
+            }
+        } finally {
+            if (fetch != null) {
+                ranges.endCommit(fetch);
+                fetch = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.sogo.exoplayer;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.cache.CacheUtil;
+
+import java.io.IOException;
+
+/**
+ * 把经过它的网络请求登记到 {@link InFlightRanges}, 放在 CacheDataSource 的 upstream 位置.
+ */
+public class InFlightDataSource implements DataSource {
+
+    public static final class Factory implements DataSource.Factory {
+        private final DataSource.Factory upstreamFactory;
+        private final InFlightRanges ranges;
+        private final int priority;
+
+        /**
+         * @param priority {@link InFlightRanges#PRIORITY_PRELOAD} 或 {@link InFlightRanges#PRIORITY_PLAYBACK}
+         */
+        public Factory(DataSource.Factory upstreamFactory, InFlightRanges ranges, int priority) {
+            this.upstreamFactory = upstreamFactory;
+            this.ranges = ranges;
+            this.priority = priority;
+        }
+
+        @Override
+        public DataSource createDataSource() {
+            return new InFlightDataSource(upstreamFactory.createDataSource(), ranges, priority);
+        }
+    }
+
+    private final DataSource upstream;
+    private final InFlightRanges ranges;
+    private final int priority;
+    private InFlightRanges.Fetch fetch;
+
+    public InFlightDataSource(DataSource upstream, InFlightRanges ranges, int priority) {
+        this.upstream = upstream;
+        this.ranges = ranges;
+        this.priority = priority;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        fetch = ranges.begin(CacheUtil.getKey(dataSpec), dataSpec.absoluteStreamPosition, dataSpec.length, priority);
+        try {
+            return upstream.open(dataSpec);
+        } catch (IOException e) {
+            endFetch();
+            throw e;
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        int read = upstream.read(buffer, offset, readLength);
+        if (read > 0 && fetch != null) {
+            ranges.onBytes(fetch, read);
+        }
+        return read;
+    }
+
+    @Override
+    public Uri getUri() {
+        return upstream.getUri();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            upstream.close();
+        } finally {
+            endFetch();
+        }
+    }
+
+    private void endFetch() {
+        if (fetch != null) {
+            ranges.end(fetch);
+            fetch = null;
+        }
+    }
+}
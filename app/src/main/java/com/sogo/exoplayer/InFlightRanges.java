@@ -0,0 +1,325 @@
+package com.sogo.exoplayer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 正在从网络下载的数据段, 按缓存 key 登记.
+ * <p>
+ * 点击时预加载可能还在下载开头, 缓存被预加载锁住, 播放的 CacheDataSource 会绕过缓存再下载一遍.
+ * 播放打开数据前先 {@link #attach}: 同一个 key 有预加载正在下载这个位置时, 把预加载线程提升到播放的优先级,
+ * 等包含这个位置的那一段提交到缓存再从缓存读, 不等整个预加载结束.
+ * 提交的位置由预加载写缓存的 {@link InFlightDataSink} 报告.
+ * 每段数据和开始时已经在下载的段重叠的部分记为重复下载的字节数.
+ */
+public class InFlightRanges {
+    private static final String TAG = "InFlightRanges";
+
+    public static final int PRIORITY_PRELOAD = 0;
+    public static final int PRIORITY_PLAYBACK = 1;
+
+    /**
+     * 播放等待预加载的最长时间, 超时后照常打开
+     */
+    public static final long DEFAULT_ATTACH_TIMEOUT_MS = 500;
+
+    /**
+     * 一次网络请求, 在请求所在的线程 begin / onBytes / end
+     */
+    public static final class Fetch {
+        public final String key;
+        public final long position;
+        // 长度未知时为 Long.MAX_VALUE
+        final long end;
+        final int priority;
+        final Thread thread;
+        final int threadPriority;
+        // 开始时同一个 key 正在下载的请求
+        final List<Fetch> concurrent;
+        // 以下由 InFlightRanges 的锁保护
+        private long fetched = 0;
+        private boolean promoted = false;
+        private boolean ended = false;
+        // 已经提交到缓存的位置, 和正在写缓存的 sink 是否还没关闭
+        private long committed;
+        private boolean committing = false;
+
+        Fetch(String key, long position, long end, int priority, List<Fetch> concurrent) {
+            this.key = key;
+            this.position = position;
+            this.end = end;
+            this.priority = priority;
+            this.concurrent = concurrent;
+            thread = Thread.currentThread();
+            threadPriority = thread.getPriority();
+            committed = position;
+        }
+
+        boolean covers(long at) {
+            return at >= position && at < end;
+        }
+
+        // 已经结束的只算实际下载到的部分
+        long effectiveEnd() {
+            return ended ? position + fetched : end;
+        }
+
+        // 下载结束, 并且 sink 已经提交了剩下的部分
+        boolean isSettled() {
+            return ended && !committing;
+        }
+
+        @Override
+        public String toString() {
+            return "Fetch{" + key + " [" + position + ", " + (end == Long.MAX_VALUE ? "end" : String.valueOf(end))
+                    + "), fetched=" + fetched + ", committed=" + committed + ", priority=" + priority + "}";
+        }
+    }
+
+    private static final Comparator<long[]> BY_START = new Comparator<long[]>() {
+        @Override
+        public int compare(long[] a, long[] b) {
+            return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+        }
+    };
+
+    private final Map<String, List<Fetch>> fetches = new HashMap<>();
+
+    private long fetchedBytes = 0;
+    private long duplicateBytes = 0;
+    private long attachCount = 0;
+    private long attachTimeoutCount = 0;
+    private long promotedCount = 0;
+
+    /**
+     * 开始下载 key 从 position 开始的 length 字节
+     *
+     * @param length   小于 0 表示到文件末尾
+     * @param priority {@link #PRIORITY_PRELOAD} 或 {@link #PRIORITY_PLAYBACK}
+     */
+    public synchronized Fetch begin(String key, long position, long length, int priority) {
+        List<Fetch> list = fetches.get(key);
+        if (list == null) {
+            list = new ArrayList<>(2);
+            fetches.put(key, list);
+        }
+        long end = length < 0 ? Long.MAX_VALUE : position + length;
+        List<Fetch> concurrent = Collections.emptyList();
+        for (Fetch other : list) {
+            if (other.position < end && position < other.end) {
+                if (concurrent.isEmpty()) {
+                    concurrent = new ArrayList<>(2);
+                }
+                concurrent.add(other);
+            }
+        }
+        Fetch fetch = new Fetch(key, position, end, priority, concurrent);
+        list.add(fetch);
+        return fetch;
+    }
+
+    /**
+     * 收到 bytes 字节, 与开始时已经在下载的请求重叠的部分记为重复
+     */
+    public synchronized void onBytes(Fetch fetch, int bytes) {
+        long start = fetch.position + fetch.fetched;
+        fetch.fetched += bytes;
+        fetchedBytes += bytes;
+        if (!fetch.concurrent.isEmpty()) {
+            duplicateBytes += coveredLength(fetch.concurrent, start, start + bytes);
+        }
+    }
+
+    public synchronized void end(Fetch fetch) {
+        if (fetch.ended) {
+            return;
+        }
+        fetch.ended = true;
+        List<Fetch> list = fetches.get(fetch.key);
+        if (list != null) {
+            list.remove(fetch);
+            if (list.isEmpty()) {
+                fetches.remove(fetch.key);
+            }
+        }
+        if (fetch.promoted && fetch.thread == Thread.currentThread()) {
+            fetch.thread.setPriority(fetch.threadPriority);
+        }
+        notifyAll();
+    }
+
+    /**
+     * 预加载写缓存的 sink 打开时调用
+     *
+     * @return key 从 position 开始、正在下载的预加载, 没有时返回 null
+     */
+    public synchronized Fetch beginCommit(String key, long position) {
+        List<Fetch> list = fetches.get(key);
+        if (list == null) {
+            return null;
+        }
+        for (int i = list.size() - 1; i >= 0; i--) {
+            Fetch fetch = list.get(i);
+            if (fetch.priority == PRIORITY_PRELOAD && fetch.position == position && !fetch.committing) {
+                fetch.committing = true;
+                return fetch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * end 之前的数据已经提交到缓存, 可以从缓存读了
+     */
+    public synchronized void onCommitted(Fetch fetch, long end) {
+        if (end > fetch.committed) {
+            fetch.committed = end;
+            notifyAll();
+        }
+    }
+
+    /**
+     * 写缓存的 sink 关闭, 在 {@link #end} 之后也可能调用
+     */
+    public synchronized void endCommit(Fetch fetch) {
+        fetch.committing = false;
+        notifyAll();
+    }
+
+    /**
+     * 播放打开 key 的 position 之前调用: 正在下载这个位置的预加载提升到播放的优先级,
+     * 等包含 position 的那一段提交到缓存. 预加载没有报告提交的位置时等它结束.
+     *
+     * @return 已经提交到缓存的位置, 没有等待或者超时时返回 position
+     */
+    public synchronized long attach(String key, long position, long timeoutMs) throws InterruptedException {
+        Fetch fetch = findPreload(key, position);
+        if (fetch == null) {
+            return position;
+        }
+        attachCount++;
+        promote(fetch);
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (fetch.committed <= position && !fetch.isSettled()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                attachTimeoutCount++;
+                VLog.d(TAG, "attach: timeout after " + timeoutMs + "ms, " + fetch);
+                return position;
+            }
+            wait(remaining);
+        }
+        long committed = Math.max(position, fetch.committed);
+        VLog.d(TAG, "attach: " + key + " from " + position + ", committed to " + committed);
+        return committed;
+    }
+
+    /**
+     * @return key 是否有正在被播放等待的预加载
+     */
+    public synchronized boolean isPromoted(String key) {
+        List<Fetch> list = fetches.get(key);
+        if (list != null) {
+            for (Fetch fetch : list) {
+                if (fetch.promoted) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public synchronized int getInFlightCount() {
+        int count = 0;
+        for (List<Fetch> list : fetches.values()) {
+            count += list.size();
+        }
+        return count;
+    }
+
+    public synchronized long getFetchedBytes() {
+        return fetchedBytes;
+    }
+
+    /**
+     * @return 和已经在下载的数据重叠、又下载了一遍的字节数
+     */
+    public synchronized long getDuplicateBytes() {
+        return duplicateBytes;
+    }
+
+    public synchronized long getAttachCount() {
+        return attachCount;
+    }
+
+    public synchronized long getAttachTimeoutCount() {
+        return attachTimeoutCount;
+    }
+
+    public synchronized long getPromotedCount() {
+        return promotedCount;
+    }
+
+    private Fetch findPreload(String key, long position) {
+        List<Fetch> list = fetches.get(key);
+        if (list == null) {
+            return null;
+        }
+        for (Fetch fetch : list) {
+            if (fetch.priority == PRIORITY_PRELOAD && fetch.covers(position)) {
+                return fetch;
+            }
+        }
+        return null;
+    }
+
+    private void promote(Fetch fetch) {
+        if (fetch.promoted) {
+            return;
+        }
+        fetch.promoted = true;
+        promotedCount++;
+        if (fetch.threadPriority < Thread.NORM_PRIORITY) {
+            fetch.thread.setPriority(Thread.NORM_PRIORITY);
+        }
+    }
+
+    /**
+     * @return [start, end) 中被 fetches 覆盖的长度
+     */
+    private static long coveredLength(List<Fetch> fetches, long start, long end) {
+        List<long[]> parts = new ArrayList<>(fetches.size());
+        for (Fetch fetch : fetches) {
+            long s = Math.max(start, fetch.position);
+            long e = Math.min(end, fetch.effectiveEnd());
+            if (s < e) {
+                parts.add(new long[]{s, e});
+            }
+        }
+        Collections.sort(parts, BY_START);
+        long length = 0;
+        long reached = start;
+        for (long[] part : parts) {
+            long s = Math.max(part[0], reached);
+            if (part[1] > s) {
+                length += part[1] - s;
+                reached = part[1];
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "InFlightRanges{inFlight=" + getInFlightCount()
+                + ", fetched=" + fetchedBytes
+                + ", duplicate=" + duplicateBytes
+                + ", attached=" + attachCount
+                + ", attachTimeouts=" + attachTimeoutCount
+                + ", promoted=" + promotedCount + "}";
+    }
+}
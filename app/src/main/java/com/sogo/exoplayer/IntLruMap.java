@@ -0,0 +1,237 @@
+package com.sogo.exoplayer;
+
+import java.util.Arrays;
+
+/**
+ * int 作为 key 的 LRU map, 容量固定, 超过容量时淘汰最久没有访问的条目.
+ * <p>
+ * 用开放寻址(线性探测)的哈希表保存条目下标, 条目的 key/value 和 LRU 链表都放在数组里,
+ * get/put/remove 不会装箱, 也不会分配 entry 对象. 不是线程安全的.
+ */
+public final class IntLruMap<V> {
+
+    public interface Visitor<V> {
+        void visit(int key, V value);
+    }
+
+    private static final int NONE = -1;
+
+    private final int maxSize;
+    private final int mask;
+    // 哈希表, 保存条目下标 + 1, 0 表示空位
+    private final int[] table;
+
+    private final int[] keys;
+    private final Object[] values;
+    private final int[] prev;
+    private final int[] next;
+
+    // 最久没有访问 / 最近访问的条目
+    private int head = NONE;
+    private int tail = NONE;
+    // 空闲条目链表, 用 next 串起来
+    private int free;
+    private int size = 0;
+
+    public IntLruMap(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        int tableSize = Integer.highestOneBit(maxSize * 2 - 1) << 1;
+        mask = tableSize - 1;
+        table = new int[tableSize];
+        keys = new int[maxSize];
+        values = new Object[maxSize];
+        prev = new int[maxSize];
+        next = new int[maxSize];
+        clear();
+    }
+
+    /**
+     * 读取并标记为最近访问
+     *
+     * @return 没有时返回 null
+     */
+    public V get(int key) {
+        int slot = findSlot(key);
+        if (slot < 0) {
+            return null;
+        }
+        int index = table[slot] - 1;
+        moveToTail(index);
+        return value(index);
+    }
+
+    /**
+     * 读取, 不改变访问顺序
+     */
+    public V peek(int key) {
+        int slot = findSlot(key);
+        return slot < 0 ? null : value(table[slot] - 1);
+    }
+
+    public boolean containsKey(int key) {
+        return findSlot(key) >= 0;
+    }
+
+    /**
+     * @return 原来的值, 没有时返回 null
+     */
+    public V put(int key, V value) {
+        int slot = findSlot(key);
+        if (slot >= 0) {
+            int index = table[slot] - 1;
+            V old = value(index);
+            values[index] = value;
+            moveToTail(index);
+            return old;
+        }
+        if (size == maxSize) {
+            removeIndex(head);
+        }
+        int index = free;
+        free = next[index];
+        keys[index] = key;
+        values[index] = value;
+        linkTail(index);
+        slot = hash(key) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = index + 1;
+        size++;
+        return null;
+    }
+
+    /**
+     * @return 被删除的值, 没有时返回 null
+     */
+    public V remove(int key) {
+        int slot = findSlot(key);
+        if (slot < 0) {
+            return null;
+        }
+        int index = table[slot] - 1;
+        V old = value(index);
+        removeIndex(index);
+        return old;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int maxSize() {
+        return maxSize;
+    }
+
+    public void clear() {
+        Arrays.fill(table, 0);
+        Arrays.fill(values, null);
+        for (int i = 0; i < maxSize; i++) {
+            next[i] = i + 1 < maxSize ? i + 1 : NONE;
+        }
+        free = 0;
+        head = tail = NONE;
+        size = 0;
+    }
+
+    /**
+     * 从最久没有访问的条目开始遍历, 遍历时不能修改
+     */
+    public void forEach(Visitor<? super V> visitor) {
+        for (int i = head; i != NONE; i = next[i]) {
+            visitor.visit(keys[i], value(i));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int index) {
+        return (V) values[index];
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int findSlot(int key) {
+        int slot = hash(key) & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            if (keys[entry - 1] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NONE;
+    }
+
+    private void removeIndex(int index) {
+        deleteSlot(findSlot(keys[index]));
+        unlink(index);
+        values[index] = null;
+        next[index] = free;
+        free = index;
+        size--;
+    }
+
+    // 线性探测的删除: 把后面同一簇里可以前移的条目往前挪, 不留墓碑
+    private void deleteSlot(int slot) {
+        int hole = slot;
+        int i = slot;
+        while (true) {
+            i = (i + 1) & mask;
+            int entry = table[i];
+            if (entry == 0) {
+                break;
+            }
+            int home = hash(keys[entry - 1]) & mask;
+            // home 不在 (hole, i] 之间时可以移到 hole
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                table[hole] = entry;
+                hole = i;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    private void moveToTail(int index) {
+        if (index != tail) {
+            unlink(index);
+            linkTail(index);
+        }
+    }
+
+    private void linkTail(int index) {
+        prev[index] = tail;
+        next[index] = NONE;
+        if (tail == NONE) {
+            head = index;
+        } else {
+            next[tail] = index;
+        }
+        tail = index;
+    }
+
+    private void unlink(int index) {
+        int p = prev[index];
+        int n = next[index];
+        if (p == NONE) {
+            head = n;
+        } else {
+            next[p] = n;
+        }
+        if (n == NONE) {
+            tail = p;
+        } else {
+            prev[n] = p;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "IntLruMap{size=" + size + ", max=" + maxSize + "}";
+    }
+}
@@ -0,0 +1,153 @@
+package com.sogo.exoplayer;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在后台线程创建 {@link SimpleCache}.
+ * <p>
+ * SimpleCache 的构造方法会扫描整个缓存目录建立索引, 缓存很大时要几百毫秒, 不能放在启动和起播的路径上.
+ * 创建完成之前 {@link #getIfReady()} 返回 null, 调用方应该直接走网络.
+ * <p>
+ * 扫描本身省不掉: 2.8.3 的 SimpleCache 是 final 的, 索引 CachedContentIndex 是包内私有的,
+ * 另外维护一份 span 索引只会在扫描之外再加一次读写. 初始化耗时见 LazyCacheStartupBenchmark.
+ */
+public class LazyCache {
+    private static final String TAG = "LazyCache";
+
+    public interface Listener {
+        /**
+         * 在初始化线程上回调, 早于 {@link #await} 返回
+         */
+        void onCacheReady(SimpleCache cache);
+    }
+
+    private final Context context;
+    private final String dirName;
+    private final CacheEvictor evictor;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final List<Listener> listeners = new ArrayList<>();
+
+    private volatile File directory;
+    private volatile SimpleCache cache;
+    private volatile long initTimeMs = -1;
+    private boolean started = false;
+
+    /**
+     * @param dirName ExternalCacheDir 下的目录名
+     */
+    public LazyCache(Context context, String dirName, CacheEvictor evictor) {
+        this.context = context.getApplicationContext();
+        this.dirName = dirName;
+        this.evictor = evictor;
+    }
+
+    public synchronized void addListener(Listener listener) {
+        if (cache != null) {
+            listener.onCacheReady(cache);
+        } else {
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * 开始初始化, 只有第一次调用有效
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                initialize();
+            }
+        }, TAG);
+        thread.start();
+    }
+
+    public boolean isReady() {
+        return cache != null;
+    }
+
+    /**
+     * @return 还没有初始化完成时返回 null
+     */
+    public SimpleCache getIfReady() {
+        return cache;
+    }
+
+    /**
+     * 等待初始化完成
+     *
+     * @return 超时或者初始化失败时返回 null
+     */
+    public SimpleCache await(long timeoutMs) throws InterruptedException {
+        done.await(timeoutMs, TimeUnit.MILLISECONDS);
+        return cache;
+    }
+
+    /**
+     * @return 缓存目录, 初始化开始之前为 null
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return 初始化耗时, 还没有完成时返回 -1
+     */
+    public long getInitTimeMs() {
+        return initTimeMs;
+    }
+
+    /**
+     * 等初始化完成后释放 SimpleCache, 之后同一个目录才能再创建
+     */
+    public void release() throws InterruptedException, Cache.CacheException {
+        done.await();
+        SimpleCache c = cache;
+        cache = null;
+        if (c != null) {
+            c.release();
+        }
+    }
+
+    private void initialize() {
+        long start = SystemClock.elapsedRealtime();
+        List<Listener> ready;
+        try {
+            directory = new File(context.getExternalCacheDir(), dirName);
+            SimpleCache c = new SimpleCache(directory, evictor);
+            initTimeMs = SystemClock.elapsedRealtime() - start;
+            VLog.d(TAG, "initialize: " + directory + ", " + c.getKeys().size() + " keys, "
+                    + c.getCacheSpace() + " bytes, use:" + initTimeMs + "ms");
+            synchronized (this) {
+                cache = c;
+                ready = new ArrayList<>(listeners);
+                listeners.clear();
+            }
+            for (Listener listener : ready) {
+                listener.onCacheReady(c);
+            }
+        } catch (RuntimeException e) {
+            // 比如目录已经被另一个 SimpleCache 使用, 之后一直只走网络
+            VLog.e(TAG, "initialize failed", e);
+        } finally {
+            done.countDown();
+        }
+    }
+}
@@ -7,7 +7,6 @@ import com.google.android.exoplayer2.Renderer;
 import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.upstream.Allocator;
-import com.google.android.exoplayer2.upstream.DefaultAllocator;
 import com.google.android.exoplayer2.util.PriorityTaskManager;
 import com.google.android.exoplayer2.util.Util;
 
@@ -40,37 +39,104 @@ public final class LdDefaultLoadControl implements LoadControl {
      */
     public static final int DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS = 5000;
 
+    /**
+     * The default duration of media behind the playback position that is kept in memory, in
+     * milliseconds. Covers replaying a typical feed clip and short rewinds without reloading.
+     */
+    public static final int DEFAULT_BACK_BUFFER_MS = 30000;
+
+    /**
+     * The default number of bytes the back buffer may use on top of the forward buffer target.
+     */
+    public static final int DEFAULT_MAX_BACK_BUFFER_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * The maximum number of bytes a player that is only being prepared ahead of time may buffer.
+     */
+    public static final int PREPARE_ONLY_MAX_BUFFER_BYTES = 2 * 1024 * 1024;
+
     private static final int ABOVE_HIGH_WATERMARK = 0;
     private static final int BETWEEN_WATERMARKS = 1;
     private static final int BELOW_LOW_WATERMARK = 2;
 
-    private final DefaultAllocator allocator;
+    private final PooledAllocator allocator;
 
-    private final long minBufferUs;
-    private final long maxBufferUs;
-    private final long bufferForPlaybackUs;
-    private final long bufferForPlaybackAfterRebufferUs;
+    // 由 BufferPolicy 按视频调整, 在加载线程读取
+    private volatile long minBufferUs;
+    private volatile long maxBufferUs;
+    private volatile long bufferForPlaybackUs;
+    private volatile long bufferForPlaybackAfterRebufferUs;
     private final PriorityTaskManager priorityTaskManager;
+    private final long backBufferUs;
+    private final int maxBackBufferBytes;
 
     private int targetBufferSize;
     private boolean isBuffering;
 
-    private boolean userAction;
+    private volatile boolean userAction;
+    private volatile boolean prepareOnly;
+    private PreloadBudget preloadBudget;
+    private BufferPolicy bufferPolicy;
+
+    /**
+     * Sets whether the player is only being prepared ahead of time. In that case loading stops once
+     * enough media to start playback is buffered, or {@link #PREPARE_ONLY_MAX_BUFFER_BYTES} is
+     * reached.
+     */
+    public void setPrepareOnly(boolean prepareOnly) {
+        this.prepareOnly = prepareOnly;
+    }
+
+    /**
+     * Sets whether loading was requested by the user. Called when a pooled player is reused.
+     */
+    public void setUserAction(boolean userAction) {
+        this.userAction = userAction;
+    }
+
+    /**
+     * Sets the duration of the clip being played once it is known, and adjusts the buffer
+     * watermarks through the {@link BufferPolicy}.
+     *
+     * @param durationMs The duration of the clip, in milliseconds.
+     */
+    public void setClipDuration(long durationMs) {
+        updateWatermarks(durationMs);
+    }
 
     /**
      * Constructs a new instance, using the {@code DEFAULT_*} constants defined in this class.
+     *
+     * @param userAction    Whether loading was requested by the user. Otherwise loading only continues
+     *                      while the {@link PreloadBudget} allows background loading.
+     * @param preloadBudget The budget deciding whether background loading may continue.
+     */
+    public LdDefaultLoadControl(boolean userAction, PreloadBudget preloadBudget) {
+        this(userAction, preloadBudget, null);
+    }
+
+    /**
+     * Constructs a new instance, using the {@code DEFAULT_*} constants defined in this class until
+     * the {@link BufferPolicy} adjusts them.
+     *
+     * @param userAction    Whether loading was requested by the user. Otherwise loading only continues
+     *                      while the {@link PreloadBudget} allows background loading.
+     * @param preloadBudget The budget deciding whether background loading may continue.
+     * @param bufferPolicy  If not null, decides the buffer watermarks for each clip.
      */
-    public LdDefaultLoadControl(boolean userAction) {
-        this(new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE));
+    public LdDefaultLoadControl(boolean userAction, PreloadBudget preloadBudget, BufferPolicy bufferPolicy) {
+        this(new PooledAllocator(SegmentPool.getInstance()));
         this.userAction = userAction;
+        this.preloadBudget = preloadBudget;
+        this.bufferPolicy = bufferPolicy;
     }
 
     /**
      * Constructs a new instance, using the {@code DEFAULT_*} constants defined in this class.
      *
-     * @param allocator The {@link DefaultAllocator} used by the loader.
+     * @param allocator The {@link PooledAllocator} used by the loader.
      */
-    public LdDefaultLoadControl(DefaultAllocator allocator) {
+    public LdDefaultLoadControl(PooledAllocator allocator) {
         this(allocator, DEFAULT_MIN_BUFFER_MS, DEFAULT_MAX_BUFFER_MS, DEFAULT_BUFFER_FOR_PLAYBACK_MS,
                 DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS);
     }
@@ -78,7 +144,7 @@ public final class LdDefaultLoadControl implements LoadControl {
     /**
      * Constructs a new instance.
      *
-     * @param allocator                        The {@link DefaultAllocator} used by the loader.
+     * @param allocator                        The {@link PooledAllocator} used by the loader.
      * @param minBufferMs                      The minimum duration of media that the player will attempt to ensure is
      *                                         buffered at all times, in milliseconds.
      * @param maxBufferMs                      The maximum duration of media that the player will attempt buffer, in
@@ -89,7 +155,7 @@ public final class LdDefaultLoadControl implements LoadControl {
      *                                         playback to resume after a rebuffer, in milliseconds. A rebuffer is defined to be caused by
      *                                         buffer depletion rather than a user action.
      */
-    public LdDefaultLoadControl(DefaultAllocator allocator, int minBufferMs, int maxBufferMs,
+    public LdDefaultLoadControl(PooledAllocator allocator, int minBufferMs, int maxBufferMs,
                                 long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs) {
         this(allocator, minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs,
                 null);
@@ -98,7 +164,7 @@ public final class LdDefaultLoadControl implements LoadControl {
     /**
      * Constructs a new instance.
      *
-     * @param allocator                        The {@link DefaultAllocator} used by the loader.
+     * @param allocator                        The {@link PooledAllocator} used by the loader.
      * @param minBufferMs                      The minimum duration of media that the player will attempt to ensure is
      *                                         buffered at all times, in milliseconds.
      * @param maxBufferMs                      The maximum duration of media that the player will attempt buffer, in
@@ -112,20 +178,55 @@ public final class LdDefaultLoadControl implements LoadControl {
      *                                         {@link C#PRIORITY_PLAYBACK} during loading periods, and unregisters itself during draining
      *                                         periods.
      */
-    public LdDefaultLoadControl(DefaultAllocator allocator, int minBufferMs, int maxBufferMs,
+    public LdDefaultLoadControl(PooledAllocator allocator, int minBufferMs, int maxBufferMs,
                                 long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs,
                                 PriorityTaskManager priorityTaskManager) {
+        this(allocator, minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs,
+                priorityTaskManager, DEFAULT_BACK_BUFFER_MS, DEFAULT_MAX_BACK_BUFFER_BYTES);
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param allocator                        The {@link PooledAllocator} used by the loader.
+     * @param minBufferMs                      The minimum duration of media that the player will attempt to ensure is
+     *                                         buffered at all times, in milliseconds.
+     * @param maxBufferMs                      The maximum duration of media that the player will attempt buffer, in
+     *                                         milliseconds.
+     * @param bufferForPlaybackMs              The duration of media that must be buffered for playback to start or
+     *                                         resume following a user action such as a seek, in milliseconds.
+     * @param bufferForPlaybackAfterRebufferMs The default duration of media that must be buffered for
+     *                                         playback to resume after a rebuffer, in milliseconds. A rebuffer is defined to be caused by
+     *                                         buffer depletion rather than a user action.
+     * @param priorityTaskManager              If not null, registers itself as a task with priority
+     *                                         {@link C#PRIORITY_PLAYBACK} during loading periods, and unregisters itself during draining
+     *                                         periods.
+     * @param backBufferMs                     The duration of media behind the playback position to keep, in
+     *                                         milliseconds. Seeks back inside it, including replay, are served from memory.
+     *                                         The player reads it once, when it is created.
+     * @param maxBackBufferBytes               The number of bytes added to the allocator target for the back buffer.
+     *                                         Memory held by the back buffer counts against the same target, so forward
+     *                                         loading between the watermarks stops once both together reach it.
+     */
+    public LdDefaultLoadControl(PooledAllocator allocator, int minBufferMs, int maxBufferMs,
+                                long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs,
+                                PriorityTaskManager priorityTaskManager,
+                                int backBufferMs, int maxBackBufferBytes) {
         this.allocator = allocator;
         minBufferUs = minBufferMs * 1000L;
         maxBufferUs = maxBufferMs * 1000L;
         bufferForPlaybackUs = bufferForPlaybackMs * 1000L;
         bufferForPlaybackAfterRebufferUs = bufferForPlaybackAfterRebufferMs * 1000L;
         this.priorityTaskManager = priorityTaskManager;
+        backBufferUs = backBufferMs * 1000L;
+        this.maxBackBufferBytes = backBufferMs > 0 ? maxBackBufferBytes : 0;
     }
 
     @Override
     public void onPrepared() {
         reset(false);
+        // 新的视频, 时长在 timeline 准备好后再设置
+        updateWatermarks(BufferPolicy.DURATION_UNKNOWN);
     }
 
     @Override
@@ -137,7 +238,7 @@ public final class LdDefaultLoadControl implements LoadControl {
                 targetBufferSize += Util.getDefaultBufferSize(renderers[i].getTrackType());
             }
         }
-        allocator.setTargetBufferSize(targetBufferSize);
+        allocator.setTargetBufferSize(targetBufferSize + maxBackBufferBytes);
     }
 
     @Override
@@ -157,12 +258,13 @@ public final class LdDefaultLoadControl implements LoadControl {
 
     @Override
     public long getBackBufferDurationUs() {
-        return 0;
+        return backBufferUs;
     }
 
     @Override
     public boolean retainBackBufferFromKeyframe() {
-        return false;
+        // 从关键帧开始保留, 回退到缓冲内的任意位置都不需要重新读取
+        return backBufferUs > 0;
     }
 
 //    @Override
@@ -184,14 +286,23 @@ public final class LdDefaultLoadControl implements LoadControl {
 
 //    @Override
     public boolean shouldContinueLoading(long bufferedDurationUs, float playbackSpeed) {
-        if (!VUtil.isWifiConnected(VUtil.getApplication())) {
-            if(!userAction){
-                return false;
-            }
-
+        if (!userAction && preloadBudget != null
+                && !preloadBudget.allowsBackgroundLoading(NetworkStateMonitor.getInstance().isUnmetered())) {
+            return false;
+        }
+        // 所有 player 共用的内存用完后, 只有正在播放的 player 在低水位以下时继续加载
+        boolean overBudget = allocator.getPool().isOverBudget();
+        if (!userAction && overBudget) {
+            return false;
+        }
+        if (prepareOnly) {
+            return bufferedDurationUs < bufferForPlaybackUs
+                    && allocator.getTotalBytesAllocated() < PREPARE_ONLY_MAX_BUFFER_BYTES;
         }
         int bufferTimeState = getBufferTimeState(bufferedDurationUs);
-        boolean targetBufferSizeReached = allocator.getTotalBytesAllocated() >= targetBufferSize;
+        // 已分配的内存包括后向缓冲
+        boolean targetBufferSizeReached = overBudget
+                || allocator.getTotalBytesAllocated() >= targetBufferSize + maxBackBufferBytes;
         boolean wasBuffering = isBuffering;
         isBuffering = bufferTimeState == BELOW_LOW_WATERMARK
                 || (bufferTimeState == BETWEEN_WATERMARKS && isBuffering && !targetBufferSizeReached);
@@ -210,6 +321,18 @@ public final class LdDefaultLoadControl implements LoadControl {
                 : (bufferedDurationUs < minBufferUs ? BELOW_LOW_WATERMARK : BETWEEN_WATERMARKS);
     }
 
+    private void updateWatermarks(long durationMs) {
+        if (bufferPolicy == null) {
+            return;
+        }
+        long bitrate = preloadBudget == null ? PreloadBudget.NO_ESTIMATE : preloadBudget.getBitrateEstimate();
+        BufferPolicy.Watermarks watermarks = bufferPolicy.decide(durationMs, bitrate);
+        minBufferUs = watermarks.minBufferMs * 1000L;
+        maxBufferUs = watermarks.maxBufferMs * 1000L;
+        bufferForPlaybackUs = watermarks.bufferForPlaybackMs * 1000L;
+        bufferForPlaybackAfterRebufferUs = watermarks.bufferForPlaybackAfterRebufferMs * 1000L;
+    }
+
     private void reset(boolean resetAllocator) {
         targetBufferSize = 0;
         if (priorityTaskManager != null && isBuffering) {
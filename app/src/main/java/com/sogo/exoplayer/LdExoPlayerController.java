@@ -16,6 +16,7 @@ import com.google.android.exoplayer2.Timeline;
 import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.ui.SimpleExoPlayerView;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
 import com.spx.exoplayertest.R;
 
 
@@ -28,9 +29,15 @@ import java.io.IOException;
 public class LdExoPlayerController implements PlayerManager.PlayerHolder {
 
     private static final String TAG = "Player.Controller";
+    /**
+     * 一次播放中最多自动刷新几次地址
+     */
+    private static final int MAX_URL_REFRESHES = 2;
 
     private Context mContext;
     private int mId;
+    // 列表中的位置, 预加载和相邻条目按它计算; 不在列表中时为 PlayerManager.NO_POSITION
+    private int mPosition = PlayerManager.NO_POSITION;
     private String mContent;
     private String mVideoUrl;
     private String mCoverImgUrl;
@@ -43,7 +50,8 @@ public class LdExoPlayerController implements PlayerManager.PlayerHolder {
 
     private ProgressBar mProgressBar;
 
-    private long mOnClickTime = 0L;
+    private int mUrlRefreshes = 0;
+    private long mResumePositionMs = 0L;
 
     public LdExoPlayerController(View itemView) {
         mPlayerView = itemView.findViewById(R.id.player_view);
@@ -59,18 +67,36 @@ public class LdExoPlayerController implements PlayerManager.PlayerHolder {
         mStartPlayIv.setOnClickListener(clickListener);
     }
 
+    /**
+     * 不在列表中使用, 例如全屏播放页
+     */
     public void bindData(Context context, int id, String content, String videoUrl, String coverImgUrl) {
+        bindData(context, id, PlayerManager.NO_POSITION, content, videoUrl, coverImgUrl);
+    }
+
+    /**
+     * @param id       文章 id, 用来获取和刷新播放地址
+     * @param position 列表中的位置(adapter position)
+     */
+    public void bindData(Context context, int id, int position, String content, String videoUrl,
+                         String coverImgUrl) {
+        if (mVideoUrl != null && !mVideoUrl.equals(videoUrl)) {
+            // holder 被复用到另一个条目
+            PlayerManager.getInstance().cancelPreload(mVideoUrl);
+        }
         this.mContext = context;
         this.mId = id;
+        this.mPosition = position;
         this.mContent = content;
         this.mVideoUrl = videoUrl;
         this.mCoverImgUrl = coverImgUrl;
-        VLog.e(TAG, "bindData[" + id + "]: content:" + content);
+        this.mUrlRefreshes = 0;
+        VLog.e(TAG, "bindData[" + id + "]: position:" + position + ", content:" + content);
 //        Log.d(TAG, "bindData["+position+"]: video url:"+card.video.getVideoUrl());
 
 //        ImageUtils.showImage(context, mCoverIv, mCoverImgUrl);
 
-        PlayerManager.getInstance().preAttch(videoUrl, this);
+        PlayerManager.getInstance().preAttch(position, videoUrl, this);
 
         initViews();
     }
@@ -96,7 +122,9 @@ public class LdExoPlayerController implements PlayerManager.PlayerHolder {
     };
 
     public void start(boolean userAction) {
-        mOnClickTime = System.currentTimeMillis();
+        if (userAction) {
+            mPlayer.onTap(mVideoUrl);
+        }
         mStartPlayIv.setVisibility(View.GONE);
         // 点击时初始化player
         initPlayer(userAction);
@@ -113,14 +141,8 @@ public class LdExoPlayerController implements PlayerManager.PlayerHolder {
 
         @Override
         public void onRenderedFirstFrame() {
+            // 各阶段耗时由 PlaybackTimings 记录, 播放结束时汇总
             VLog.d(TAG, "onRenderedFirstFrame: ...");
-            long playingTime = System.currentTimeMillis();
-            long useTime = playingTime - mOnClickTime;
-            if (useTime < 100000) {
-                VLog.d(TAG, "播放: use:" + (useTime) + "ms");
-                showToast("播放: 耗时:" + (useTime) + "ms");
-            }
-
         }
     };
 
@@ -159,6 +181,7 @@ public class LdExoPlayerController implements PlayerManager.PlayerHolder {
 
             // 开始播放
             if (playbackState == Player.STATE_READY) {
+                mUrlRefreshes = 0;
 
                 if (playWhenReady) {
                     mCoverIv.setVisibility(View.GONE);
@@ -189,10 +212,15 @@ public class LdExoPlayerController implements PlayerManager.PlayerHolder {
             VLog.d(TAG, "onPlayerError content:" + mContent);
             VLog.d(TAG, "onPlayerError mId:" + mId);
             VLog.e(TAG, "onPlayerError: ", error);
+            if (error.type != ExoPlaybackException.TYPE_SOURCE) {
+                return;
+            }
             IOException sourceException = error.getSourceException();
-            if (sourceException != null && sourceException.getClass().getName().contains("InvalidResponseCodeException")) {
+            if (isUrlExpired(sourceException) && refreshUrl()) {
+                return;
+            }
+            if (sourceException instanceof HttpDataSource.InvalidResponseCodeException) {
                 Toast.makeText(mContext, "这个视频403了, 请一会重试", Toast.LENGTH_SHORT).show();
-
             }
 
         }
@@ -214,6 +242,74 @@ public class LdExoPlayerController implements PlayerManager.PlayerHolder {
         }
     };
 
+    private static boolean isUrlExpired(IOException e) {
+        if (e instanceof HttpDataSource.InvalidResponseCodeException) {
+            int responseCode = ((HttpDataSource.InvalidResponseCodeException) e).responseCode;
+            return responseCode == 403 || responseCode == 410;
+        }
+        return false;
+    }
+
+    /**
+     * 签名地址过期, 获取新地址后从当前位置继续播放. 已经缓存的数据不需要重新下载, 见 {@link CacheKeyFactory}
+     *
+     * @return 没有设置 provider, 刷新次数用完或者这个 id 已经在刷新时返回 false
+     */
+    private boolean refreshUrl() {
+        UrlRefresher refresher = PlayerManager.getInstance().getUrlRefresher();
+        if (refresher == null || mUrlRefreshes >= MAX_URL_REFRESHES) {
+            return false;
+        }
+        long resumePositionMs = mPlayer.getCurrentPosition();
+        boolean started = refresher.refresh(mId, mVideoUrl, new UrlRefresher.Callback() {
+            @Override
+            public void onRefreshed(final int id, final String videoUrl) {
+                mPlayerView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        resume(id, videoUrl);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailed(final int id, IOException e) {
+                VLog.e(TAG, "refreshUrl[" + id + "]: failed", e);
+                mPlayerView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (id == mId) {
+                            mProgressBar.setVisibility(View.GONE);
+                        }
+                    }
+                });
+                showToast("这个视频403了, 请一会重试");
+            }
+        });
+        if (!started) {
+            VLog.d(TAG, "refreshUrl[" + mId + "]: already refreshing");
+            return false;
+        }
+        mUrlRefreshes++;
+        mResumePositionMs = resumePositionMs;
+        VLog.d(TAG, "refreshUrl[" + mId + "]: resume at " + mResumePositionMs + "ms, " + mVideoUrl);
+        mProgressBar.setVisibility(View.VISIBLE);
+        return true;
+    }
+
+    private void resume(int id, String videoUrl) {
+        // 已经滑走或者绑定了其他文章
+        if (id != mId || !PlayerManager.getInstance().isAttached(this)) {
+            VLog.d(TAG, "resume[" + id + "]: not attached any more");
+            return;
+        }
+        PlayerManager.getInstance().release(mVideoUrl);
+        mVideoUrl = videoUrl;
+        initPlayer(true);
+        mPlayer.seekTo(mResumePositionMs);
+        mPlayer.play();
+    }
+
     private void showToast(final String s) {
         mPlayerView.post(new Runnable() {
             @Override
@@ -240,7 +336,7 @@ public class LdExoPlayerController implements PlayerManager.PlayerHolder {
                 mVideoUrl = newUrl;
             }
 
-            PlayerManager.getInstance().attchPlayer(mContext, this, mPlayerView,
+            PlayerManager.getInstance().attchPlayer(mContext, mPosition, this, mPlayerView,
                     mVideoUrl, listener, videoListener, userAction);
 
         }
@@ -250,9 +346,19 @@ public class LdExoPlayerController implements PlayerManager.PlayerHolder {
         initViews();
     }
 
+    /**
+     * @param position 当前的 adapter position, 绑定之后列表插入或删除条目时会变化; 还没有布局时为 NO_POSITION, 沿用绑定时的位置
+     */
+    public void onViewAttachedToWindow(int position) {
+        if (position != PlayerManager.NO_POSITION) {
+            mPosition = position;
+        }
+        onViewAttachedToWindow();
+    }
+
     public void onViewAttachedToWindow() {
-        VLog.d(TAG, "onViewAttachedToWindow content:" + mContent + ", articleId:" + mId);
-        PlayerManager.getInstance().preAttch(mVideoUrl, this);
+        VLog.d(TAG, "onViewAttachedToWindow content:" + mContent + ", articleId:" + mId + ", position:" + mPosition);
+        PlayerManager.getInstance().preAttch(mPosition, mVideoUrl, this);
         resetUi();
     }
 
@@ -260,9 +366,18 @@ public class LdExoPlayerController implements PlayerManager.PlayerHolder {
     public void onViewDetachedFromWindow() {
         VLog.d(TAG, "onViewDetachedFromWindow content:" + mContent + ", articleId:" + mId);
         VLog.d(TAG, "onViewDetachedFromWindow: ...videoUrl:" + mVideoUrl);
+        PlayerManager.getInstance().cancelPreload(mVideoUrl);
         PlayerManager.getInstance().detachPlayer(this, mVideoUrl);
     }
 
+    /**
+     * 对应 RecyclerView.Adapter#onViewRecycled
+     */
+    public void onViewRecycled() {
+        VLog.d(TAG, "onViewRecycled content:" + mContent + ", articleId:" + mId);
+        PlayerManager.getInstance().cancelPreload(mVideoUrl);
+    }
+
     public void release(){
         VLog.d(TAG, "release content:" + mContent + ", articleId:" + mId);
         PlayerManager.getInstance().release(mVideoUrl);
@@ -278,4 +393,15 @@ public class LdExoPlayerController implements PlayerManager.PlayerHolder {
     public void preload() {
         initPlayer(false);
     }
+
+    @Override
+    public void autoplay(long settleNs) {
+        VLog.d(TAG, "autoplay[" + mId + "]: " + mVideoUrl);
+        mPlayer.onSettle(mVideoUrl, settleNs);
+        mStartPlayIv.setVisibility(View.GONE);
+        // 不是用户点击: 不取消相邻条目的预加载, 计费网络和内存的后台加载限制照常生效.
+        // 惯性滑动时提前 prepare 的直接使用
+        initPlayer(false);
+        mPlayer.play();
+    }
 }
@@ -0,0 +1,62 @@
+package com.sogo.exoplayer;
+
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.CacheSpan;
+
+/**
+ * 包装一个 {@link CacheEvictor}, 把它淘汰掉的数据记到 {@link CacheMetrics}.
+ * <p>
+ * evictor 在 {@link #onStartFile} 和 {@link #onSpanAdded} 中淘汰数据,
+ * 这期间收到的 {@link #onSpanRemoved} 就是淘汰, 其他时候是正常删除.
+ * 回调都在 SimpleCache 的锁内执行.
+ */
+public class MeteredCacheEvictor implements CacheEvictor {
+
+    private final CacheEvictor evictor;
+    private final CacheMetrics metrics;
+    private boolean evicting = false;
+
+    public MeteredCacheEvictor(CacheEvictor evictor, CacheMetrics metrics) {
+        this.evictor = evictor;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void onCacheInitialized() {
+        evictor.onCacheInitialized();
+    }
+
+    @Override
+    public void onStartFile(Cache cache, String key, long position, long length) {
+        evicting = true;
+        try {
+            evictor.onStartFile(cache, key, position, length);
+        } finally {
+            evicting = false;
+        }
+    }
+
+    @Override
+    public void onSpanAdded(Cache cache, CacheSpan span) {
+        evicting = true;
+        try {
+            evictor.onSpanAdded(cache, span);
+        } finally {
+            evicting = false;
+        }
+    }
+
+    @Override
+    public void onSpanRemoved(Cache cache, CacheSpan span) {
+        if (evicting) {
+            metrics.onEvicted(span.key, span.length);
+        }
+        evictor.onSpanRemoved(cache, span);
+    }
+
+    @Override
+    public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+        evictor.onSpanTouched(cache, oldSpan, newSpan);
+    }
+}
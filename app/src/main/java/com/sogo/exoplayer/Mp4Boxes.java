@@ -0,0 +1,144 @@
+package com.sogo.exoplayer;
+
+/**
+ * 只解析预加载需要的几个 mp4 box, 不依赖 exoplayer 的 extractor.
+ */
+final class Mp4Boxes {
+
+    static final int TYPE_FTYP = 0x66747970;
+    static final int TYPE_MOOV = 0x6d6f6f76;
+    static final int TYPE_MDAT = 0x6d646174;
+    static final int TYPE_TRAK = 0x7472616b;
+    static final int TYPE_MDIA = 0x6d646961;
+    static final int TYPE_MINF = 0x6d696e66;
+    static final int TYPE_STBL = 0x7374626c;
+    static final int TYPE_HDLR = 0x68646c72;
+    static final int TYPE_STCO = 0x7374636f;
+    static final int TYPE_CO64 = 0x636f3634;
+    static final int TYPE_STSZ = 0x7374737a;
+    static final int TYPE_STSS = 0x73747373;
+    static final int HANDLER_VIDE = 0x76696465;
+
+    /**
+     * 普通 box 头长度
+     */
+    static final int HEADER_SIZE = 8;
+    /**
+     * 带 64 位 largesize 的 box 头长度
+     */
+    static final int LARGE_HEADER_SIZE = 16;
+
+    private Mp4Boxes() {
+    }
+
+    static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24)
+                | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8)
+                | (data[offset + 3] & 0xFF);
+    }
+
+    static long readUnsignedInt(byte[] data, int offset) {
+        return readInt(data, offset) & 0xFFFFFFFFL;
+    }
+
+    static long readLong(byte[] data, int offset) {
+        return (readUnsignedInt(data, offset) << 32) | readUnsignedInt(data, offset + 4);
+    }
+
+    /**
+     * 在 moov box 中找到视频轨道第一个样本(关键帧)的结束位置.
+     *
+     * @param moov   包含完整 moov box 的数据, 从 box 头开始
+     * @param length moov box 的长度
+     * @return 第一个视频样本结束处在文件中的偏移, 解析不到时返回 -1
+     */
+    static long findFirstVideoSampleEnd(byte[] moov, int length) {
+        if (length < HEADER_SIZE || readInt(moov, 4) != TYPE_MOOV) {
+            return -1;
+        }
+        int end = (int) Math.min(length, readUnsignedInt(moov, 0));
+        int offset = HEADER_SIZE;
+        while (offset + HEADER_SIZE <= end) {
+            int size = (int) readUnsignedInt(moov, offset);
+            if (size < HEADER_SIZE || offset + size > end) {
+                return -1;
+            }
+            if (readInt(moov, offset + 4) == TYPE_TRAK) {
+                long sampleEnd = parseVideoTrak(moov, offset + HEADER_SIZE, offset + size);
+                if (sampleEnd > 0) {
+                    return sampleEnd;
+                }
+            }
+            offset += size;
+        }
+        return -1;
+    }
+
+    private static long parseVideoTrak(byte[] data, int start, int end) {
+        int[] mdia = findChild(data, start, end, TYPE_MDIA);
+        if (mdia == null) {
+            return -1;
+        }
+        // hdlr: version/flags(4) + pre_defined(4) + handler_type(4)
+        int[] hdlr = findChild(data, mdia[0], mdia[1], TYPE_HDLR);
+        if (hdlr == null || hdlr[0] + 12 > hdlr[1] || readInt(data, hdlr[0] + 8) != HANDLER_VIDE) {
+            return -1;
+        }
+        int[] minf = findChild(data, mdia[0], mdia[1], TYPE_MINF);
+        int[] stbl = minf == null ? null : findChild(data, minf[0], minf[1], TYPE_STBL);
+        if (stbl == null) {
+            return -1;
+        }
+
+        // 第一个关键帧不是第一个样本时需要 stsc 才能定位, 这里不处理
+        int[] stss = findChild(data, stbl[0], stbl[1], TYPE_STSS);
+        if (stss != null && stss[0] + 12 <= stss[1]
+                && readInt(data, stss[0] + 4) > 0 && readInt(data, stss[0] + 8) != 1) {
+            return -1;
+        }
+
+        long chunkOffset;
+        int[] stco = findChild(data, stbl[0], stbl[1], TYPE_STCO);
+        int[] co64 = findChild(data, stbl[0], stbl[1], TYPE_CO64);
+        if (stco != null && stco[0] + 12 <= stco[1] && readInt(data, stco[0] + 4) > 0) {
+            chunkOffset = readUnsignedInt(data, stco[0] + 8);
+        } else if (co64 != null && co64[0] + 16 <= co64[1] && readInt(data, co64[0] + 4) > 0) {
+            chunkOffset = readLong(data, co64[0] + 8);
+        } else {
+            return -1;
+        }
+
+        // stsz: version/flags(4) + sample_size(4) + sample_count(4) + entry_size[]
+        int[] stsz = findChild(data, stbl[0], stbl[1], TYPE_STSZ);
+        if (stsz == null || stsz[0] + 12 > stsz[1]) {
+            return -1;
+        }
+        long sampleSize = readUnsignedInt(data, stsz[0] + 4);
+        if (sampleSize == 0) {
+            if (stsz[0] + 16 > stsz[1]) {
+                return -1;
+            }
+            sampleSize = readUnsignedInt(data, stsz[0] + 12);
+        }
+        return chunkOffset + sampleSize;
+    }
+
+    /**
+     * @return 子 box 的 {内容起始, 结束} 位置, 找不到返回 null
+     */
+    private static int[] findChild(byte[] data, int start, int end, int type) {
+        int offset = start;
+        while (offset + HEADER_SIZE <= end) {
+            int size = (int) readUnsignedInt(data, offset);
+            if (size < HEADER_SIZE || offset + size > end) {
+                return null;
+            }
+            if (readInt(data, offset + 4) == type) {
+                return new int[]{offset + HEADER_SIZE, offset + size};
+            }
+            offset += size;
+        }
+        return null;
+    }
+}
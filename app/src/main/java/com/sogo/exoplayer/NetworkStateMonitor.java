@@ -0,0 +1,159 @@
+package com.sogo.exoplayer;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.os.Build;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 缓存网络连接状态, 在系统的网络回调中更新.
+ * <p>
+ * {@link VUtil#isWifiConnected} 每次都要 getSystemService 和一次 binder 调用,
+ * {@link LdDefaultLoadControl#shouldContinueLoading} 在播放线程上每秒调用很多次, 这里只读 volatile 字段.
+ * 7.0 以上跟踪默认网络的 NetworkCallback, 状态直接取自回调的 NetworkCapabilities:
+ * 回调时再去查 getActiveNetworkInfo 可能还是切换之前的网络. 7.0 以下监听 CONNECTIVITY_ACTION 广播.
+ */
+public class NetworkStateMonitor {
+    private static final String TAG = "NetworkStateMonitor";
+
+    private static NetworkStateMonitor instance = new NetworkStateMonitor(VUtil.getApplication());
+
+    public static NetworkStateMonitor getInstance() {
+        return instance;
+    }
+
+    public interface Listener {
+        /**
+         * 连接状态变化时在系统回调的线程上调用
+         */
+        void onNetworkChanged(NetworkStateMonitor monitor);
+    }
+
+    private final ConnectivityManager connectivityManager;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean connected;
+    private volatile boolean wifi;
+    private volatile boolean metered;
+    private volatile int changeCount = 0;
+
+    NetworkStateMonitor(Context context) {
+        context = context.getApplicationContext();
+        connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        update();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            registerDefaultNetworkCallback();
+        } else {
+            context.registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    update();
+                }
+            }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private void registerDefaultNetworkCallback() {
+        connectivityManager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+            // 当前的默认网络, 只在回调线程上访问
+            private Network defaultNetwork;
+
+            @Override
+            public void onAvailable(Network network) {
+                defaultNetwork = network;
+                // 7.x 上 onAvailable 之后不一定有 onCapabilitiesChanged
+                NetworkCapabilities capabilities = connectivityManager.getNetworkCapabilities(network);
+                if (capabilities != null) {
+                    update(capabilities);
+                }
+            }
+
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities networkCapabilities) {
+                defaultNetwork = network;
+                update(networkCapabilities);
+            }
+
+            @Override
+            public void onLost(Network network) {
+                // 切换网络时旧网络的 onLost 可能在新网络的 onAvailable 之后
+                if (network.equals(defaultNetwork)) {
+                    defaultNetwork = null;
+                    update(false, false, true);
+                }
+            }
+        });
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public boolean isWifiConnected() {
+        return wifi;
+    }
+
+    /**
+     * @return 是否连接并且不计费, 预加载和后台加载以这个为准
+     */
+    public boolean isUnmetered() {
+        return connected && !metered;
+    }
+
+    public int getChangeCount() {
+        return changeCount;
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkStateMonitor{connected=" + connected + ", wifi=" + wifi + ", metered=" + metered
+                + ", changes=" + changeCount + "}";
+    }
+
+    // 查询一次当前状态, 初始化和 7.0 以下的广播中调用
+    private void update() {
+        NetworkInfo info = connectivityManager.getActiveNetworkInfo();
+        boolean newConnected = info != null && info.isConnected();
+        update(newConnected, newConnected && info.getType() == ConnectivityManager.TYPE_WIFI,
+                !newConnected || connectivityManager.isActiveNetworkMetered());
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void update(NetworkCapabilities capabilities) {
+        boolean newConnected = capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+        update(newConnected, newConnected && capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI),
+                !newConnected || !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED));
+    }
+
+    private synchronized void update(boolean newConnected, boolean newWifi, boolean newMetered) {
+        if (newConnected == connected && newWifi == wifi && newMetered == metered) {
+            return;
+        }
+        connected = newConnected;
+        wifi = newWifi;
+        metered = newMetered;
+        changeCount++;
+        VLog.d(TAG, "update: " + this);
+        for (Listener listener : listeners) {
+            listener.onNetworkChanged(this);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.sogo.exoplayer;
+
+import com.google.android.exoplayer2.ext.okhttp.OkHttpDataSourceFactory;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+/**
+ * 使用共用连接池的 {@link UpstreamClient}, 所有 DataSource 共享连接和 DNS 缓存
+ */
+public class OkHttpUpstreamFactory implements UpstreamFactory {
+
+    private final UpstreamClient client;
+
+    public OkHttpUpstreamFactory(UpstreamClient client) {
+        this.client = client;
+    }
+
+    public UpstreamClient getClient() {
+        return client;
+    }
+
+    @Override
+    public HttpDataSource.Factory createHttpFactory(String userAgent, TransferListener<? super DataSource> listener) {
+        return new OkHttpDataSourceFactory(client.getClient(), userAgent, listener);
+    }
+}
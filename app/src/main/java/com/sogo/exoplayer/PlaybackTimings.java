@@ -0,0 +1,351 @@
+package com.sogo.exoplayer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 起播耗时统计: 每次播放记录点击、attach、source prepare 完成、收到第一批数据、选好轨道、第一帧
+ * 和每次卡顿的时间(System.nanoTime), 结束时把各阶段相对点击的耗时汇总成分位数(p50/p95/p99).
+ * <p>
+ * 事件来自主线程、加载线程和播放线程, 每次播放的记录只用原子变量, 汇总用定长的分桶计数.
+ * 按缓存 key 区分播放, 提前 prepare 的条目在点击前发生的阶段耗时记为 0.
+ * 自动播放没有点击, 以列表停下的时间作为开始, 停下到第一帧的耗时另外汇总.
+ */
+public class PlaybackTimings {
+    private static final String TAG = "PlaybackTimings";
+
+    public static final int TAP = 0;
+    public static final int ATTACH = 1;
+    public static final int SOURCE_PREPARED = 2;
+    public static final int FIRST_BYTES = 3;
+    public static final int TRACKS_SELECTED = 4;
+    public static final int FIRST_FRAME = 5;
+    static final int EVENT_COUNT = 6;
+    /**
+     * 卡顿时长的汇总, 与上面的事件一起用于 {@link #getPercentiles}
+     */
+    public static final int REBUFFER = EVENT_COUNT;
+    /**
+     * 自动播放从列表停下到第一帧的耗时, 用于 {@link #getPercentiles}
+     */
+    public static final int AUTOPLAY_SWITCH = EVENT_COUNT + 1;
+
+    private static final String[] NAMES = {"tap", "attach", "prepared", "firstBytes", "tracks", "firstFrame",
+            "rebuffer", "autoplaySwitch"};
+
+    private static final int MAX_SESSIONS = 16;
+
+    /**
+     * 一次播放, 每个事件只记录第一次
+     */
+    public static final class Session {
+        public final String key;
+        final long createdNs;
+        private final AtomicLongArray times = new AtomicLongArray(EVENT_COUNT);
+        private final AtomicLong rebufferStartNs = new AtomicLong();
+        private final AtomicInteger rebufferCount = new AtomicInteger();
+        private final AtomicLong rebufferNs = new AtomicLong();
+        private volatile boolean seeking = false;
+        private volatile boolean autoplay = false;
+        private final PlaybackTimings owner;
+
+        Session(PlaybackTimings owner, String key, long createdNs) {
+            this.owner = owner;
+            this.key = key;
+            this.createdNs = createdNs;
+        }
+
+        public void mark(int event) {
+            mark(event, System.nanoTime());
+        }
+
+        void mark(int event, long timeNs) {
+            times.compareAndSet(event, 0, timeNs);
+        }
+
+        public boolean has(int event) {
+            return times.get(event) != 0;
+        }
+
+        /**
+         * 主动 seek(包括重播)引起的缓冲不算卡顿
+         */
+        public void onSeek() {
+            seeking = true;
+        }
+
+        /**
+         * 进入缓冲状态, 第一帧之后才算卡顿
+         */
+        public void onBuffering() {
+            onBuffering(System.nanoTime());
+        }
+
+        void onBuffering(long timeNs) {
+            if (seeking) {
+                seeking = false;
+                return;
+            }
+            if (has(FIRST_FRAME)) {
+                rebufferStartNs.compareAndSet(0, timeNs);
+            }
+        }
+
+        public void onReady() {
+            onReady(System.nanoTime());
+        }
+
+        void onReady(long timeNs) {
+            seeking = false;
+            long start = rebufferStartNs.getAndSet(0);
+            if (start != 0) {
+                long duration = timeNs - start;
+                rebufferCount.incrementAndGet();
+                rebufferNs.addAndGet(duration);
+                owner.histograms[REBUFFER].add(duration / 1000000);
+            }
+        }
+
+        /**
+         * @return 点击(没有点击时是 attach)之后多久发生, 在那之前发生的返回 0, 没有发生返回 -1
+         */
+        public long getElapsedMs(int event) {
+            long start = getStartNs();
+            long time = times.get(event);
+            if (start == 0 || time == 0) {
+                return -1;
+            }
+            return Math.max(0, time - start) / 1000000;
+        }
+
+        public boolean isAutoplay() {
+            return autoplay;
+        }
+
+        public int getRebufferCount() {
+            return rebufferCount.get();
+        }
+
+        public long getRebufferMs() {
+            return rebufferNs.get() / 1000000;
+        }
+
+        long getStartNs() {
+            long tap = times.get(TAP);
+            return tap != 0 ? tap : times.get(ATTACH);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Session{").append(key);
+            if (autoplay) {
+                sb.append(", autoplay");
+            }
+            for (int event = ATTACH; event < EVENT_COUNT; event++) {
+                sb.append(", ").append(NAMES[event]).append('=').append(getElapsedMs(event));
+            }
+            return sb.append(", rebuffers=").append(rebufferCount.get())
+                    .append('/').append(getRebufferMs()).append("ms}").toString();
+        }
+    }
+
+    public static final class Percentiles {
+        public final long count;
+        public final long p50;
+        public final long p95;
+        public final long p99;
+
+        Percentiles(long count, long p50, long p95, long p99) {
+            this.count = count;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+        }
+
+        @Override
+        public String toString() {
+            return "n=" + count + " p50=" + p50 + " p95=" + p95 + " p99=" + p99;
+        }
+    }
+
+    /**
+     * 毫秒分桶计数: 1 秒以内每 10ms 一个桶, 30 秒以内每 100ms 一个桶, 更长的在最后一个桶.
+     * 分位数返回所在桶的上界.
+     */
+    static final class Histogram {
+        private static final int FINE_LIMIT_MS = 1000;
+        private static final int FINE_STEP_MS = 10;
+        private static final int COARSE_LIMIT_MS = 30000;
+        private static final int COARSE_STEP_MS = 100;
+        private static final int FINE_BUCKETS = FINE_LIMIT_MS / FINE_STEP_MS;
+        private static final int BUCKETS = FINE_BUCKETS + (COARSE_LIMIT_MS - FINE_LIMIT_MS) / COARSE_STEP_MS + 1;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+        void add(long ms) {
+            counts.incrementAndGet(bucket(ms));
+        }
+
+        Percentiles percentiles() {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+            return new Percentiles(total, percentile(snapshot, total, 0.50),
+                    percentile(snapshot, total, 0.95), percentile(snapshot, total, 0.99));
+        }
+
+        static int bucket(long ms) {
+            if (ms < FINE_LIMIT_MS) {
+                return (int) (Math.max(ms, 0) / FINE_STEP_MS);
+            }
+            if (ms < COARSE_LIMIT_MS) {
+                return FINE_BUCKETS + (int) ((ms - FINE_LIMIT_MS) / COARSE_STEP_MS);
+            }
+            return BUCKETS - 1;
+        }
+
+        static long upperBound(int bucket) {
+            if (bucket < FINE_BUCKETS) {
+                return (bucket + 1) * FINE_STEP_MS;
+            }
+            return FINE_LIMIT_MS + (bucket - FINE_BUCKETS + 1) * COARSE_STEP_MS;
+        }
+
+        private static long percentile(long[] counts, long total, double fraction) {
+            if (total == 0) {
+                return -1;
+            }
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(counts.length - 1);
+        }
+    }
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Histogram[] histograms = new Histogram[AUTOPLAY_SWITCH + 1];
+    private final AtomicLong finishedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    public PlaybackTimings() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * 取 key 正在进行的播放, 没有时新建. 点击和 attach 时调用
+     */
+    public Session session(String key) {
+        Session session = sessions.get(key);
+        if (session != null) {
+            return session;
+        }
+        return putNew(key);
+    }
+
+    /**
+     * 列表停下后自动播放 key, 以停下的时间作为开始
+     *
+     * @param settleNs 停下的时间, System.nanoTime
+     */
+    public Session onSettle(String key, long settleNs) {
+        Session session = session(key);
+        session.autoplay = true;
+        session.mark(TAP, settleNs);
+        return session;
+    }
+
+    /**
+     * 创建 MediaSource 时调用. 已经点击或 attach 的沿用, 否则是提前 prepare 的, 替换掉之前没播放的记录
+     */
+    public Session startSession(String key) {
+        Session session = sessions.get(key);
+        if (session != null && session.getStartNs() != 0) {
+            return session;
+        }
+        return putNew(key);
+    }
+
+    /**
+     * 播放结束, 有开始时间的记录计入汇总
+     */
+    public Session finish(String key) {
+        Session session = sessions.remove(key);
+        if (session == null) {
+            return null;
+        }
+        session.onReady();
+        if (session.getStartNs() == 0) {
+            droppedCount.incrementAndGet();
+            return session;
+        }
+        for (int event = ATTACH; event < EVENT_COUNT; event++) {
+            long ms = session.getElapsedMs(event);
+            if (ms >= 0) {
+                histograms[event].add(ms);
+            }
+        }
+        long firstFrameMs = session.getElapsedMs(FIRST_FRAME);
+        if (session.autoplay && firstFrameMs >= 0) {
+            histograms[AUTOPLAY_SWITCH].add(firstFrameMs);
+        }
+        finishedCount.incrementAndGet();
+        VLog.d(TAG, "finish: " + session);
+        return session;
+    }
+
+    /**
+     * @param event {@link #ATTACH} 到 {@link #FIRST_FRAME} 为相对点击的耗时, {@link #REBUFFER} 为每次卡顿的时长,
+     *              {@link #AUTOPLAY_SWITCH} 为自动播放从停下到第一帧的耗时
+     */
+    public Percentiles getPercentiles(int event) {
+        return histograms[event].percentiles();
+    }
+
+    public long getFinishedCount() {
+        return finishedCount.get();
+    }
+
+    /**
+     * 输出各阶段的分位数, 单位毫秒
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder("PlaybackTimings{finished=").append(finishedCount.get())
+                .append(", dropped=").append(droppedCount.get())
+                .append(", active=").append(sessions.size());
+        for (int event = ATTACH; event <= AUTOPLAY_SWITCH; event++) {
+            sb.append("\n  ").append(NAMES[event]).append(": ").append(histograms[event].percentiles());
+        }
+        return sb.append('}').toString();
+    }
+
+    private Session putNew(String key) {
+        Session session = new Session(this, key, System.nanoTime());
+        sessions.put(key, session);
+        if (sessions.size() > MAX_SESSIONS) {
+            // 没有结束的记录(比如提前 prepare 后没有播放的)只保留最近的
+            Session oldest = null;
+            for (Session s : sessions.values()) {
+                if (oldest == null || s.createdNs < oldest.createdNs) {
+                    oldest = s;
+                }
+            }
+            if (oldest != null && oldest != session && sessions.remove(oldest.key, oldest)) {
+                droppedCount.incrementAndGet();
+            }
+        }
+        return session;
+    }
+}
@@ -7,8 +7,8 @@ import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.exoplayer2.ui.SimpleExoPlayerView;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by shaopengxiang on 2017/12/18.
@@ -17,13 +17,30 @@ import java.util.Map;
 public class PlayerManager {
     private static final String TAG = "PlayerManager";
     private static final boolean USE_PRELOAD = true;
+    private static final int PRELOAD_WORKERS = 2;
+    private static final int PRELOAD_MAX_QUEUE = 16;
+    private static final int PRELOAD_MAX_DISTANCE = 5;
+
+    /**
+     * 不在列表中的 holder 的位置, 例如全屏播放页
+     */
+    public static final int NO_POSITION = -1;
 
     private static PlayerManager instance = new PlayerManager();
 
-    private String sVideoUrl = null;
-    private PlayerHolder sPlayerHolder = null;
+    // 当前绑定的 holder 和 url, 预加载线程也会读取
+    private final AttachmentState attachment = new AttachmentState();
+
+    // url 对应的 holder(弱引用, LRU), 以及列表位置对应的 url, 用来找到相邻的条目
+    private final HolderRegistry currentPlayerHolders = new HolderRegistry(HolderRegistry.DEFAULT_MAX_SIZE);
+
+    private volatile int visiblePosition = 0;
+
+    // 最近一次滑动预测的结果, 惯性滑动经过的条目 bind 时不再预加载
+    private volatile ScrollPrefetchPlanner.Plan scrollPlan;
 
-    private Map<String, PlayerHolder> currentPlayerHolders = new HashMap<>();
+    // 地址过期后重新获取, 没有设置 provider 时为 null
+    private volatile UrlRefresher urlRefresher;
 
     private PlayerManager() {
     }
@@ -38,33 +55,131 @@ public class PlayerManager {
         return player;
     }
 
-    public void preAttch(final String videoUrl, PlayerHolder playerHolder) {
-        currentPlayerHolders.put(videoUrl, playerHolder);
-        if (USE_PRELOAD) {
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    player.preload(videoUrl);
-                }
-            }).start();
+    private PreloadScheduler preloadScheduler = new PreloadScheduler(PRELOAD_WORKERS,
+            PRELOAD_MAX_QUEUE, PRELOAD_MAX_DISTANCE, new PreloadScheduler.Preloader() {
+        @Override
+        public void preload(String videoUrl, PreloadHandle handle) {
+            player.preload(videoUrl, handle);
+        }
+    });
 
+    /**
+     * @param pos 列表中的位置(adapter position), 不在列表中时为 {@link #NO_POSITION}
+     */
+    public void preAttch(int pos, String videoUrl, PlayerHolder playerHolder) {
+        currentPlayerHolders.put(pos, videoUrl, playerHolder);
+        if (pos == NO_POSITION) {
+            return;
         }
+        ScrollPrefetchPlanner.Plan plan = scrollPlan;
+        if (plan != null && plan.skips(pos)) {
+            return;
+        }
+        if (USE_PRELOAD && player.getPreloadBudget().shouldPreload(Math.abs(pos - visiblePosition),
+                NetworkStateMonitor.getInstance().isUnmetered())) {
+            preloadScheduler.submit(pos, videoUrl);
+        }
+    }
+
+    /**
+     * 按滑动预测的结果预加载和提前 prepare, 在主线程调用.
+     * 预加载队列改为按与 {@link ScrollPrefetchPlanner.Plan#anchor} 的距离排序.
+     */
+    public void applyScrollPlan(ScrollPrefetchPlanner.Plan plan, ScrollPrefetcher.UrlSource urls) {
+        scrollPlan = plan;
+        PreloadBudget budget = player.getPreloadBudget();
+        boolean unmetered = NetworkStateMonitor.getInstance().isUnmetered();
+        visiblePosition = plan.anchor;
+        preloadScheduler.setMaxDistance(budget.getLookAhead(unmetered));
+        preloadScheduler.setVisiblePosition(plan.anchor);
+        VLog.d(TAG, "applyScrollPlan: " + plan + ", " + budget.describe(unmetered));
+
+        if (!USE_PRELOAD) {
+            return;
+        }
+        // 和 preAttch 一样按距离检查预算, 超出 lookAhead 或者预算用完的不预加载
+        for (int position : plan.preloadPositions) {
+            String videoUrl = urls.getUrl(position);
+            if (videoUrl != null && budget.shouldPreload(Math.abs(position - plan.anchor), unmetered)) {
+                preloadScheduler.submit(position, videoUrl);
+            }
+        }
+        if (plan.preparePosition != ScrollPrefetchPlanner.NO_POSITION && budget.allowsBackgroundLoading(unmetered)) {
+            // 停下的那一行优先, 然后是它前后的条目; 只传一个会把已经 prepare 的相邻条目释放掉
+            List<String> videoUrls = new ArrayList<>(PreparedPlayers.MAX_PREPARED + 1);
+            addUrl(videoUrls, urls.getUrl(plan.preparePosition));
+            addUrl(videoUrls, urls.getUrl(plan.preparePosition + 1));
+            addUrl(videoUrls, urls.getUrl(plan.preparePosition - 1));
+            VLog.d(TAG, "applyScrollPlan: prepare " + videoUrls);
+            player.prepareAhead(videoUrls);
+        }
+    }
+
+    private static void addUrl(List<String> videoUrls, String videoUrl) {
+        if (videoUrl != null && !videoUrls.contains(videoUrl)) {
+            videoUrls.add(videoUrl);
+        }
+    }
+
+    /**
+     * 条目离开屏幕或者被复用, 取消它的预加载, 正在下载的也会停止
+     */
+    public void cancelPreload(String videoUrl) {
+        if (preloadScheduler.cancel(videoUrl)) {
+            VLog.d(TAG, "cancelPreload: " + videoUrl + ", " + preloadScheduler);
+        }
+    }
+
+    public HolderRegistry getHolderRegistry() {
+        return currentPlayerHolders;
+    }
+
+    public PreloadScheduler getPreloadScheduler() {
+        return preloadScheduler;
+    }
+
+    /**
+     * 设置签名地址过期(403/410)时获取新地址的方式, 传 null 关闭自动刷新
+     */
+    public void setUrlRefreshProvider(UrlRefresher.Provider provider) {
+        UrlRefresher old = urlRefresher;
+        urlRefresher = provider == null ? null : new UrlRefresher(provider);
+        if (old != null) {
+            old.shutdown();
+        }
+    }
+
+    public UrlRefresher getUrlRefresher() {
+        return urlRefresher;
+    }
+
+    public boolean isAttached(PlayerHolder playerHolder) {
+        return attachment.get().holder == playerHolder;
     }
 
     public interface PlayerHolder {
         void onDetached();
 
         void preload();
+
+        /**
+         * 列表停下后自动播放, 见 {@link FeedAutoplay}
+         *
+         * @param settleNs 列表停下的时间, System.nanoTime
+         */
+        void autoplay(long settleNs);
     }
 
     public void preload(int pos, String videoUrl) {
-        if (!VUtil.isWifiConnected(VUtil.getApplication())) {
-            VLog.d(TAG, "preload[" + pos + "]: NO WIFI NO PRELOAD!" + videoUrl);
+        PreloadBudget budget = player.getPreloadBudget();
+        boolean unmetered = NetworkStateMonitor.getInstance().isUnmetered();
+        if (!budget.shouldPreload(Math.abs(pos - visiblePosition), unmetered)) {
+            VLog.d(TAG, "preload[" + pos + "]: NO BUDGET NO PRELOAD! " + budget.describe(unmetered) + videoUrl);
             return;
         }
 
         VLog.d(TAG, "preload[" + pos + "]: videoUrl:" + videoUrl);
-        VLog.d(TAG, "preload[" + pos + "]: sVideoUrl:" + sVideoUrl);
+        VLog.d(TAG, "preload[" + pos + "]: attachment:" + attachment.get());
         VLog.d(TAG, "preload[" + pos + "]: player:" + player);
         VLog.d(TAG, "preload[" + pos + "]: player.isPlaying():" + player.isPlaying());
         if (player.isPlaying() && videoUrl.equals(player.getPlayUrl())) {
@@ -78,53 +193,87 @@ public class PlayerManager {
 
     }
 
-    // 初始化 exoplayer
-    public void attchPlayer(Context context, PlayerHolder playerHolder, SimpleExoPlayerView simpleExoPlayerView,
+    // 初始化 exoplayer, 需要在主线程调用. pos 是列表中的位置(adapter position), 不在列表中时为 NO_POSITION
+    public void attchPlayer(Context context, int pos, PlayerHolder playerHolder,
+                            SimpleExoPlayerView simpleExoPlayerView,
                             String videoUri,
                             Player.EventListener eventListener,
                             SimpleExoPlayer.VideoListener videoListener,
                             boolean userAction) {
         VLog.d(TAG, "attchPlayer  videoUrl:" + videoUri + ", player:" + player);
         VLog.d(TAG, "attchPlayer  player.isReleased():" + player.isReleased());
-        if ((sPlayerHolder == playerHolder || videoUri.equals(player.getPlayUrl()))
-                && !player.isReleased()) {
-//            if (player.isPlaying()) {
+        boolean released = player.isReleased();
+        if (videoUri.equals(player.getPlayUrl()) && !released) {
             Log.d(TAG, "attchPlayer: return!");
-                return;
-//            }
+            return;
         }
 
         long start = System.currentTimeMillis();
+        // player 还在使用时, 已经绑定到这个 holder 就不再切换; 检查和绑定是一次 CAS
+        AttachmentState.Attachment previous = released
+                ? attachment.attach(playerHolder, videoUri)
+                : attachment.attachIfAbsent(playerHolder, videoUri);
+        if (previous == null) {
+            Log.d(TAG, "attchPlayer: already attached, return!");
+            return;
+        }
+
+        if (userAction) {
+            // 带宽留给要播放的视频
+            int cancelled = preloadScheduler.cancelOthers(videoUri);
+            if (cancelled > 0) {
+                VLog.d(TAG, "attchPlayer: cancelled " + cancelled + " preloads, " + preloadScheduler);
+            }
+        }
+
         if (player != null) {
             player.release();
 
-            if (!videoUri.equals(sVideoUrl) && sPlayerHolder != null && sPlayerHolder != playerHolder) {
-                sPlayerHolder.onDetached();
+            if (!previous.isNone() && !videoUri.equals(previous.videoUrl) && previous.holder != playerHolder) {
+                previous.holder.onDetached();
             }
         }
-        sPlayerHolder = playerHolder;
-        sVideoUrl = videoUri;
 
         player.init(context, simpleExoPlayerView, videoUri, eventListener, videoListener, userAction);
-        currentPlayerHolders.put(videoUri, playerHolder);
+        currentPlayerHolders.put(pos, videoUri, playerHolder);
         long end = System.currentTimeMillis();
         VLog.d(TAG, "attchPlayer  finished!  use:" + (end - start) + "ms");
+
+        if (pos != NO_POSITION) {
+            prepareNeighbours(pos);
+        }
+    }
+
+    /**
+     * 提前 prepare 下一个和上一个条目, 滑动过去时可以直接播放
+     */
+    private void prepareNeighbours(int pos) {
+        List<String> videoUrls = new ArrayList<>(PreparedPlayers.MAX_PREPARED);
+        if (player.getPreloadBudget().allowsBackgroundLoading(NetworkStateMonitor.getInstance().isUnmetered())) {
+            String next = currentPlayerHolders.getUrlAt(pos + 1);
+            if (next != null) {
+                videoUrls.add(next);
+            }
+            String previous = currentPlayerHolders.getUrlAt(pos - 1);
+            if (previous != null) {
+                videoUrls.add(previous);
+            }
+        }
+        VLog.d(TAG, "prepareNeighbours[" + pos + "]: " + videoUrls);
+        player.prepareAhead(videoUrls);
     }
 
     public void detachPlayer(PlayerHolder playerHolder, String videoUrl) {
         VLog.d(TAG, "detachPlayer: videoUrl:" + videoUrl);
-        if (sPlayerHolder != null
-                && sPlayerHolder == playerHolder
-                & videoUrl.equals(sVideoUrl)) {
+        AttachmentState.Attachment detached = attachment.detach(playerHolder, videoUrl);
+        if (detached != null) {
 
             VLog.d(TAG, "detachPlayer: will pause player!");
             if (player != null) {
                 player.pause();
             }
 
-            sPlayerHolder.onDetached();
-            sPlayerHolder = null;
-            sVideoUrl = null;
+            detached.holder.onDetached();
             currentPlayerHolders.remove(videoUrl);
         }
     }
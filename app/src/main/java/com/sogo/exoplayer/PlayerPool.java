@@ -0,0 +1,187 @@
+package com.sogo.exoplayer;
+
+import android.content.Context;
+import android.os.Looper;
+import android.os.MessageQueue;
+
+import com.google.android.exoplayer2.DefaultRenderersFactory;
+import com.google.android.exoplayer2.ExoPlayerFactory;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.trackselection.AdaptiveTrackSelection;
+import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 复用 {@link SimpleExoPlayer} 的池子, 切换条目时不再重新创建 player 和 renderer.
+ * <p>
+ * 回收时只 {@code stop(true)} 重置状态, 超过池子容量时才真正 release.
+ * 空闲时会在主线程预先创建一个 player. 只能在主线程使用.
+ */
+public class PlayerPool {
+    private static final String TAG = "PlayerPool";
+
+    /**
+     * 当前播放 + 提前 prepare 的下一个和上一个
+     */
+    public static final int DEFAULT_MAX_SIZE = 1 + PreparedPlayers.MAX_PREPARED;
+
+    /**
+     * 池子中的 player 和它独占的 load control
+     */
+    public static final class PooledPlayer {
+        private final SimpleExoPlayer player;
+        private final LdDefaultLoadControl loadControl;
+
+        PooledPlayer(SimpleExoPlayer player, LdDefaultLoadControl loadControl) {
+            this.player = player;
+            this.loadControl = loadControl;
+        }
+
+        public SimpleExoPlayer getPlayer() {
+            return player;
+        }
+
+        public LdDefaultLoadControl getLoadControl() {
+            return loadControl;
+        }
+    }
+
+    private final Context context;
+    private final BandwidthMeter bandwidthMeter;
+    private final PreloadBudget preloadBudget;
+    private final BufferPolicy bufferPolicy;
+    private final Deque<PooledPlayer> idlePlayers = new ArrayDeque<>();
+
+    private int maxSize;
+    private int inUseCount = 0;
+    private int createdCount = 0;
+    private int reusedCount = 0;
+    private boolean prewarmPending = false;
+
+    public PlayerPool(Context context, BandwidthMeter bandwidthMeter, PreloadBudget preloadBudget,
+                      BufferPolicy bufferPolicy, int maxSize) {
+        this.context = context.getApplicationContext();
+        this.bandwidthMeter = bandwidthMeter;
+        this.preloadBudget = preloadBudget;
+        this.bufferPolicy = bufferPolicy;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 取一个空闲的 player, 没有时新建.
+     */
+    public PooledPlayer acquire(boolean userAction) {
+        PooledPlayer pooledPlayer = idlePlayers.pollFirst();
+        if (pooledPlayer == null) {
+            pooledPlayer = create();
+        } else {
+            reusedCount++;
+        }
+        pooledPlayer.loadControl.setUserAction(userAction);
+        inUseCount++;
+        VLog.d(TAG, "acquire: " + this);
+        prewarm();
+        return pooledPlayer;
+    }
+
+    /**
+     * 池子里的 player 数量没有达到上限时才取, 用于非必须的场景(提前 prepare).
+     *
+     * @return 已经达到上限时返回 null
+     */
+    public PooledPlayer tryAcquire(boolean userAction) {
+        if (inUseCount >= maxSize) {
+            return null;
+        }
+        return acquire(userAction);
+    }
+
+    /**
+     * 归还 player. 调用方需要先移除自己加的 listener 和 view.
+     */
+    public void recycle(PooledPlayer pooledPlayer) {
+        inUseCount--;
+        if (idlePlayers.size() + inUseCount >= maxSize) {
+            pooledPlayer.player.release();
+            VLog.d(TAG, "recycle: pool full, released. " + this);
+            return;
+        }
+        pooledPlayer.player.stop(true);
+        pooledPlayer.player.clearVideoSurface();
+        pooledPlayer.player.setPlayWhenReady(false);
+        idlePlayers.addFirst(pooledPlayer);
+        VLog.d(TAG, "recycle: " + this);
+    }
+
+    /**
+     * 主线程空闲时创建一个 player 放进池子
+     */
+    public void prewarm() {
+        if (prewarmPending || !idlePlayers.isEmpty() || inUseCount >= maxSize) {
+            return;
+        }
+        prewarmPending = true;
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                prewarmPending = false;
+                if (idlePlayers.isEmpty() && inUseCount < maxSize) {
+                    idlePlayers.addLast(create());
+                    VLog.d(TAG, "prewarm: " + PlayerPool.this);
+                }
+                return false;
+            }
+        });
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        while (!idlePlayers.isEmpty() && idlePlayers.size() + inUseCount > maxSize) {
+            idlePlayers.pollLast().player.release();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getIdleCount() {
+        return idlePlayers.size();
+    }
+
+    public int getInUseCount() {
+        return inUseCount;
+    }
+
+    public int getCreatedCount() {
+        return createdCount;
+    }
+
+    public int getReusedCount() {
+        return reusedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "PlayerPool{idle=" + idlePlayers.size()
+                + ", inUse=" + inUseCount
+                + ", max=" + maxSize
+                + ", created=" + createdCount
+                + ", reused=" + reusedCount + "}";
+    }
+
+    private PooledPlayer create() {
+        long start = System.currentTimeMillis();
+        LdDefaultLoadControl loadControl = new LdDefaultLoadControl(false, preloadBudget, bufferPolicy);
+        DefaultTrackSelector trackSelector = new DefaultTrackSelector(
+                new AdaptiveTrackSelection.Factory(bandwidthMeter));
+        SimpleExoPlayer player = ExoPlayerFactory.newSimpleInstance(new DefaultRenderersFactory(context),
+                trackSelector, loadControl);
+        createdCount++;
+        VLog.d(TAG, "create: use:" + (System.currentTimeMillis() - start) + "ms");
+        return new PooledPlayer(player, loadControl);
+    }
+}
@@ -4,28 +4,26 @@ package com.sogo.exoplayer;
 import android.content.Context;
 import android.net.Uri;
 
-import com.google.android.exoplayer2.DefaultRenderersFactory;
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ExoPlayer;
-import com.google.android.exoplayer2.ExoPlayerFactory;
 import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.Timeline;
 import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
 import com.google.android.exoplayer2.extractor.ExtractorsFactory;
 import com.google.android.exoplayer2.source.ExtractorMediaSource;
 import com.google.android.exoplayer2.source.MediaSource;
-import com.google.android.exoplayer2.trackselection.AdaptiveTrackSelection;
-import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
-import com.google.android.exoplayer2.trackselection.TrackSelection;
-import com.google.android.exoplayer2.trackselection.TrackSelector;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.ui.SimpleExoPlayerView;
 import com.google.android.exoplayer2.upstream.BandwidthMeter;
 import com.google.android.exoplayer2.upstream.DataSource;
-import com.google.android.exoplayer2.upstream.DataSpec;
-import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
+import com.google.android.exoplayer2.upstream.FileDataSourceFactory;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSinkFactory;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
 import com.google.android.exoplayer2.upstream.cache.CacheDataSourceFactory;
-import com.google.android.exoplayer2.upstream.cache.CacheUtil;
-import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
 import com.google.android.exoplayer2.upstream.cache.SimpleCache;
 import com.google.android.exoplayer2.util.Util;
 import com.google.android.exoplayer2.video.VideoListener;
@@ -33,6 +31,9 @@ import com.spx.exoplayertest.R;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -41,6 +42,11 @@ import java.io.IOException;
 public final class PlayerWrapper {
 
     private static final String TAG = "Player.Wrapper";
+    private static final String CACHE_DIR = "video";
+    private static final String CACHE_INDEX_FILE = "cached_content_index.exi";
+    private static final long CACHE_WAIT_MS = 5000;
+    private static final long CACHE_METRICS_INTERVAL_MS = 60 * 1000;
+    private static final long CACHE_MAX_BYTES = 512 * 1024 * 1024;
     private static PlayerWrapper instance = new PlayerWrapper();
 
     public static PlayerWrapper getInstance() {
@@ -49,25 +55,90 @@ public final class PlayerWrapper {
 
 //    private final ImaAdsLoader adsLoader;
 
-    private SimpleExoPlayer player;
+    // 以下状态在主线程修改, 预加载线程和 prepare 线程会读取
+    private volatile SimpleExoPlayer player;
+    private PlayerPool.PooledPlayer pooledPlayer;
+    private PlayerPool playerPool;
+    private PreparedPlayers preparedPlayers;
+    // 提前 prepare 还没有取出的条目, 网络读取计入预加载预算. 只在主线程使用
+    private final Map<String, CacheMetricsListener> preparedListeners = new HashMap<>();
     private SimpleExoPlayerView simpleExoPlayerView;
     private long contentPosition;
     private boolean playFinished = false;
-    private boolean isPlaying = false;
+    private volatile boolean isPlaying = false;
 
-    private TrackSelector mTrackSelector;
-    private String mVideoUrl;
+    private volatile String mVideoUrl;
     private Player.EventListener mEventListener;
     private VideoListener mVideoListener;
 
 
     private DataSource.Factory dataSourceFactory = null;
+    // 播放和预加载共用连接池和 DNS 缓存
+    private UpstreamClient upstreamClient = UpstreamClient.createDefault();
+    private volatile UpstreamFactory httpUpstream = new OkHttpUpstreamFactory(upstreamClient);
     private ExtractorsFactory extractorsFactory = new DefaultExtractorsFactory();
+    // 正在下载的数据段, 播放接上正在进行的预加载而不是重复下载
+    private InFlightRanges inFlightRanges = new InFlightRanges();
+
+    // SimpleCache 在后台线程创建, 完成之前播放只走网络
+    private LazyCache videoCache = null;
+    private ValueCacheEvictor cacheEvictor = null;
+    private String userAgent;
+    private CacheMetrics cacheMetrics = new CacheMetrics();
+    private volatile SegmentedPreloader segmentedPreloader = null;
+    // 签名和 CDN 域名不同的地址共用缓存
+    private CacheKeyFactory cacheKeyFactory = new CacheKeyFactory(CacheKeyFactory.CONTENT_HASH);
+    private PreloadBudget preloadBudget = new PreloadBudget();
+    private BandwidthEstimator bandwidthEstimator = new BandwidthEstimator(preloadBudget);
+    private BufferPolicy bufferPolicy = new BufferPolicy(new BufferPolicy.Watermarks(
+            LdDefaultLoadControl.DEFAULT_MIN_BUFFER_MS, LdDefaultLoadControl.DEFAULT_MAX_BUFFER_MS,
+            LdDefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS,
+            LdDefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS));
+    private PlaybackTimings playbackTimings = new PlaybackTimings();
+    // 当前播放的起播耗时记录, 在主线程修改
+    private PlaybackTimings.Session timingSession;
+    // timeline 准备好后把时长告诉 load control, 调整缓冲水位; 同时记录起播各阶段的时间
+    private final Player.EventListener playbackListener = new Player.DefaultEventListener() {
+        @Override
+        public void onTimelineChanged(Timeline timeline, Object manifest, int reason) {
+            updateClipDuration();
+            if (timingSession != null && !timeline.isEmpty()) {
+                timingSession.mark(PlaybackTimings.SOURCE_PREPARED);
+            }
+        }
 
-    private File cacheFile = null;
+        @Override
+        public void onTracksChanged(TrackGroupArray trackGroups, TrackSelectionArray trackSelections) {
+            if (timingSession != null && trackGroups.length > 0) {
+                timingSession.mark(PlaybackTimings.TRACKS_SELECTED);
+            }
+        }
+
+        @Override
+        public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+            if (timingSession == null) {
+                return;
+            }
+            if (playbackState == Player.STATE_BUFFERING) {
+                timingSession.onBuffering();
+            } else if (playbackState == Player.STATE_READY) {
+                timingSession.onReady();
+            }
+        }
+    };
+    private final VideoListener firstFrameListener = new VideoListener() {
+        @Override
+        public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees,
+                                       float pixelWidthHeightRatio) {
+        }
 
-    SimpleCache simpleCache = null;
-    DataSource.Factory cachedDataSourceFactory = null;
+        @Override
+        public void onRenderedFirstFrame() {
+            if (timingSession != null) {
+                timingSession.mark(PlaybackTimings.FIRST_FRAME);
+            }
+        }
+    };
     // This is the MediaSource representing the content media (i.e. not the ad).
 //        String contentUrl = context.getString(R.string.content_url);
 //        MediaSource contentMediaSource = new ExtractorMediaSource(
@@ -79,38 +150,197 @@ public final class PlayerWrapper {
 
 
     // This is the MediaSource representing the media to be played.
-    MediaSource videoSource = null;
+    volatile MediaSource videoSource = null;
 
     private PlayerWrapper() {
-        dataSourceFactory = new DefaultDataSourceFactory(VUtil.getApplication(),
-                Util.getUserAgent(VUtil.getApplication(), VUtil.getApplication().getString(R.string.app_name)));
-        cacheFile = new File(VUtil.getApplication().getExternalCacheDir().getAbsolutePath(), "video");
-        VLog.d(TAG, "PlayerWrapper()  cache file:" + cacheFile.getAbsolutePath());
-        simpleCache = new SimpleCache(cacheFile, new LeastRecentlyUsedCacheEvictor(512 * 1024 * 1024));
-        cachedDataSourceFactory = new CacheDataSourceFactory(simpleCache, dataSourceFactory);
-        BandwidthMeter bandwidthMeter = new DefaultBandwidthMeter();
-        TrackSelection.Factory videoTrackSelectionFactory =
-                new AdaptiveTrackSelection.Factory(bandwidthMeter);
-        mTrackSelector = new DefaultTrackSelector(videoTrackSelectionFactory);
-
-    }
-
-    public void preload(String videoUri) {
-        DataSpec dataSpec = new DataSpec(Uri.parse(videoUri), 0, 512 * 1024, null);
-        CacheUtil.CachingCounters counters = new CacheUtil.CachingCounters();
+        userAgent = Util.getUserAgent(VUtil.getApplication(), VUtil.getApplication().getString(R.string.app_name));
+        // 预加载使用, 每次按当前的 httpUpstream 创建
+        dataSourceFactory = new DataSource.Factory() {
+            @Override
+            public DataSource createDataSource() {
+                return createUpstreamFactory(bandwidthEstimator, InFlightRanges.PRIORITY_PRELOAD).createDataSource();
+            }
+        };
+        NetworkStateMonitor.getInstance().addListener(new NetworkStateMonitor.Listener() {
+            @Override
+            public void onNetworkChanged(NetworkStateMonitor monitor) {
+                upstreamClient.onNetworkChanged();
+                if (monitor.isConnected()) {
+                    // 换了网络, 预加载预算和带宽、延迟估计按新的网络重新计算
+                    bandwidthEstimator.onNetworkChanged();
+                    preloadBudget.resetSession();
+                    VLog.d(TAG, "onNetworkChanged: " + preloadBudget.describe(monitor.isUnmetered()));
+                }
+            }
+        });
+        cacheEvictor = new ValueCacheEvictor(CACHE_MAX_BYTES, ValueCacheEvictor.DEFAULT_HEAD_QUOTA_BYTES,
+                SegmentedPreloader.DEFAULT_HEAD_BYTES);
+        videoCache = new LazyCache(VUtil.getApplication(), CACHE_DIR,
+                new MeteredCacheEvictor(cacheEvictor, cacheMetrics));
+        videoCache.addListener(new LazyCache.Listener() {
+            @Override
+            public void onCacheReady(SimpleCache cache) {
+                // 预加载按小段提交到缓存, 播放等预加载时只需要等第一段
+                segmentedPreloader = new SegmentedPreloader(cache, dataSourceFactory,
+                        new InFlightDataSink.Factory(cache, InFlightDataSink.DEFAULT_FRAGMENT_BYTES, inFlightRanges),
+                        SegmentedPreloader.DEFAULT_MAX_LAYOUTS);
+            }
+        });
+        videoCache.start();
+        initCacheMetrics();
+        BandwidthMeter bandwidthMeter = bandwidthEstimator.getBandwidthMeter();
+        playerPool = new PlayerPool(VUtil.getApplication(), bandwidthMeter, preloadBudget, bufferPolicy,
+                PlayerPool.DEFAULT_MAX_SIZE);
+        preparedPlayers = new PreparedPlayers(playerPool, new PreparedPlayers.MediaSourceFactory() {
+            @Override
+            public MediaSource createMediaSource(String videoUrl) {
+                CacheMetricsListener listener = createMetricsListener(cacheKeyFactory.buildKey(videoUrl));
+                // 取出播放之前的下载和预加载共用预算
+                listener.setBackgroundBudget(preloadBudget);
+                preparedListeners.put(videoUrl, listener);
+                return PlayerWrapper.this.createMediaSource(videoUrl, listener);
+            }
+
+            @Override
+            public void onTaken(String videoUrl) {
+                stopBackgroundCharge(videoUrl);
+            }
+
+            @Override
+            public void onDiscarded(String videoUrl) {
+                stopBackgroundCharge(videoUrl);
+                cacheMetrics.discardPlay(cacheKeyFactory.buildKey(videoUrl));
+            }
+        });
+    }
+
+    private void initCacheMetrics() {
+        cacheMetrics.setGauges(new CacheMetrics.Gauge() {
+            @Override
+            public long get() {
+                SimpleCache cache = videoCache.getIfReady();
+                return cache == null ? 0 : cache.getCacheSpace();
+            }
+        }, new CacheMetrics.Gauge() {
+            @Override
+            public long get() {
+                SimpleCache cache = videoCache.getIfReady();
+                return cache == null ? 0 : cache.getKeys().size();
+            }
+        }, new CacheMetrics.Gauge() {
+            @Override
+            public long get() {
+                File directory = videoCache.getDirectory();
+                return directory == null ? 0 : new File(directory, CACHE_INDEX_FILE).length();
+            }
+        });
+        cacheMetrics.startReporting(CACHE_METRICS_INTERVAL_MS, new CacheMetrics.Reporter() {
+            @Override
+            public void report(CacheMetrics.Snapshot snapshot) {
+                VLog.d(TAG, snapshot + ", " + SegmentPool.getInstance() + ", " + upstreamClient
+                        + ", " + inFlightRanges);
+                VLog.d(TAG, playbackTimings.dump());
+            }
+        });
+    }
+
+    private void stopBackgroundCharge(String videoUrl) {
+        CacheMetricsListener listener = preparedListeners.remove(videoUrl);
+        if (listener != null) {
+            listener.setBackgroundBudget(null);
+        }
+    }
+
+    /**
+     * 每个 MediaSource 单独统计磁盘和网络读取的字节数
+     */
+    private CacheMetricsListener createMetricsListener(String key) {
+        return new CacheMetricsListener(cacheMetrics.startPlay(key), bandwidthEstimator,
+                playbackTimings.startSession(key));
+    }
+
+    private MediaSource createMediaSource(String videoUrl, CacheMetricsListener listener) {
+        String key = cacheKeyFactory.buildKey(videoUrl);
+        DataSource.Factory upstreamFactory = createUpstreamFactory(listener, InFlightRanges.PRIORITY_PLAYBACK);
+        SimpleCache cache = videoCache.getIfReady();
+        if (cache == null) {
+            VLog.d(TAG, "createMediaSource: cache not ready, network only");
+            return new ExtractorMediaSource(Uri.parse(videoUrl),
+                    upstreamFactory, extractorsFactory, null, null, key);
+        }
+        cacheKeyFactory.onPlay(videoUrl, key, !cache.getCachedSpans(key).isEmpty());
+        DataSource.Factory cachedDataSourceFactory = new CacheDataSourceFactory(cache, upstreamFactory,
+                new FileDataSourceFactory(),
+                new CacheDataSinkFactory(cache, CacheDataSource.DEFAULT_MAX_CACHE_FILE_SIZE),
+                0, listener);
+        return new ExtractorMediaSource(Uri.parse(videoUrl),
+                new CoalescingDataSource.Factory(cachedDataSourceFactory, inFlightRanges,
+                        InFlightRanges.DEFAULT_ATTACH_TIMEOUT_MS),
+                extractorsFactory, null, null, key);
+    }
+
+    /**
+     * @param priority 在 {@link InFlightRanges} 登记的优先级
+     */
+    private DataSource.Factory createUpstreamFactory(TransferListener<? super DataSource> listener, int priority) {
+        return new InFlightDataSource.Factory(new DefaultDataSourceFactory(VUtil.getApplication(), listener,
+                httpUpstream.createHttpFactory(userAgent, listener)), inFlightRanges, priority);
+    }
+
+    /**
+     * 设置网络请求的实现, 之后创建的 MediaSource 和预加载使用
+     */
+    public void setUpstreamFactory(UpstreamFactory upstreamFactory) {
+        httpUpstream = upstreamFactory;
+    }
+
+    /**
+     * 提前 prepare 相邻的条目, 只保留 videoUrls 中的, 靠前的优先.
+     */
+    public void prepareAhead(List<String> videoUrls) {
+        preparedPlayers.retain(videoUrls);
+        for (String videoUrl : videoUrls) {
+            if (!videoUrl.equals(mVideoUrl) || player == null) {
+                preparedPlayers.prepare(videoUrl);
+            }
+        }
+    }
+
+    /**
+     * 预加载视频开头, 在工作线程调用.
+     *
+     * @param handle 取消后尽快停止, 已经下载的部分留在缓存里
+     */
+    public void preload(String videoUri, PreloadHandle handle) {
+        boolean unmetered = NetworkStateMonitor.getInstance().isUnmetered();
+        String key = cacheKeyFactory.buildKey(videoUri);
         try {
-            CacheUtil.cache(dataSpec, simpleCache, dataSourceFactory.createDataSource(), counters, null);
+            // 预加载在后台线程, 可以等缓存初始化
+            if (videoCache.await(CACHE_WAIT_MS) == null) {
+                VLog.d(TAG, "preload: cache not ready, skip " + videoUri);
+                return;
+            }
+            segmentedPreloader.preload(Uri.parse(videoUri), key, preloadBudget.getHeadBytes(unmetered), handle);
         } catch (IOException e) {
             e.printStackTrace();
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            if (handle.isCanceled()) {
+                VLog.d(TAG, "preload: canceled " + videoUri + ", " + handle);
+            } else {
+                e.printStackTrace();
+            }
         }
+        long bytes = handle.getDownloadedBytes();
+        preloadBudget.onPreloaded(bytes);
+        cacheMetrics.onPreloaded(key, bytes);
     }
 
     public void init(Context context, SimpleExoPlayerView simpleExoPlayerView, String videoUri,
                      Player.EventListener eventListener, SimpleExoPlayer.VideoListener videoListener,
                      boolean userAction) {
         this.mVideoUrl = videoUri;
+        timingSession = playbackTimings.session(cacheKeyFactory.buildKey(videoUri));
+        timingSession.mark(PlaybackTimings.ATTACH);
         this.mEventListener = eventListener;
         this.mVideoListener = videoListener;
         initPlayer(context, simpleExoPlayerView, userAction);
@@ -120,38 +350,71 @@ public final class PlayerWrapper {
         // Create a default track selector.
         VLog.d(TAG, "initPlayer: ... " + userAction);
         this.simpleExoPlayerView = simpleExoPlayerView;
-        player = ExoPlayerFactory.newSimpleInstance(new DefaultRenderersFactory(context),
-                mTrackSelector, new LdDefaultLoadControl(userAction));
+        isPlaying = false;
+
+        // 已经提前 prepare 过的直接使用
+        PreparedPlayers.Prepared prepared = preparedPlayers.take(mVideoUrl);
+        if (prepared != null) {
+            pooledPlayer = prepared.pooledPlayer;
+            pooledPlayer.getLoadControl().setUserAction(userAction);
+            player = pooledPlayer.getPlayer();
+            videoSource = prepared.mediaSource;
+            simpleExoPlayerView.setPlayer(player);
+            player.addListener(mEventListener);
+            player.addListener(playbackListener);
+            player.addVideoListener(mVideoListener);
+            player.addVideoListener(firstFrameListener);
+            updateClipDuration();
+            // 提前 prepare 时已经完成的阶段
+            if (!player.getCurrentTimeline().isEmpty()) {
+                timingSession.mark(PlaybackTimings.SOURCE_PREPARED);
+            }
+            if (player.getCurrentTrackGroups().length > 0) {
+                timingSession.mark(PlaybackTimings.TRACKS_SELECTED);
+            }
+            hasReleased = false;
+            return;
+        }
+
+        // 从池子中取, 不再每次创建 player 和 renderer
+        pooledPlayer = playerPool.acquire(userAction);
+        player = pooledPlayer.getPlayer();
 
         // Bind the player to the view.
         simpleExoPlayerView.setPlayer(player);
 
         // Produces DataSource instances through which media data is loaded.
 
-//        DataSource.Factory dataSourceFactory = new OkHttpDataSourceFactory();
         // Produces Extractor instances for parsing the content media (i.e. not the ad).
 
 
         // Prepare the player with the source.
-        isPlaying = false;
 //        player.seekTo(contentPosition);
 
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                videoSource = new ExtractorMediaSource(Uri.parse(mVideoUrl),
-                        cachedDataSourceFactory, extractorsFactory, null, null);
-                player.prepare(videoSource);
-            }
-        }).start();
+        // 和 PreparedPlayers 一样在主线程 prepare: 在后台线程做的话, release 之后 player 已经回到池子里,
+        // 会用旧的地址 prepare 下一次 acquire 到的 player, 并且覆盖下一次播放的 videoSource
+        videoSource = createMediaSource(mVideoUrl, createMetricsListener(cacheKeyFactory.buildKey(mVideoUrl)));
+        player.prepare(videoSource);
 
 //        player.setPlayWhenReady(true);
 
         player.addListener(mEventListener);
+        player.addListener(playbackListener);
         player.addVideoListener(mVideoListener);
+        player.addVideoListener(firstFrameListener);
         hasReleased = false;
     }
 
+    private void updateClipDuration() {
+        if (player == null || pooledPlayer == null) {
+            return;
+        }
+        long duration = player.getDuration();
+        if (duration != C.TIME_UNSET) {
+            pooledPlayer.getLoadControl().setClipDuration(duration);
+        }
+    }
+
     public void transformIn(SimpleExoPlayerView newSimpleExoPlayerView){
         newSimpleExoPlayerView.setPlayer(player);
         simpleExoPlayerView.setPlayer(null);
@@ -173,7 +436,12 @@ public final class PlayerWrapper {
 
     public void play() {
         VLog.d(TAG, "play: ...");
+        if (player == null) {
+            return;
+        }
         if (playFinished) {
+            // 不超过后向缓冲的视频直接从内存重播, 见 LdDefaultLoadControl#getBackBufferDurationUs
+            onSeek();
             player.seekTo(0);
             playFinished = false;
         }
@@ -187,6 +455,39 @@ public final class PlayerWrapper {
         hasReleased = false;
     }
 
+    public long getCurrentPosition() {
+        return player == null ? 0 : player.getCurrentPosition();
+    }
+
+    public void seekTo(long positionMs) {
+        if (player != null) {
+            onSeek();
+            player.seekTo(positionMs);
+        }
+    }
+
+    private void onSeek() {
+        if (timingSession != null) {
+            timingSession.onSeek();
+        }
+    }
+
+    /**
+     * 用户点击播放, 起播耗时从这里开始计算
+     */
+    public void onTap(String videoUrl) {
+        playbackTimings.session(cacheKeyFactory.buildKey(videoUrl)).mark(PlaybackTimings.TAP);
+    }
+
+    /**
+     * 列表停下后自动播放 videoUrl, 起播耗时从停下时开始算
+     *
+     * @param settleNs 列表停下的时间, System.nanoTime
+     */
+    public void onSettle(String videoUrl, long settleNs) {
+        playbackTimings.onSettle(cacheKeyFactory.buildKey(videoUrl), settleNs);
+    }
+
     public boolean isIdle() {
         if (player != null) {
             if (player.getPlaybackState() == Player.STATE_IDLE) {
@@ -204,22 +505,89 @@ public final class PlayerWrapper {
         }
     }
 
-    private boolean hasReleased = false;
+    private volatile boolean hasReleased = false;
 
     public void release() {
         VLog.d(TAG, "release: ..."+this);
         if (player != null) {
             isPlaying = false;
             player.removeListener(mEventListener);
+            player.removeListener(playbackListener);
             player.removeVideoListener(mVideoListener);
-            player.release();
+            player.removeVideoListener(firstFrameListener);
+            if (simpleExoPlayerView != null && simpleExoPlayerView.getPlayer() == player) {
+                simpleExoPlayerView.setPlayer(null);
+            }
+            String key = cacheKeyFactory.buildKey(mVideoUrl);
+            cacheEvictor.onWatched(key, getCompletion());
+            long duration = player.getDuration();
+            duration = duration == C.TIME_UNSET ? BufferPolicy.DURATION_UNKNOWN : duration;
+            bufferPolicy.onPlayEnded(player.getCurrentPosition(), duration);
+            // 放回池子, 不真正 release
+            playerPool.recycle(pooledPlayer);
+            cacheMetrics.finishPlay(key);
+            playbackTimings.finish(key);
+            timingSession = null;
+            pooledPlayer = null;
             hasReleased = true;
             VLog.d(TAG, "release: ...hasReleased!");
-//            player = null;
+            player = null;
         }
 //        adsLoader.release();
     }
 
+    // 播放进度, 0~1
+    private float getCompletion() {
+        if (playFinished) {
+            return 1f;
+        }
+        long duration = player.getDuration();
+        if (duration == C.TIME_UNSET || duration <= 0) {
+            return 0f;
+        }
+        return Math.min(1f, (float) player.getCurrentPosition() / duration);
+    }
+
+    public PreparedPlayers getPreparedPlayers() {
+        return preparedPlayers;
+    }
+
+    public PlayerPool getPlayerPool() {
+        return playerPool;
+    }
+
+    public LazyCache getVideoCache() {
+        return videoCache;
+    }
+
+    public CacheMetrics getCacheMetrics() {
+        return cacheMetrics;
+    }
+
+    public CacheKeyFactory getCacheKeyFactory() {
+        return cacheKeyFactory;
+    }
+
+    public UpstreamClient getUpstreamClient() {
+        return upstreamClient;
+    }
+
+    public InFlightRanges getInFlightRanges() {
+        return inFlightRanges;
+    }
+
+    public PlaybackTimings getPlaybackTimings() {
+        return playbackTimings;
+    }
+
+    public BufferPolicy getBufferPolicy() {
+        return bufferPolicy;
+    }
+
+    public PreloadBudget getPreloadBudget() {
+        return preloadBudget;
+    }
+
     public String getPlayUrl() {
         return mVideoUrl;
     }
@@ -0,0 +1,95 @@
+package com.sogo.exoplayer;
+
+import com.google.android.exoplayer2.upstream.Allocation;
+import com.google.android.exoplayer2.upstream.Allocator;
+
+/**
+ * 一个 player 使用的 {@link Allocator}, 缓冲区从共用的 {@link SegmentPool} 取, 释放时还回去.
+ * <p>
+ * 目标大小是这个 player 的额度, 由 {@link LdDefaultLoadControl} 设置和检查.
+ * 加载线程和播放线程都会调用.
+ */
+public class PooledAllocator implements Allocator {
+
+    private final SegmentPool pool;
+
+    private int targetBufferSize = 0;
+    private int allocatedCount = 0;
+    private long allocateCount = 0;
+
+    public PooledAllocator(SegmentPool pool) {
+        this.pool = pool;
+    }
+
+    public SegmentPool getPool() {
+        return pool;
+    }
+
+    public synchronized void setTargetBufferSize(int targetBufferSize) {
+        this.targetBufferSize = targetBufferSize;
+    }
+
+    public synchronized int getTargetBufferSize() {
+        return targetBufferSize;
+    }
+
+    /**
+     * player 停止或释放, 已经分配的缓冲区由 sample queue 释放时还给池子
+     */
+    public synchronized void reset() {
+        targetBufferSize = 0;
+    }
+
+    public synchronized long getAllocateCount() {
+        return allocateCount;
+    }
+
+    @Override
+    public Allocation allocate() {
+        synchronized (this) {
+            allocatedCount++;
+            allocateCount++;
+        }
+        return new Allocation(pool.obtain(), 0);
+    }
+
+    @Override
+    public void release(Allocation allocation) {
+        synchronized (this) {
+            allocatedCount--;
+        }
+        pool.recycle(allocation.data);
+    }
+
+    @Override
+    public void release(Allocation[] allocations) {
+        synchronized (this) {
+            allocatedCount -= allocations.length;
+        }
+        for (Allocation allocation : allocations) {
+            pool.recycle(allocation.data);
+        }
+    }
+
+    @Override
+    public void trim() {
+        // 空闲的缓冲区都在池子里, 由池子统一释放
+    }
+
+    @Override
+    public synchronized int getTotalBytesAllocated() {
+        return allocatedCount * pool.getSegmentSize();
+    }
+
+    @Override
+    public int getIndividualAllocationLength() {
+        return pool.getSegmentSize();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PooledAllocator{allocated=" + allocatedCount * pool.getSegmentSize()
+                + ", target=" + targetBufferSize
+                + ", allocations=" + allocateCount + "}";
+    }
+}
@@ -0,0 +1,195 @@
+package com.sogo.exoplayer;
+
+/**
+ * 根据测得的带宽和延迟计算预加载预算: 预加载几个条目, 每个条目加载多少, 本次会话一共允许预加载多少.
+ * <p>
+ * 网络是否计费只作为一个输入, 拥塞的 wifi 会减少预加载, 很快的 4G 也会适当预加载.
+ * 还没有测速数据时保持原来的行为: wifi 下预加载, 否则不预加载.
+ * <p>
+ * {@link #allowsBackgroundLoading} 在每个后台 player 的加载线程上频繁调用, 不加锁,
+ * 读取状态变化时重新计算的 volatile 字段.
+ */
+public class PreloadBudget {
+    public static final long NO_ESTIMATE = -1;
+
+    // 带宽分档, bit/s
+    static final long LOW_BITRATE = 600 * 1000;
+    static final long MEDIUM_BITRATE = 2000 * 1000;
+    static final long HIGH_BITRATE = 6000 * 1000;
+
+    // 首字节延迟超过这个值时少预加载一个
+    static final long HIGH_LATENCY_MS = 600;
+
+    static final int MIN_HEAD_BYTES = 128 * 1024;
+    static final int MAX_HEAD_BYTES = 1024 * 1024;
+    static final int MAX_METERED_HEAD_BYTES = 256 * 1024;
+
+    static final long UNMETERED_SESSION_BYTES = 64L * 1024 * 1024;
+    static final long METERED_SESSION_BYTES = 4L * 1024 * 1024;
+
+    private static final float LATENCY_WEIGHT = 0.3f;
+
+    private long bitrateEstimate = NO_ESTIMATE;
+    private long latencyEstimateMs = NO_ESTIMATE;
+    private long sessionPreloadedBytes = 0;
+    private long allowedCount = 0;
+    private long deniedCount = 0;
+
+    // 计费 / 不计费网络下是否允许后台加载, 持有锁时更新
+    private volatile boolean meteredBackgroundAllowed;
+    private volatile boolean unmeteredBackgroundAllowed;
+
+    public PreloadBudget() {
+        updateBackgroundLoading();
+    }
+
+    /**
+     * @param bitrate 带宽估计, bit/s
+     */
+    public synchronized void onBandwidthSample(long bitrate) {
+        bitrateEstimate = bitrate;
+        updateBackgroundLoading();
+    }
+
+    /**
+     * @param latencyMs 一次请求从打开到收到第一个字节的时间
+     */
+    public synchronized void onLatencySample(long latencyMs) {
+        latencyEstimateMs = latencyEstimateMs == NO_ESTIMATE ? latencyMs
+                : (long) (latencyEstimateMs * (1 - LATENCY_WEIGHT) + latencyMs * LATENCY_WEIGHT);
+        updateBackgroundLoading();
+    }
+
+    /**
+     * 记录预加载实际下载的字节数
+     */
+    public synchronized void onPreloaded(long bytes) {
+        sessionPreloadedBytes += bytes;
+        updateBackgroundLoading();
+    }
+
+    /**
+     * 开始新的会话, 已用预算清零. 连接到新的网络时调用
+     */
+    public synchronized void resetSession() {
+        sessionPreloadedBytes = 0;
+        allowedCount = 0;
+        deniedCount = 0;
+        updateBackgroundLoading();
+    }
+
+    /**
+     * 清除带宽和延迟估计, 换了网络后旧网络的估计不再适用, 回到没有测速数据时的行为
+     */
+    public synchronized void resetEstimates() {
+        bitrateEstimate = NO_ESTIMATE;
+        latencyEstimateMs = NO_ESTIMATE;
+        updateBackgroundLoading();
+    }
+
+    /**
+     * @return 在可见位置之外预加载几个条目, 0 表示不预加载
+     */
+    public synchronized int getLookAhead(boolean unmetered) {
+        int lookAhead;
+        if (bitrateEstimate == NO_ESTIMATE) {
+            lookAhead = unmetered ? 2 : 0;
+        } else if (bitrateEstimate < LOW_BITRATE) {
+            lookAhead = 0;
+        } else if (bitrateEstimate < MEDIUM_BITRATE) {
+            lookAhead = 1;
+        } else if (bitrateEstimate < HIGH_BITRATE) {
+            lookAhead = 2;
+        } else {
+            lookAhead = 3;
+        }
+        if (latencyEstimateMs != NO_ESTIMATE && latencyEstimateMs > HIGH_LATENCY_MS) {
+            lookAhead--;
+        }
+        if (!unmetered) {
+            lookAhead = Math.min(lookAhead, 1);
+        }
+        return Math.max(lookAhead, 0);
+    }
+
+    /**
+     * @return 每个条目 mdat 开始后预加载的字节数, 大约是一秒能下载的量
+     */
+    public synchronized int getHeadBytes(boolean unmetered) {
+        long bytes = bitrateEstimate == NO_ESTIMATE
+                ? SegmentedPreloader.DEFAULT_MDAT_HEAD_BYTES : bitrateEstimate / 8;
+        bytes = Math.max(MIN_HEAD_BYTES, Math.min(MAX_HEAD_BYTES, bytes));
+        if (!unmetered) {
+            bytes = Math.min(MAX_METERED_HEAD_BYTES, bytes);
+        }
+        return (int) bytes;
+    }
+
+    public synchronized long getSessionBudgetBytes(boolean unmetered) {
+        return unmetered ? UNMETERED_SESSION_BYTES : METERED_SESSION_BYTES;
+    }
+
+    /**
+     * @param distance 与可见位置的距离
+     * @return 是否预加载这个条目
+     */
+    public synchronized boolean shouldPreload(int distance, boolean unmetered) {
+        boolean allowed = distance <= getLookAhead(unmetered) && allowsBackgroundLoading(unmetered);
+        if (allowed) {
+            allowedCount++;
+        } else {
+            deniedCount++;
+        }
+        return allowed;
+    }
+
+    /**
+     * 不加锁, 可以在加载线程上频繁调用
+     *
+     * @return 不是用户操作触发的加载(预加载, 预先 prepare)是否允许继续
+     */
+    public boolean allowsBackgroundLoading(boolean unmetered) {
+        return unmetered ? unmeteredBackgroundAllowed : meteredBackgroundAllowed;
+    }
+
+    public synchronized long getBitrateEstimate() {
+        return bitrateEstimate;
+    }
+
+    public synchronized long getLatencyEstimateMs() {
+        return latencyEstimateMs;
+    }
+
+    public synchronized long getSessionPreloadedBytes() {
+        return sessionPreloadedBytes;
+    }
+
+    public synchronized long getAllowedCount() {
+        return allowedCount;
+    }
+
+    public synchronized long getDeniedCount() {
+        return deniedCount;
+    }
+
+    // 需持有锁
+    private void updateBackgroundLoading() {
+        meteredBackgroundAllowed = computeBackgroundLoading(false);
+        unmeteredBackgroundAllowed = computeBackgroundLoading(true);
+    }
+
+    private boolean computeBackgroundLoading(boolean unmetered) {
+        return getLookAhead(unmetered) > 0 && sessionPreloadedBytes < getSessionBudgetBytes(unmetered);
+    }
+
+    public synchronized String describe(boolean unmetered) {
+        return "PreloadBudget{bitrate=" + bitrateEstimate
+                + ", latency=" + latencyEstimateMs + "ms"
+                + ", unmetered=" + unmetered
+                + ", lookAhead=" + getLookAhead(unmetered)
+                + ", headBytes=" + getHeadBytes(unmetered)
+                + ", session=" + sessionPreloadedBytes + "/" + getSessionBudgetBytes(unmetered)
+                + ", allowed=" + allowedCount
+                + ", denied=" + deniedCount + "}";
+    }
+}
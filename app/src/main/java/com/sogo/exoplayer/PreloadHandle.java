@@ -0,0 +1,67 @@
+package com.sogo.exoplayer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一次预加载的句柄.
+ * <p>
+ * 取消标记直接传给 CacheUtil.cache, 它每读一次检查一次, 取消后正在下载的数据很快停下并关闭连接.
+ * 同时记录计划下载和实际下载的字节数, 取消时两者的差就是省下的流量.
+ */
+public class PreloadHandle {
+    private final AtomicBoolean canceled = new AtomicBoolean();
+    private final AtomicLong plannedBytes = new AtomicLong();
+    private final AtomicLong downloadedBytes = new AtomicLong();
+
+    /**
+     * @return false: 已经取消过
+     */
+    public boolean cancel() {
+        return canceled.compareAndSet(false, true);
+    }
+
+    public boolean isCanceled() {
+        return canceled.get();
+    }
+
+    /**
+     * 传给 CacheUtil.cache 的取消标记
+     */
+    public AtomicBoolean getCancelFlag() {
+        return canceled;
+    }
+
+    /**
+     * @param bytes 这次预加载预计一共下载的字节数, 包括已经下载的
+     */
+    public void setPlannedBytes(long bytes) {
+        plannedBytes.set(bytes);
+    }
+
+    public void addDownloadedBytes(long bytes) {
+        downloadedBytes.addAndGet(bytes);
+    }
+
+    public long getPlannedBytes() {
+        return plannedBytes.get();
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes.get();
+    }
+
+    /**
+     * @return 因为取消没有下载的字节数, 没有取消时为 0
+     */
+    public long getSavedBytes() {
+        return isCanceled() ? Math.max(0, plannedBytes.get() - downloadedBytes.get()) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "PreloadHandle{canceled=" + canceled.get()
+                + ", planned=" + plannedBytes.get()
+                + ", downloaded=" + downloadedBytes.get() + "}";
+    }
+}
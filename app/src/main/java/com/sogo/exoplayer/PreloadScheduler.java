@@ -0,0 +1,363 @@
+package com.sogo.exoplayer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 预加载调度器: 固定数量的工作线程, 等待队列按照与当前可见位置的距离排序.
+ * <p>
+ * 同一个 url 只会有一个任务(排队中或执行中), 重复提交只更新它的位置, 执行中已经被取消的除外;
+ * 离开可见范围的任务会被取消, 执行中的通过 {@link PreloadHandle} 中断, 并统计省下的字节数.
+ */
+public class PreloadScheduler {
+    private static final String TAG = "PreloadScheduler";
+
+    /**
+     * 实际执行预加载的对象, 在工作线程中调用.
+     */
+    public interface Preloader {
+        /**
+         * @param handle 任务被取消时标记为取消, 实现需要尽快停止并记录下载的字节数
+         */
+        void preload(String videoUrl, PreloadHandle handle);
+    }
+
+    private static final class Job {
+        final String videoUrl;
+        final long sequence;
+        final PreloadHandle handle = new PreloadHandle();
+        int position;
+        boolean running = false;
+
+        Job(String videoUrl, int position, long sequence) {
+            this.videoUrl = videoUrl;
+            this.position = position;
+            this.sequence = sequence;
+        }
+    }
+
+    private final Object lock = new Object();
+    private final Preloader preloader;
+    private final int maxQueueSize;
+    private int maxDistance;
+    private final Thread[] workers;
+
+    // 排队中的任务
+    private final List<Job> pending = new ArrayList<>();
+    // 排队中 + 执行中的任务, 用于去重
+    private final Map<String, Job> jobs = new HashMap<>();
+
+    private int visiblePosition = 0;
+    private long nextSequence = 0;
+    private int inFlightCount = 0;
+    private long submittedCount = 0;
+    private long deduplicatedCount = 0;
+    private long cancelledCount = 0;
+    private long completedCount = 0;
+    private long cancelledInFlightCount = 0;
+    private long savedBytes = 0;
+    private long cancelledDownloadedBytes = 0;
+    private boolean shutdown = false;
+
+    /**
+     * @param workerCount  工作线程数
+     * @param maxQueueSize 等待队列的最大长度, 超出时丢弃离可见位置最远的任务
+     * @param maxDistance  与可见位置的最大距离, 超出的任务不再执行
+     * @param preloader    实际执行预加载的对象
+     */
+    public PreloadScheduler(int workerCount, int maxQueueSize, int maxDistance, Preloader preloader) {
+        this.preloader = preloader;
+        this.maxQueueSize = maxQueueSize;
+        this.maxDistance = maxDistance;
+        workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Thread(workLoop, TAG + "-" + i);
+            workers[i].setDaemon(true);
+            workers[i].setPriority(Thread.NORM_PRIORITY - 1);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * 提交一个预加载任务.
+     *
+     * @return true: 新加入队列; false: 重复提交或者超出范围
+     */
+    public boolean submit(int position, String videoUrl) {
+        synchronized (lock) {
+            if (shutdown) {
+                return false;
+            }
+            submittedCount++;
+            Job job = jobs.get(videoUrl);
+            // 执行中被取消的任务还没结束, 重新提交时另外排队
+            if (job != null && !(job.running && job.handle.isCanceled())) {
+                job.position = position;
+                deduplicatedCount++;
+                return false;
+            }
+            if (distance(position) > maxDistance) {
+                VLog.d(TAG, "submit[" + position + "]: too far from " + visiblePosition + ", skip " + videoUrl);
+                cancelledCount++;
+                return false;
+            }
+            job = new Job(videoUrl, position, nextSequence++);
+            pending.add(job);
+            jobs.put(videoUrl, job);
+            if (pending.size() > maxQueueSize) {
+                removePending(indexOfFarthest());
+            }
+            lock.notify();
+            return jobs.containsKey(videoUrl);
+        }
+    }
+
+    /**
+     * 取消任务, 排队中的直接移除, 执行中的标记取消.
+     */
+    public boolean cancel(String videoUrl) {
+        synchronized (lock) {
+            Job job = jobs.get(videoUrl);
+            if (job == null) {
+                return false;
+            }
+            if (job.running) {
+                return job.handle.cancel();
+            }
+            removePending(pending.indexOf(job));
+            return true;
+        }
+    }
+
+    /**
+     * 取消 videoUrl 以外的所有任务, 用户开始播放另一个视频时调用
+     *
+     * @return 取消的任务数
+     */
+    public int cancelOthers(String videoUrl) {
+        synchronized (lock) {
+            int count = 0;
+            for (int i = pending.size() - 1; i >= 0; i--) {
+                if (!pending.get(i).videoUrl.equals(videoUrl)) {
+                    removePending(i);
+                    count++;
+                }
+            }
+            for (Job job : jobs.values()) {
+                if (job.running && !job.videoUrl.equals(videoUrl) && job.handle.cancel()) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 可见位置变化, 重新排序并取消超出范围的任务.
+     */
+    public void setVisiblePosition(int position) {
+        synchronized (lock) {
+            visiblePosition = position;
+            for (int i = pending.size() - 1; i >= 0; i--) {
+                if (distance(pending.get(i).position) > maxDistance) {
+                    removePending(i);
+                }
+            }
+            for (Job job : jobs.values()) {
+                if (job.running && distance(job.position) > maxDistance) {
+                    job.handle.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * 修改与可见位置的最大距离, 在下一次 {@link #setVisiblePosition} 时生效
+     */
+    public void setMaxDistance(int maxDistance) {
+        synchronized (lock) {
+            this.maxDistance = maxDistance;
+        }
+    }
+
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            cancelledCount += pending.size();
+            for (Job job : pending) {
+                jobs.remove(job.videoUrl);
+            }
+            pending.clear();
+            for (Job job : jobs.values()) {
+                job.handle.cancel();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    public int getInFlightCount() {
+        synchronized (lock) {
+            return inFlightCount;
+        }
+    }
+
+    public long getSubmittedCount() {
+        synchronized (lock) {
+            return submittedCount;
+        }
+    }
+
+    public long getDeduplicatedCount() {
+        synchronized (lock) {
+            return deduplicatedCount;
+        }
+    }
+
+    public long getCancelledCount() {
+        synchronized (lock) {
+            return cancelledCount;
+        }
+    }
+
+    public long getCompletedCount() {
+        synchronized (lock) {
+            return completedCount;
+        }
+    }
+
+    /**
+     * @return 执行中被取消的任务数, 排队中取消的在 {@link #getCancelledCount()}
+     */
+    public long getCancelledInFlightCount() {
+        synchronized (lock) {
+            return cancelledInFlightCount;
+        }
+    }
+
+    /**
+     * @return 执行中的任务因为取消没有下载的字节数
+     */
+    public long getSavedBytes() {
+        synchronized (lock) {
+            return savedBytes;
+        }
+    }
+
+    /**
+     * @return 执行中的任务被取消前已经下载的字节数
+     */
+    public long getCancelledDownloadedBytes() {
+        synchronized (lock) {
+            return cancelledDownloadedBytes;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return "PreloadScheduler{visible=" + visiblePosition
+                    + ", queued=" + pending.size()
+                    + ", inFlight=" + inFlightCount
+                    + ", submitted=" + submittedCount
+                    + ", deduplicated=" + deduplicatedCount
+                    + ", cancelled=" + cancelledCount
+                    + ", completed=" + completedCount
+                    + ", cancelledInFlight=" + cancelledInFlightCount
+                    + ", saved=" + savedBytes
+                    + ", cancelledDownloaded=" + cancelledDownloadedBytes + "}";
+        }
+    }
+
+    private final Runnable workLoop = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                Job job;
+                synchronized (lock) {
+                    while (pending.isEmpty() && !shutdown) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (shutdown) {
+                        return;
+                    }
+                    job = pending.remove(indexOfNearest());
+                    job.running = true;
+                    inFlightCount++;
+                }
+
+                try {
+                    preloader.preload(job.videoUrl, job.handle);
+                } catch (RuntimeException e) {
+                    VLog.e(TAG, "preload failed: " + job.videoUrl, e);
+                } finally {
+                    synchronized (lock) {
+                        inFlightCount--;
+                        completedCount++;
+                        // 取消后重新提交的任务已经替换了这个
+                        if (jobs.get(job.videoUrl) == job) {
+                            jobs.remove(job.videoUrl);
+                        }
+                        if (job.handle.isCanceled()) {
+                            cancelledInFlightCount++;
+                            savedBytes += job.handle.getSavedBytes();
+                            cancelledDownloadedBytes += job.handle.getDownloadedBytes();
+                        }
+                    }
+                }
+            }
+        }
+    };
+
+    private int distance(int position) {
+        return Math.abs(position - visiblePosition);
+    }
+
+    // 以下方法需持有 lock
+
+    private void removePending(int index) {
+        Job job = pending.remove(index);
+        jobs.remove(job.videoUrl);
+        cancelledCount++;
+    }
+
+    private int indexOfNearest() {
+        int best = 0;
+        for (int i = 1; i < pending.size(); i++) {
+            if (compare(pending.get(i), pending.get(best)) < 0) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private int indexOfFarthest() {
+        int worst = 0;
+        for (int i = 1; i < pending.size(); i++) {
+            if (compare(pending.get(i), pending.get(worst)) > 0) {
+                worst = i;
+            }
+        }
+        return worst;
+    }
+
+    private int compare(Job a, Job b) {
+        int da = distance(a.position);
+        int db = distance(b.position);
+        if (da != db) {
+            return da < db ? -1 : 1;
+        }
+        return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+    }
+}
@@ -0,0 +1,149 @@
+package com.sogo.exoplayer;
+
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.source.MediaSource;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 提前 prepare 好的相邻条目(下一个, 上一个)的 player.
+ * <p>
+ * 预先 prepare 的 player 只缓冲到可以开始播放为止, 见 {@link LdDefaultLoadControl#setPrepareOnly}.
+ * 数量不超过 {@link #MAX_PREPARED}, 并且只在 {@link PlayerPool} 还有名额时才会创建,
+ * 所以同时存在的 player(和解码器)不会超过池子的容量. 只能在主线程使用.
+ */
+public class PreparedPlayers {
+    private static final String TAG = "PreparedPlayers";
+
+    /**
+     * 最多提前 prepare 几个条目
+     */
+    public static final int MAX_PREPARED = 2;
+
+    public interface MediaSourceFactory {
+        MediaSource createMediaSource(String videoUrl);
+
+        /**
+         * createMediaSource 创建的 MediaSource 被取出播放, 之后的加载不再算作提前 prepare
+         */
+        void onTaken(String videoUrl);
+
+        /**
+         * createMediaSource 创建的 MediaSource 没有播放就被丢弃, 用来结束它的统计
+         */
+        void onDiscarded(String videoUrl);
+    }
+
+    /**
+     * 一个已经 prepare 的 player
+     */
+    public static final class Prepared {
+        public final String videoUrl;
+        public final PlayerPool.PooledPlayer pooledPlayer;
+        public final MediaSource mediaSource;
+
+        Prepared(String videoUrl, PlayerPool.PooledPlayer pooledPlayer, MediaSource mediaSource) {
+            this.videoUrl = videoUrl;
+            this.pooledPlayer = pooledPlayer;
+            this.mediaSource = mediaSource;
+        }
+    }
+
+    private final PlayerPool playerPool;
+    private final MediaSourceFactory mediaSourceFactory;
+    private final Map<String, Prepared> prepared = new LinkedHashMap<>();
+    private int hitCount = 0;
+    private int missCount = 0;
+
+    public PreparedPlayers(PlayerPool playerPool, MediaSourceFactory mediaSourceFactory) {
+        this.playerPool = playerPool;
+        this.mediaSourceFactory = mediaSourceFactory;
+    }
+
+    /**
+     * 提前 prepare 一个条目, 已经 prepare 过或者没有名额时什么都不做.
+     *
+     * @return 是否已经 prepare
+     */
+    public boolean prepare(String videoUrl) {
+        if (prepared.containsKey(videoUrl)) {
+            return true;
+        }
+        if (prepared.size() >= MAX_PREPARED) {
+            return false;
+        }
+        PlayerPool.PooledPlayer pooledPlayer = playerPool.tryAcquire(false);
+        if (pooledPlayer == null) {
+            VLog.d(TAG, "prepare: pool exhausted, " + playerPool);
+            return false;
+        }
+        pooledPlayer.getLoadControl().setPrepareOnly(true);
+        SimpleExoPlayer player = pooledPlayer.getPlayer();
+        player.setPlayWhenReady(false);
+        MediaSource mediaSource = mediaSourceFactory.createMediaSource(videoUrl);
+        player.prepare(mediaSource);
+        prepared.put(videoUrl, new Prepared(videoUrl, pooledPlayer, mediaSource));
+        VLog.d(TAG, "prepare: " + videoUrl + ", prepared:" + prepared.size());
+        return true;
+    }
+
+    /**
+     * 取出已经 prepare 的 player, 调用方负责在用完后还给 {@link PlayerPool}.
+     *
+     * @return 没有 prepare 过时返回 null
+     */
+    public Prepared take(String videoUrl) {
+        Prepared p = prepared.remove(videoUrl);
+        if (p == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        p.pooledPlayer.getLoadControl().setPrepareOnly(false);
+        mediaSourceFactory.onTaken(videoUrl);
+        VLog.d(TAG, "take: " + videoUrl + ", hit:" + hitCount + ", miss:" + missCount);
+        return p;
+    }
+
+    /**
+     * 只保留 videoUrls 中的条目, 其他的还给池子
+     */
+    public void retain(Collection<String> videoUrls) {
+        List<String> removed = new ArrayList<>();
+        for (String url : prepared.keySet()) {
+            if (!videoUrls.contains(url)) {
+                removed.add(url);
+            }
+        }
+        for (String url : removed) {
+            Prepared p = prepared.remove(url);
+            p.pooledPlayer.getLoadControl().setPrepareOnly(false);
+            playerPool.recycle(p.pooledPlayer);
+            mediaSourceFactory.onDiscarded(url);
+        }
+    }
+
+    public void releaseAll() {
+        retain(new ArrayList<String>());
+    }
+
+    public boolean isPrepared(String videoUrl) {
+        return prepared.containsKey(videoUrl);
+    }
+
+    public int size() {
+        return prepared.size();
+    }
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public int getMissCount() {
+        return missCount;
+    }
+}
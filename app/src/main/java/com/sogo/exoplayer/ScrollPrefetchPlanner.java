@@ -0,0 +1,159 @@
+package com.sogo.exoplayer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 根据列表滑动的速度和方向决定预加载哪些条目.
+ * <p>
+ * 之前只在 bindData / onViewAttachedToWindow 时预加载, 快速滑动会预加载经过的每一行,
+ * 慢慢浏览时又预加载得不够远. 这里按速度分三种情况:
+ * <ul>
+ * <li>惯性滑动: 根据预计停下的位置, 跳过中间会快速滑过的行, 预加载停下时可见的行和之后的几行,
+ * 并提前 prepare 停下的那一行</li>
+ * <li>慢速浏览或静止: 沿滑动方向多预加载一行</li>
+ * <li>其他: 沿滑动方向预加载 lookAhead 行</li>
+ * </ul>
+ * 位置和速度都以行为单位, 由调用方根据行高换算.
+ */
+public class ScrollPrefetchPlanner {
+    public static final int NO_POSITION = -1;
+
+    /**
+     * 每秒超过这么多行, 并且预计还会滑过至少一行, 认为是惯性滑动
+     */
+    public static final float DEFAULT_FLING_ROWS_PER_SECOND = 6f;
+    /**
+     * 每秒低于这么多行认为是在慢慢浏览
+     */
+    public static final float DEFAULT_READ_ROWS_PER_SECOND = 1.5f;
+
+    public static final class Plan {
+        /**
+         * 预加载队列按与这个位置的距离排序: 惯性滑动时是停下的位置, 否则是第一个可见的位置
+         */
+        public final int anchor;
+        /**
+         * 预计停下的位置, 不是惯性滑动时为 {@link #NO_POSITION}
+         */
+        public final int settlePosition;
+        /**
+         * 需要预加载的位置, 靠前的优先
+         */
+        public final List<Integer> preloadPositions;
+        /**
+         * 需要提前 prepare 的位置, 没有时为 {@link #NO_POSITION}
+         */
+        public final int preparePosition;
+        // [skipFrom, skipTo) 会快速滑过
+        final int skipFrom;
+        final int skipTo;
+
+        Plan(int anchor, int settlePosition, List<Integer> preloadPositions, int preparePosition,
+             int skipFrom, int skipTo) {
+            this.anchor = anchor;
+            this.settlePosition = settlePosition;
+            this.preloadPositions = Collections.unmodifiableList(preloadPositions);
+            this.preparePosition = preparePosition;
+            this.skipFrom = skipFrom;
+            this.skipTo = skipTo;
+        }
+
+        public boolean isFling() {
+            return settlePosition != NO_POSITION;
+        }
+
+        /**
+         * @return position 这一行是否会快速滑过, 不需要预加载
+         */
+        public boolean skips(int position) {
+            return position >= skipFrom && position < skipTo;
+        }
+
+        @Override
+        public String toString() {
+            return "Plan{anchor=" + anchor
+                    + (isFling() ? ", settle=" + settlePosition : "")
+                    + (skipFrom < skipTo ? ", skip=[" + skipFrom + ", " + skipTo + ")" : "")
+                    + ", preload=" + preloadPositions
+                    + (preparePosition != NO_POSITION ? ", prepare=" + preparePosition : "") + "}";
+        }
+    }
+
+    private final float flingRowsPerSecond;
+    private final float readRowsPerSecond;
+
+    public ScrollPrefetchPlanner() {
+        this(DEFAULT_FLING_ROWS_PER_SECOND, DEFAULT_READ_ROWS_PER_SECOND);
+    }
+
+    public ScrollPrefetchPlanner(float flingRowsPerSecond, float readRowsPerSecond) {
+        this.flingRowsPerSecond = flingRowsPerSecond;
+        this.readRowsPerSecond = readRowsPerSecond;
+    }
+
+    /**
+     * @param firstVisible   第一个可见的位置
+     * @param visibleCount   可见的行数, 至少为 1
+     * @param rowsPerSecond  滑动速度, 正数表示向列表末尾滑动
+     * @param remainingRows  惯性滑动预计还会滑过的行数(与速度同号), 没有惯性滑动时为 0
+     * @param itemCount      条目总数
+     * @param lookAhead      可见范围之外预加载的行数, 来自 {@link PreloadBudget#getLookAhead}
+     */
+    public Plan plan(int firstVisible, int visibleCount, float rowsPerSecond, float remainingRows,
+                     int itemCount, int lookAhead) {
+        visibleCount = Math.max(1, visibleCount);
+        int direction = rowsPerSecond < 0 ? -1 : 1;
+        float speed = Math.abs(rowsPerSecond);
+        List<Integer> positions = new ArrayList<>(visibleCount + lookAhead + 1);
+
+        if (speed >= flingRowsPerSecond && Math.abs(remainingRows) >= 1) {
+            int lastStart = Math.max(0, itemCount - visibleCount);
+            int settle = clamp(firstVisible + Math.round(remainingRows), 0, lastStart);
+            int skipFrom;
+            int skipTo;
+            if (direction > 0) {
+                skipFrom = firstVisible + visibleCount;
+                skipTo = settle;
+            } else {
+                skipFrom = settle + visibleCount;
+                skipTo = firstVisible;
+            }
+            if (lookAhead > 0) {
+                addWindow(positions, settle, visibleCount, direction, lookAhead, itemCount);
+            }
+            return new Plan(settle, settle, positions, settle, skipFrom, skipTo);
+        }
+
+        int ahead = speed <= readRowsPerSecond ? lookAhead + 1 : lookAhead;
+        if (lookAhead > 0) {
+            addWindow(positions, firstVisible, visibleCount, direction, ahead, itemCount);
+        }
+        return new Plan(firstVisible, NO_POSITION, positions, NO_POSITION, 0, 0);
+    }
+
+    /**
+     * 从 start 开始的可见行, 然后沿 direction 再加 ahead 行
+     */
+    private static void addWindow(List<Integer> positions, int start, int visibleCount, int direction,
+                                  int ahead, int itemCount) {
+        for (int i = 0; i < visibleCount; i++) {
+            add(positions, start + i, itemCount);
+        }
+        int edge = direction > 0 ? start + visibleCount : start - 1;
+        for (int i = 0; i < ahead; i++) {
+            add(positions, edge + direction * i, itemCount);
+        }
+    }
+
+    private static void add(List<Integer> positions, int position, int itemCount) {
+        if (position >= 0 && position < itemCount && !positions.contains(position)) {
+            positions.add(position);
+        }
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
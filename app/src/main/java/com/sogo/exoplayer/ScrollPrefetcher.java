@@ -0,0 +1,149 @@
+package com.sogo.exoplayer;
+
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.widget.OverScroller;
+
+/**
+ * 把 {@link ScrollPrefetchPlanner} 接到列表上.
+ * <p>
+ * 滑动速度来自 onScrolled 的位移(平滑后), 惯性滑动的距离用和 RecyclerView 相同的 {@link OverScroller}
+ * 按 fling 的初速度预测. 第一个可见位置变化、开始拖动、惯性滑动和停下时重新计划, 交给 {@link PlayerManager}.
+ */
+public class ScrollPrefetcher extends RecyclerView.OnScrollListener {
+    private static final String TAG = "ScrollPrefetcher";
+
+    // 速度平滑系数, 越大越接近最近一次的速度
+    private static final float VELOCITY_SMOOTHING = 0.3f;
+
+    /**
+     * 位置对应的视频地址, 还没有 bind 的条目也需要
+     */
+    public interface UrlSource {
+        String getUrl(int position);
+    }
+
+    private final LinearLayoutManager layoutManager;
+    private final UrlSource urls;
+    private final OverScroller scroller;
+    private final ScrollPrefetchPlanner planner = new ScrollPrefetchPlanner();
+
+    private float rowsPerSecond = 0;
+    private long lastScrollNs = 0;
+    private int lastFirst = RecyclerView.NO_POSITION;
+    // 惯性滑动期间保持不变, 停下或者重新拖动时清除
+    private ScrollPrefetchPlanner.Plan flingPlan = null;
+
+    /**
+     * RecyclerView 只有一个 OnFlingListener, 这里替换掉原来的, 并把 fling 转给它.
+     * SnapHelper 在已经有 OnFlingListener 时会抛出异常, 需要先 attachToRecyclerView 再调用这里.
+     */
+    public static ScrollPrefetcher attach(RecyclerView recyclerView, LinearLayoutManager layoutManager,
+                                          UrlSource urls) {
+        final ScrollPrefetcher prefetcher = new ScrollPrefetcher(recyclerView, layoutManager, urls);
+        final RecyclerView.OnFlingListener previous = recyclerView.getOnFlingListener();
+        recyclerView.addOnScrollListener(prefetcher);
+        recyclerView.setOnFlingListener(new RecyclerView.OnFlingListener() {
+            @Override
+            public boolean onFling(int velocityX, int velocityY) {
+                prefetcher.onFlingStarted(velocityY);
+                // 没有原来的 listener 时仍然由 RecyclerView 自己滑动
+                return previous != null && previous.onFling(velocityX, velocityY);
+            }
+        });
+        return prefetcher;
+    }
+
+    private ScrollPrefetcher(RecyclerView recyclerView, LinearLayoutManager layoutManager, UrlSource urls) {
+        this.layoutManager = layoutManager;
+        this.urls = urls;
+        scroller = new OverScroller(recyclerView.getContext());
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            rowsPerSecond = 0;
+            lastScrollNs = 0;
+            flingPlan = null;
+            replan();
+        } else if (newState == RecyclerView.SCROLL_STATE_DRAGGING && flingPlan != null) {
+            // 惯性滑动被手指停住
+            flingPlan = null;
+            replan();
+        }
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        float rowHeight = getRowHeight();
+        long now = System.nanoTime();
+        if (lastScrollNs != 0 && rowHeight > 0 && now > lastScrollNs) {
+            float instant = dy / rowHeight / ((now - lastScrollNs) / 1e9f);
+            rowsPerSecond += VELOCITY_SMOOTHING * (instant - rowsPerSecond);
+        }
+        lastScrollNs = now;
+
+        int first = layoutManager.findFirstVisibleItemPosition();
+        if (first != RecyclerView.NO_POSITION && first != lastFirst) {
+            lastFirst = first;
+            if (flingPlan == null) {
+                replan();
+            }
+        }
+    }
+
+    private void onFlingStarted(int velocityY) {
+        float rowHeight = getRowHeight();
+        int first = layoutManager.findFirstVisibleItemPosition();
+        if (rowHeight <= 0 || first == RecyclerView.NO_POSITION) {
+            return;
+        }
+        scroller.fling(0, 0, 0, velocityY, 0, 0, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        int distance = scroller.getFinalY();
+        scroller.abortAnimation();
+        rowsPerSecond = velocityY / rowHeight;
+        ScrollPrefetchPlanner.Plan plan = planner.plan(first, getVisibleCount(first), rowsPerSecond,
+                distance / rowHeight, layoutManager.getItemCount(), getLookAhead());
+        if (plan.isFling()) {
+            flingPlan = plan;
+            PlayerManager.getInstance().applyScrollPlan(plan, urls);
+        }
+    }
+
+    private void replan() {
+        int first = layoutManager.findFirstVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) {
+            return;
+        }
+        lastFirst = first;
+        ScrollPrefetchPlanner.Plan plan = planner.plan(first, getVisibleCount(first), rowsPerSecond, 0,
+                layoutManager.getItemCount(), getLookAhead());
+        PlayerManager.getInstance().applyScrollPlan(plan, urls);
+    }
+
+    private int getVisibleCount(int first) {
+        int last = layoutManager.findLastVisibleItemPosition();
+        return last == RecyclerView.NO_POSITION ? 1 : last - first + 1;
+    }
+
+    // 可见条目的平均高度
+    private float getRowHeight() {
+        int count = layoutManager.getChildCount();
+        if (count == 0) {
+            return 0;
+        }
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            View child = layoutManager.getChildAt(i);
+            total += child.getHeight();
+        }
+        return (float) total / count;
+    }
+
+    private int getLookAhead() {
+        return PlayerManager.getInstance().getPlayer(null).getPreloadBudget()
+                .getLookAhead(NetworkStateMonitor.getInstance().isUnmetered());
+    }
+}
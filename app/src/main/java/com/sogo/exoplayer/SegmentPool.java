@@ -0,0 +1,144 @@
+package com.sogo.exoplayer;
+
+/**
+ * 所有 player 共用的缓冲区池, 每块大小相同(默认 64KB, 同 C.DEFAULT_BUFFER_SEGMENT_SIZE).
+ * <p>
+ * 之前每个 {@link LdDefaultLoadControl} 有自己的 DefaultAllocator, player 释放时缓冲区全部丢掉,
+ * 每次切换视频都要重新分配几十 MB. 现在归还的缓冲区留在池子里给下一个 player 用,
+ * 空闲的最多保留 maxFreeBytes, 内存紧张时由 {@link #trim} 释放.
+ * 使用中的总量超过 maxBytes 时 {@link #isOverBudget()} 返回 true, 由 load control 停止非必须的加载.
+ */
+public class SegmentPool {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    public static final long DEFAULT_MAX_BYTES = 48L * 1024 * 1024;
+    public static final long DEFAULT_MAX_FREE_BYTES = 16L * 1024 * 1024;
+
+    private static SegmentPool instance = new SegmentPool(DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_BYTES,
+            DEFAULT_MAX_FREE_BYTES);
+
+    public static SegmentPool getInstance() {
+        return instance;
+    }
+
+    private final int segmentSize;
+    private final long maxBytes;
+    private final int maxFreeCount;
+
+    private byte[][] free;
+    private int freeCount = 0;
+    private int inUseCount = 0;
+    private int peakInUseCount = 0;
+
+    private long obtainCount = 0;
+    private long reuseCount = 0;
+    private long trimmedCount = 0;
+
+    public SegmentPool(int segmentSize, long maxBytes, long maxFreeBytes) {
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        maxFreeCount = (int) (maxFreeBytes / segmentSize);
+        free = new byte[Math.min(maxFreeCount, 16)][];
+    }
+
+    /**
+     * 取一块缓冲区, 池子空时新建. 不会因为超过 maxBytes 而失败
+     */
+    public synchronized byte[] obtain() {
+        obtainCount++;
+        inUseCount++;
+        peakInUseCount = Math.max(peakInUseCount, inUseCount);
+        if (freeCount > 0) {
+            reuseCount++;
+            byte[] segment = free[--freeCount];
+            free[freeCount] = null;
+            return segment;
+        }
+        return new byte[segmentSize];
+    }
+
+    public synchronized void recycle(byte[] segment) {
+        inUseCount--;
+        if (freeCount >= maxFreeCount) {
+            trimmedCount++;
+            return;
+        }
+        if (freeCount == free.length) {
+            byte[][] grown = new byte[Math.min(maxFreeCount, free.length * 2)][];
+            System.arraycopy(free, 0, grown, 0, freeCount);
+            free = grown;
+        }
+        free[freeCount++] = segment;
+    }
+
+    /**
+     * 释放空闲的缓冲区, 最多保留 keepFreeBytes
+     *
+     * @return 释放的块数
+     */
+    public synchronized int trim(long keepFreeBytes) {
+        int keep = (int) Math.min(freeCount, keepFreeBytes / segmentSize);
+        int trimmed = freeCount - keep;
+        for (int i = keep; i < freeCount; i++) {
+            free[i] = null;
+        }
+        freeCount = keep;
+        trimmedCount += trimmed;
+        return trimmed;
+    }
+
+    /**
+     * @return 使用中的缓冲区是否已经达到总的上限
+     */
+    public synchronized boolean isOverBudget() {
+        return (long) inUseCount * segmentSize >= maxBytes;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getMaxFreeBytes() {
+        return (long) maxFreeCount * segmentSize;
+    }
+
+    public synchronized long getInUseBytes() {
+        return (long) inUseCount * segmentSize;
+    }
+
+    public synchronized long getPeakInUseBytes() {
+        return (long) peakInUseCount * segmentSize;
+    }
+
+    public synchronized long getFreeBytes() {
+        return (long) freeCount * segmentSize;
+    }
+
+    public synchronized long getObtainCount() {
+        return obtainCount;
+    }
+
+    /**
+     * @return 从池子里取到的次数, 其余的是新分配的
+     */
+    public synchronized long getReuseCount() {
+        return reuseCount;
+    }
+
+    public synchronized long getTrimmedCount() {
+        return trimmedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SegmentPool{inUse=" + getInUseBytes() + "/" + maxBytes
+                + ", peak=" + getPeakInUseBytes()
+                + ", free=" + getFreeBytes() + "/" + getMaxFreeBytes()
+                + ", obtained=" + obtainCount
+                + ", reused=" + reuseCount
+                + ", trimmed=" + trimmedCount + "}";
+    }
+}
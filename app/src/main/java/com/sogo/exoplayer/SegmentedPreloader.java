@@ -0,0 +1,370 @@
+package com.sogo.exoplayer;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSink;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.FileDataSource;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheSpan;
+import com.google.android.exoplayer2.upstream.cache.CacheUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+
+/**
+ * 按容器结构预加载视频开头.
+ * <p>
+ * mp4 会先探测顶层 box, 预加载 ftyp + moov + mdat 开头到第一个视频关键帧为止
+ * (moov 在文件末尾时单独加载 moov). 每段只请求 {@link Cache#getCachedSpans} 中缺失的部分,
+ * 中断后再次预加载会从断点继续. 非 mp4 退回到固定长度的开头.
+ * 通过 {@link PreloadHandle} 取消, 取消时抛出 InterruptedException.
+ */
+public class SegmentedPreloader {
+    private static final String TAG = "SegmentedPreloader";
+
+    /**
+     * 非 mp4 或解析失败时预加载的长度
+     */
+    public static final int DEFAULT_HEAD_BYTES = 512 * 1024;
+
+    /**
+     * mdat 开始后至少预加载的长度
+     */
+    public static final int DEFAULT_MDAT_HEAD_BYTES = 256 * 1024;
+
+    // 第一次请求的长度, 一般足够包含 ftyp 和 moov 前置时的 moov 头
+    private static final int PROBE_BYTES = 32 * 1024;
+    private static final int MAX_MOOV_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_TOP_LEVEL_BOXES = 16;
+
+    /**
+     * 最多记住多少个文件的结构, 超出时按 LRU 淘汰
+     */
+    public static final int DEFAULT_MAX_LAYOUTS = 256;
+
+    /**
+     * 预加载的一段数据, length 可以是 {@link C#LENGTH_UNSET}, 表示到文件末尾
+     */
+    static final class Range {
+        final long position;
+        final long length;
+
+        Range(long position, long length) {
+            this.position = position;
+            this.length = length;
+        }
+
+        long end() {
+            return length == C.LENGTH_UNSET ? Long.MAX_VALUE : position + length;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + position + ", " + (length == C.LENGTH_UNSET ? "end" : String.valueOf(end())) + ")";
+        }
+    }
+
+    /**
+     * 探测得到的文件结构
+     */
+    static final class Layout {
+        // mdat 内容开始的位置, 非 mp4 时为 C.POSITION_UNSET
+        final long mdatPosition;
+        // 第一个视频关键帧结束的位置, 未知时为 C.POSITION_UNSET
+        final long firstSampleEnd;
+        // 在文件末尾的 moov, 没有时为 null
+        final Range trailingMoov;
+
+        Layout(long mdatPosition, long firstSampleEnd, Range trailingMoov) {
+            this.mdatPosition = mdatPosition;
+            this.firstSampleEnd = firstSampleEnd;
+            this.trailingMoov = trailingMoov;
+        }
+
+        List<Range> getRanges(int mdatHeadBytes) {
+            List<Range> ranges = new ArrayList<>(2);
+            if (mdatPosition == C.POSITION_UNSET) {
+                ranges.add(new Range(0, (long) mdatHeadBytes * DEFAULT_HEAD_BYTES / DEFAULT_MDAT_HEAD_BYTES));
+                return ranges;
+            }
+            ranges.add(new Range(0, Math.max(mdatPosition + mdatHeadBytes, firstSampleEnd)));
+            if (trailingMoov != null) {
+                ranges.add(trailingMoov);
+            }
+            return ranges;
+        }
+    }
+
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final Layout UNKNOWN_LAYOUT = new Layout(C.POSITION_UNSET, C.POSITION_UNSET, null);
+
+    private final Cache cache;
+    private final DataSource.Factory upstreamFactory;
+    // 写缓存用的 sink, 为 null 时使用 CacheUtil 默认的 CacheDataSink
+    @Nullable
+    private final DataSink.Factory cacheSinkFactory;
+
+    // 已经探测过的文件, 再次预加载时直接使用, 需持有自身的锁
+    private final LinkedHashMap<String, Layout> layouts;
+
+    public SegmentedPreloader(Cache cache, DataSource.Factory upstreamFactory) {
+        this(cache, upstreamFactory, DEFAULT_MAX_LAYOUTS);
+    }
+
+    public SegmentedPreloader(Cache cache, DataSource.Factory upstreamFactory, int maxLayouts) {
+        this(cache, upstreamFactory, null, maxLayouts);
+    }
+
+    /**
+     * @param cacheSinkFactory 写缓存用的 sink, 比如 {@link InFlightDataSink}
+     */
+    public SegmentedPreloader(Cache cache, DataSource.Factory upstreamFactory,
+                              @Nullable DataSink.Factory cacheSinkFactory, final int maxLayouts) {
+        this.cache = cache;
+        this.upstreamFactory = upstreamFactory;
+        this.cacheSinkFactory = cacheSinkFactory;
+        layouts = new LinkedHashMap<String, Layout>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Layout> eldest) {
+                return size() > maxLayouts;
+            }
+        };
+    }
+
+    /**
+     * 预加载, 在工作线程调用.
+     *
+     * @param uri           视频地址
+     * @param key           缓存 key, 为 null 时使用 {@link CacheUtil#generateKey(Uri)}
+     * @param mdatHeadBytes mdat 开始后至少预加载的长度, 非 mp4 按比例换算成开头的长度
+     * @param handle        不为 null 时可以用来中断预加载, 同时记录计划和实际下载的字节数
+     * @return 本次新下载的字节数
+     */
+    public long preload(Uri uri, @Nullable String key, int mdatHeadBytes, @Nullable PreloadHandle handle)
+            throws IOException, InterruptedException {
+        if (key == null) {
+            key = CacheUtil.generateKey(uri);
+        }
+        CacheUtil.CachingCounters counters = new CacheUtil.CachingCounters();
+        Layout layout = getLayout(key);
+        if (layout == null) {
+            if (handle != null) {
+                // 探测之前只能估计
+                handle.setPlannedBytes(PROBE_BYTES + mdatHeadBytes);
+            }
+            layout = probe(uri, key, counters, handle);
+            putLayout(key, layout);
+        }
+        List<Range> plan = layout.getRanges(mdatHeadBytes);
+        if (handle != null) {
+            handle.setPlannedBytes(counters.newlyCachedBytes + getMissingBytes(key, plan));
+        }
+        for (Range range : plan) {
+            cacheRange(uri, key, range, counters, handle);
+        }
+        VLog.d(TAG, "preload: " + uri + " plan:" + plan + ", newly cached:" + counters.newlyCachedBytes);
+        return counters.newlyCachedBytes;
+    }
+
+    /**
+     * @return 已经探测过的 key 的结构, 没有时返回 null
+     */
+    Layout getLayout(String key) {
+        synchronized (layouts) {
+            return layouts.get(key);
+        }
+    }
+
+    void putLayout(String key, Layout layout) {
+        synchronized (layouts) {
+            layouts.put(key, layout);
+        }
+    }
+
+    int getLayoutCount() {
+        synchronized (layouts) {
+            return layouts.size();
+        }
+    }
+
+    /**
+     * @return key 在 range 范围内还没有缓存的部分
+     */
+    List<Range> getMissingRanges(String key, Range range) {
+        List<Range> missing = new ArrayList<>();
+        long position = range.position;
+        long end = range.end();
+        NavigableSet<CacheSpan> spans = cache.getCachedSpans(key);
+        for (CacheSpan span : spans) {
+            if (!span.isCached || span.position + span.length <= position) {
+                continue;
+            }
+            if (span.position >= end) {
+                break;
+            }
+            if (span.position > position) {
+                missing.add(new Range(position, span.position - position));
+            }
+            position = span.position + span.length;
+            if (position >= end) {
+                return missing;
+            }
+        }
+        missing.add(new Range(position, range.length == C.LENGTH_UNSET ? C.LENGTH_UNSET : end - position));
+        return missing;
+    }
+
+    /**
+     * @return plan 中还没有缓存的字节数, 不含长度未知的部分
+     */
+    long getMissingBytes(String key, List<Range> plan) {
+        long missing = 0;
+        for (Range range : plan) {
+            for (Range gap : getMissingRanges(key, range)) {
+                if (gap.length != C.LENGTH_UNSET) {
+                    missing += gap.length;
+                }
+            }
+        }
+        return missing;
+    }
+
+    private void cacheRange(Uri uri, String key, Range range, CacheUtil.CachingCounters counters,
+                            @Nullable PreloadHandle handle) throws IOException, InterruptedException {
+        for (Range gap : getMissingRanges(key, range)) {
+            if (handle != null && handle.isCanceled()) {
+                throw new InterruptedException();
+            }
+            DataSpec dataSpec = new DataSpec(uri, gap.position, gap.length, key);
+            CacheUtil.CachingCounters gapCounters = new CacheUtil.CachingCounters();
+            try {
+                // 每次读取之后检查取消标记
+                if (cacheSinkFactory == null) {
+                    CacheUtil.cache(dataSpec, cache, upstreamFactory.createDataSource(), gapCounters,
+                            handle == null ? null : handle.getCancelFlag());
+                } else {
+                    CacheDataSource dataSource = new CacheDataSource(cache, upstreamFactory.createDataSource(),
+                            new FileDataSource(), cacheSinkFactory.createDataSink(), 0, null);
+                    CacheUtil.cache(dataSpec, cache, dataSource, new byte[CacheUtil.DEFAULT_BUFFER_SIZE_BYTES],
+                            null, 0, gapCounters, handle == null ? null : handle.getCancelFlag(), false);
+                }
+            } finally {
+                counters.newlyCachedBytes += gapCounters.newlyCachedBytes;
+                if (handle != null) {
+                    handle.addDownloadedBytes(gapCounters.newlyCachedBytes);
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取顶层 box, 得到需要预加载的几段数据.
+     */
+    private Layout probe(Uri uri, String key, CacheUtil.CachingCounters counters,
+                         @Nullable PreloadHandle handle) throws IOException, InterruptedException {
+        cacheRange(uri, key, new Range(0, PROBE_BYTES), counters, handle);
+
+        byte[] header = new byte[Mp4Boxes.LARGE_HEADER_SIZE];
+        long offset = 0;
+        long moovPosition = C.POSITION_UNSET;
+        long moovSize = C.LENGTH_UNSET;
+        long mdatPosition = C.POSITION_UNSET;
+        // 文件长度, 缓存记录过或者读到末尾时才知道
+        long contentLength = cache.getContentLength(key);
+        for (int i = 0; i < MAX_TOP_LEVEL_BOXES; i++) {
+            if (contentLength != C.LENGTH_UNSET && offset >= contentLength) {
+                break;
+            }
+            int read;
+            try {
+                read = read(uri, key, offset, header, header.length);
+            } catch (HttpDataSource.InvalidResponseCodeException e) {
+                // 416: 请求的位置在文件末尾之后, 其它错误交给调用方, 不记录结构
+                if (e.responseCode != HTTP_RANGE_NOT_SATISFIABLE) {
+                    throw e;
+                }
+                VLog.d(TAG, "probe: stop at " + offset + ", " + e);
+                break;
+            }
+            if (read < header.length) {
+                // 读到 C.RESULT_END_OF_INPUT
+                contentLength = offset + read;
+            }
+            if (read < Mp4Boxes.HEADER_SIZE) {
+                break;
+            }
+            long size = Mp4Boxes.readUnsignedInt(header, 0);
+            int type = Mp4Boxes.readInt(header, 4);
+            int headerSize = Mp4Boxes.HEADER_SIZE;
+            if (size == 1) {
+                if (read < Mp4Boxes.LARGE_HEADER_SIZE) {
+                    break;
+                }
+                size = Mp4Boxes.readLong(header, 8);
+                headerSize = Mp4Boxes.LARGE_HEADER_SIZE;
+            } else if (size == 0) {
+                // box 一直到文件末尾
+                size = C.LENGTH_UNSET;
+            }
+            if (i == 0 && type != Mp4Boxes.TYPE_FTYP) {
+                VLog.d(TAG, "probe: not mp4, " + uri);
+                return UNKNOWN_LAYOUT;
+            }
+
+            if (type == Mp4Boxes.TYPE_MOOV) {
+                moovPosition = offset;
+                moovSize = size;
+            } else if (type == Mp4Boxes.TYPE_MDAT) {
+                mdatPosition = offset + headerSize;
+            }
+            if ((moovPosition != C.POSITION_UNSET && mdatPosition != C.POSITION_UNSET)
+                    || size == C.LENGTH_UNSET || size < headerSize) {
+                break;
+            }
+            offset += size;
+        }
+
+        if (moovPosition == C.POSITION_UNSET || mdatPosition == C.POSITION_UNSET
+                || moovSize == C.LENGTH_UNSET || moovSize > MAX_MOOV_BYTES) {
+            VLog.d(TAG, "probe: moov:" + moovPosition + "/" + moovSize + ", mdat:" + mdatPosition);
+            return UNKNOWN_LAYOUT;
+        }
+
+        // moov 完整缓存后解析第一个视频关键帧的位置
+        Range moov = new Range(moovPosition, moovSize);
+        cacheRange(uri, key, moov, counters, handle);
+        byte[] moovData = new byte[(int) moovSize];
+        int moovRead = read(uri, key, moovPosition, moovData, moovData.length);
+        long firstSampleEnd = Mp4Boxes.findFirstVideoSampleEnd(moovData, moovRead);
+        return new Layout(mdatPosition, firstSampleEnd > 0 ? firstSampleEnd : C.POSITION_UNSET,
+                moovPosition > mdatPosition ? moov : null);
+    }
+
+    private int read(Uri uri, String key, long position, byte[] buffer, int length) throws IOException {
+        DataSource dataSource = new CacheDataSource(cache, upstreamFactory.createDataSource());
+        try {
+            dataSource.open(new DataSpec(uri, position, length, key));
+            int total = 0;
+            while (total < length) {
+                int read = dataSource.read(buffer, total, length - total);
+                if (read == C.RESULT_END_OF_INPUT) {
+                    break;
+                }
+                total += read;
+            }
+            return total;
+        } finally {
+            dataSource.close();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.sogo.exoplayer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dns;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * 播放和预加载共用的 {@link OkHttpClient}.
+ * <p>
+ * 之前每个请求都是一个新的 HttpURLConnection, 同时预加载几个条目时会重复 TCP/TLS 握手.
+ * 这里共用一个连接池并保持连接, https 时可以协商 HTTP/2 在一个连接上复用;
+ * DNS 结果缓存 dnsTtlMs; 同一个 host 同时进行的请求不超过 maxRequestsPerHost.
+ * OkHttp 的 Dispatcher 只限制异步请求, ExoPlayer 用的是同步请求, 所以用拦截器限制,
+ * 响应的数据关闭时才释放名额. 等待超过 {@link #PERMIT_TIMEOUT_MS} 后抛出 InterruptedIOException,
+ * 暂停的 player 占着连接时其他请求不会一直等下去, 也不会超出限制; ExoPlayer 会重试失败的加载.
+ */
+public class UpstreamClient {
+    private static final String TAG = "UpstreamClient";
+
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 8;
+    public static final long DEFAULT_KEEP_ALIVE_MS = 5 * 60 * 1000;
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 6;
+    public static final long DEFAULT_DNS_TTL_MS = 10 * 60 * 1000;
+    static final long PERMIT_TIMEOUT_MS = 2000;
+
+    private static final long CONNECT_TIMEOUT_MS = 8000;
+    private static final long READ_TIMEOUT_MS = 8000;
+
+    /**
+     * 按 host 缓存 DNS 结果
+     */
+    public static final class CachingDns implements Dns {
+        private static final class Entry {
+            final List<InetAddress> addresses;
+            final long expiresAt;
+
+            Entry(List<InetAddress> addresses, long expiresAt) {
+                this.addresses = addresses;
+                this.expiresAt = expiresAt;
+            }
+        }
+
+        private final Dns delegate;
+        private final long ttlMs;
+        private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+        private final AtomicLong lookupCount = new AtomicLong();
+        private final AtomicLong hitCount = new AtomicLong();
+
+        public CachingDns(Dns delegate, long ttlMs) {
+            this.delegate = delegate;
+            this.ttlMs = ttlMs;
+        }
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            long now = System.currentTimeMillis();
+            Entry entry = entries.get(hostname);
+            if (entry != null && entry.expiresAt > now) {
+                hitCount.incrementAndGet();
+                return entry.addresses;
+            }
+            lookupCount.incrementAndGet();
+            List<InetAddress> addresses = Collections.unmodifiableList(delegate.lookup(hostname));
+            entries.put(hostname, new Entry(addresses, now + ttlMs));
+            return addresses;
+        }
+
+        public void clear() {
+            entries.clear();
+        }
+
+        public long getLookupCount() {
+            return lookupCount.get();
+        }
+
+        public long getHitCount() {
+            return hitCount.get();
+        }
+    }
+
+    /**
+     * 限制同一个 host 同时进行的请求数
+     */
+    static final class HostLimiter implements Interceptor {
+        private final int maxRequestsPerHost;
+        private final ConcurrentHashMap<String, Semaphore> permits = new ConcurrentHashMap<>();
+        private final AtomicLong timeoutCount = new AtomicLong();
+
+        HostLimiter(int maxRequestsPerHost) {
+            this.maxRequestsPerHost = maxRequestsPerHost;
+        }
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            final Semaphore semaphore = getSemaphore(chain.request().url().host());
+            boolean acquired;
+            try {
+                acquired = semaphore.tryAcquire(PERMIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            if (!acquired) {
+                timeoutCount.incrementAndGet();
+                String message = "no permit for " + chain.request().url().host() + " in " + PERMIT_TIMEOUT_MS + "ms";
+                VLog.d(TAG, "intercept: " + message);
+                throw new InterruptedIOException(message);
+            }
+            final AtomicBoolean released = new AtomicBoolean();
+            Response response;
+            try {
+                response = chain.proceed(chain.request());
+            } catch (IOException | RuntimeException e) {
+                semaphore.release();
+                throw e;
+            }
+            ResponseBody body = response.body();
+            if (body == null) {
+                semaphore.release();
+                return response;
+            }
+            BufferedSource source = Okio.buffer(new ForwardingSource(body.source()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        if (released.compareAndSet(false, true)) {
+                            semaphore.release();
+                        }
+                    }
+                }
+            });
+            return response.newBuilder()
+                    .body(ResponseBody.create(body.contentType(), body.contentLength(), source))
+                    .build();
+        }
+
+        int getInFlight(String host) {
+            Semaphore semaphore = permits.get(host);
+            return semaphore == null ? 0 : maxRequestsPerHost - semaphore.availablePermits();
+        }
+
+        private Semaphore getSemaphore(String host) {
+            Semaphore semaphore = permits.get(host);
+            if (semaphore == null) {
+                semaphore = new Semaphore(maxRequestsPerHost);
+                Semaphore old = permits.putIfAbsent(host, semaphore);
+                if (old != null) {
+                    semaphore = old;
+                }
+            }
+            return semaphore;
+        }
+    }
+
+    private final OkHttpClient client;
+    private final CachingDns dns;
+    private final HostLimiter hostLimiter;
+
+    public static UpstreamClient createDefault() {
+        return new UpstreamClient(DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_KEEP_ALIVE_MS,
+                DEFAULT_MAX_REQUESTS_PER_HOST, DEFAULT_DNS_TTL_MS, true, Dns.SYSTEM);
+    }
+
+    /**
+     * @param http2 是否允许协商 HTTP/2, 否则只用 HTTP/1.1
+     * @param dns   实际查询 DNS 的实现
+     */
+    public UpstreamClient(int maxIdleConnections, long keepAliveMs, int maxRequestsPerHost, long dnsTtlMs,
+                          boolean http2, Dns dns) {
+        this.dns = new CachingDns(dns, dnsTtlMs);
+        hostLimiter = new HostLimiter(maxRequestsPerHost);
+        client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMs, TimeUnit.MILLISECONDS))
+                .dns(this.dns)
+                .protocols(http2 ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                        : Collections.singletonList(Protocol.HTTP_1_1))
+                .addInterceptor(hostLimiter)
+                .connectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .readTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    public CachingDns getDns() {
+        return dns;
+    }
+
+    public int getConnectionCount() {
+        return client.connectionPool().connectionCount();
+    }
+
+    public int getIdleConnectionCount() {
+        return client.connectionPool().idleConnectionCount();
+    }
+
+    /**
+     * @return 当前 host 正在进行的请求数
+     */
+    public int getInFlight(String host) {
+        return hostLimiter.getInFlight(host);
+    }
+
+    public long getPermitTimeoutCount() {
+        return hostLimiter.timeoutCount.get();
+    }
+
+    /**
+     * 网络切换后旧的连接和 DNS 结果都可能不可用
+     */
+    public void onNetworkChanged() {
+        client.connectionPool().evictAll();
+        dns.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "UpstreamClient{connections=" + getConnectionCount()
+                + ", idle=" + getIdleConnectionCount()
+                + ", dnsLookups=" + dns.getLookupCount()
+                + ", dnsHits=" + dns.getHitCount()
+                + ", permitTimeouts=" + getPermitTimeoutCount() + "}";
+    }
+}
@@ -0,0 +1,25 @@
+package com.sogo.exoplayer;
+
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+/**
+ * 创建播放和预加载使用的网络 DataSource, 见 {@link PlayerWrapper#setUpstreamFactory}
+ */
+public interface UpstreamFactory {
+
+    /**
+     * 每个请求一个 HttpURLConnection, 即原来的实现
+     */
+    UpstreamFactory HTTP_URL_CONNECTION = new UpstreamFactory() {
+        @Override
+        public HttpDataSource.Factory createHttpFactory(String userAgent,
+                                                        TransferListener<? super DataSource> listener) {
+            return new DefaultHttpDataSourceFactory(userAgent, listener);
+        }
+    };
+
+    HttpDataSource.Factory createHttpFactory(String userAgent, TransferListener<? super DataSource> listener);
+}
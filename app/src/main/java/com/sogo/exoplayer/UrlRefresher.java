@@ -0,0 +1,162 @@
+package com.sogo.exoplayer;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 签名地址过期(403/410)后重新获取播放地址.
+ * <p>
+ * 获取地址由 {@link Provider} 完成, 失败时按指数退避重试, 最多 maxAttempts 次.
+ * 成功后写入 {@link VideoUrlCache}. 同一个 id 同时只会有一个刷新在进行.
+ * 回调在刷新线程上执行.
+ */
+public class UrlRefresher {
+    private static final String TAG = "UrlRefresher";
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 4;
+    public static final long DEFAULT_BASE_DELAY_MS = 500;
+    public static final long DEFAULT_MAX_DELAY_MS = 8000;
+
+    /**
+     * 根据文章 id 获取新的签名地址, 在后台线程调用
+     */
+    public interface Provider {
+        String refresh(int id, String expiredUrl) throws IOException;
+    }
+
+    public interface Callback {
+        void onRefreshed(int id, String videoUrl);
+
+        void onFailed(int id, IOException e);
+    }
+
+    private final Provider provider;
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final ScheduledExecutorService executor;
+    private final Set<Integer> refreshing = new HashSet<>();
+
+    private volatile int refreshedCount = 0;
+    private volatile int failedCount = 0;
+
+    public UrlRefresher(Provider provider) {
+        this(provider, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS);
+    }
+
+    public UrlRefresher(Provider provider, int maxAttempts, long baseDelayMs, long maxDelayMs) {
+        this.provider = provider;
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 开始刷新 id 的地址
+     *
+     * @return 这个 id 已经在刷新时返回 false, callback 不会被调用
+     */
+    public boolean refresh(int id, String expiredUrl, Callback callback) {
+        synchronized (refreshing) {
+            if (!refreshing.add(id)) {
+                return false;
+            }
+        }
+        VLog.d(TAG, "refresh[" + id + "]: " + expiredUrl);
+        schedule(id, expiredUrl, callback, 0);
+        return true;
+    }
+
+    public boolean isRefreshing(int id) {
+        synchronized (refreshing) {
+            return refreshing.contains(id);
+        }
+    }
+
+    public int getRefreshedCount() {
+        return refreshedCount;
+    }
+
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 第 attempt 次重试前的等待时间, 第 0 次不等待
+     */
+    static long backoffDelay(int attempt, long baseDelayMs, long maxDelayMs) {
+        if (attempt <= 0) {
+            return 0;
+        }
+        long delay = baseDelayMs << Math.min(attempt - 1, 30);
+        return delay < 0 || delay > maxDelayMs ? maxDelayMs : delay;
+    }
+
+    private void schedule(final int id, final String expiredUrl, final Callback callback, final int attempt) {
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                attempt(id, expiredUrl, callback, attempt);
+            }
+        }, backoffDelay(attempt, baseDelayMs, maxDelayMs), TimeUnit.MILLISECONDS);
+    }
+
+    private void attempt(int id, String expiredUrl, Callback callback, int attempt) {
+        String videoUrl = null;
+        IOException failure = null;
+        boolean retry = false;
+        try {
+            videoUrl = provider.refresh(id, expiredUrl);
+            if (videoUrl == null || videoUrl.isEmpty() || videoUrl.equals(expiredUrl)) {
+                failure = new IOException("no new url for " + id);
+            } else {
+                VideoUrlCache.putVideoUrl(id, videoUrl);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            // provider 的实现出错也按失败重试
+            failure = new IOException("refresh failed for " + id, e);
+        } finally {
+            retry = failure != null && attempt + 1 < maxAttempts;
+            if (!retry) {
+                finish(id);
+            }
+        }
+        if (retry) {
+            VLog.d(TAG, "refresh[" + id + "]: attempt " + attempt + " failed, " + failure.getMessage());
+            schedule(id, expiredUrl, callback, attempt + 1);
+        } else if (failure != null) {
+            VLog.d(TAG, "refresh[" + id + "]: gave up after " + (attempt + 1) + " attempts, " + failure.getMessage());
+            failedCount++;
+            callback.onFailed(id, failure);
+        } else {
+            refreshedCount++;
+            VLog.d(TAG, "refresh[" + id + "]: " + videoUrl);
+            callback.onRefreshed(id, videoUrl);
+        }
+    }
+
+    private void finish(int id) {
+        synchronized (refreshing) {
+            refreshing.remove(id);
+        }
+    }
+}
@@ -17,7 +17,7 @@ import java.lang.reflect.Field;
 public class VUtil {
 
     /**
-     * 判断wifi是否连接
+     * 判断wifi是否连接, 每次都会查询系统. 频繁调用的地方使用 {@link NetworkStateMonitor}
      *
      * @param context
      * @return true:wifi连接状态
@@ -0,0 +1,88 @@
+package com.sogo.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.CacheSpan;
+
+/**
+ * 代替 LeastRecentlyUsedCacheEvictor, 保护预加载的开头和经常看的视频, 规则见 {@link ValueEvictionPolicy}.
+ * <p>
+ * SimpleCache 在自己的锁内回调, {@link #onWatched} 在主线程调用, 所以方法都加了锁.
+ */
+public class ValueCacheEvictor implements CacheEvictor {
+    private static final String TAG = "ValueCacheEvictor";
+
+    /**
+     * 开头的默认额度. 每个视频计入额度的开头不超过 headBytes,
+     * 按 {@link SegmentedPreloader#DEFAULT_HEAD_BYTES} 至少可以放下 128 个视频的开头
+     */
+    public static final long DEFAULT_HEAD_QUOTA_BYTES = 64 * 1024 * 1024;
+
+    private final ValueEvictionPolicy policy;
+    private int evictedCount = 0;
+
+    public ValueCacheEvictor(long maxBytes, long headQuotaBytes, long headBytes) {
+        policy = new ValueEvictionPolicy(maxBytes, headQuotaBytes, headBytes);
+    }
+
+    /**
+     * 一次播放结束, completion 为播放进度(0~1)
+     */
+    public synchronized void onWatched(String key, float completion) {
+        policy.onWatched(key, completion);
+    }
+
+    public synchronized int getEvictedCount() {
+        return evictedCount;
+    }
+
+    // 需要 onSpanTouched 回调来统计访问次数, 新版本的 CacheEvictor 才有这个方法
+    public boolean requiresCacheSpanTouches() {
+        return true;
+    }
+
+    @Override
+    public synchronized void onCacheInitialized() {
+        VLog.d(TAG, "onCacheInitialized: " + policy);
+    }
+
+    @Override
+    public synchronized void onStartFile(Cache cache, String key, long position, long length) {
+        if (length != C.LENGTH_UNSET) {
+            evict(cache, position, length);
+        }
+    }
+
+    @Override
+    public synchronized void onSpanAdded(Cache cache, CacheSpan span) {
+        policy.add(span.key, span.position, span.length, span);
+        evict(cache, span.position, 0);
+    }
+
+    @Override
+    public synchronized void onSpanRemoved(Cache cache, CacheSpan span) {
+        policy.remove(span.key, span.position);
+    }
+
+    @Override
+    public synchronized void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+        policy.touch(newSpan.key, newSpan.position, newSpan);
+    }
+
+    private void evict(Cache cache, long position, long incomingBytes) {
+        ValueEvictionPolicy.Span victim;
+        while ((victim = policy.nextVictim(position, incomingBytes)) != null) {
+            try {
+                cache.removeSpan((CacheSpan) victim.getTag());
+            } catch (Cache.CacheException e) {
+                VLog.e(TAG, "evict: " + victim, e);
+            }
+            // 删除失败或者没有回调 onSpanRemoved 时也不能再选中它
+            if (policy.get(victim.key, victim.position) == victim) {
+                policy.remove(victim.key, victim.position);
+            }
+            evictedCount++;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.sogo.exoplayer;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 按价值淘汰缓存数据的策略, 不依赖 ExoPlayer, 由 {@link ValueCacheEvictor} 使用.
+ * <p>
+ * 数据分为两类: 起始位置在 headBytes 以内的"开头"(预加载写入, 决定起播速度) 和其他的"主体".
+ * 跨过 headBytes 的 span 只有 [0, headBytes) 内的字节计入开头, 其余计入主体.
+ * 开头最多占用 headQuotaBytes, 在这个额度内只会因为开头之间的竞争被淘汰;
+ * 主体可以使用剩下的全部空间. 同一类里淘汰分数最低的, 分数由以下几项决定:
+ * 最近访问时间, 访问次数, 在文件中的位置(越靠后越低), 是否已经看完(看完的视频主体降低).
+ * 不是线程安全的, SimpleCache 会在自己的锁内回调 evictor.
+ */
+public class ValueEvictionPolicy {
+
+    // 分数的单位是一次访问, 以下权重相当于多少次访问
+    static final long HIT_BONUS = 32;
+    static final int MAX_HITS = 4;
+    static final long POSITION_PENALTY_PER_MB = 8;
+    static final long MAX_POSITION_PENALTY = 128;
+    static final long WATCHED_PENALTY = 256;
+    /**
+     * 播放进度超过这个比例算看完
+     */
+    static final float WATCHED_COMPLETION = 0.9f;
+
+    private static final int MAX_TRACKED_COMPLETIONS = 512;
+
+    public static final class Span {
+        public final String key;
+        public final long position;
+        public final long length;
+        public final boolean head;
+        // [0, headBytes) 内的字节数
+        final long headLength;
+        Object tag;
+        int hits = 0;
+        long lastAccess;
+        long score;
+        final long seq;
+
+        Span(String key, long position, long length, long headLength, Object tag, long seq) {
+            this.key = key;
+            this.position = position;
+            this.length = length;
+            this.headLength = headLength;
+            this.head = headLength > 0;
+            this.tag = tag;
+            this.seq = seq;
+        }
+
+        public Object getTag() {
+            return tag;
+        }
+
+        @Override
+        public String toString() {
+            return "Span{" + key + "@" + position + "+" + length + (head ? ", head" : "") + ", score=" + score + "}";
+        }
+    }
+
+    private static final Comparator<Span> BY_SCORE = new Comparator<Span>() {
+        @Override
+        public int compare(Span a, Span b) {
+            if (a.score != b.score) {
+                return a.score < b.score ? -1 : 1;
+            }
+            return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+        }
+    };
+
+    private final long maxBytes;
+    private final long headQuotaBytes;
+    private final long headBytes;
+
+    private final Map<String, Map<Long, Span>> spans = new HashMap<>();
+    private final TreeSet<Span> heads = new TreeSet<>(BY_SCORE);
+    private final TreeSet<Span> bulk = new TreeSet<>(BY_SCORE);
+    private final Map<String, Float> completions = new LinkedHashMap<String, Float>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Float> eldest) {
+            return size() > MAX_TRACKED_COMPLETIONS;
+        }
+    };
+
+    private long headTotal = 0;
+    private long bulkTotal = 0;
+    private long clock = 0;
+    private long seq = 0;
+
+    /**
+     * @param maxBytes       缓存总大小
+     * @param headQuotaBytes 开头的额度
+     * @param headBytes      起始位置小于这个值的算开头
+     */
+    public ValueEvictionPolicy(long maxBytes, long headQuotaBytes, long headBytes) {
+        this.maxBytes = maxBytes;
+        this.headQuotaBytes = Math.min(headQuotaBytes, maxBytes);
+        this.headBytes = headBytes;
+    }
+
+    /**
+     * @return [position, position + length) 和 [0, headBytes) 重叠的字节数
+     */
+    public long getHeadLength(long position, long length) {
+        return Math.max(0, Math.min(position + length, headBytes) - position);
+    }
+
+    public Span add(String key, long position, long length, Object tag) {
+        Map<Long, Span> keySpans = spans.get(key);
+        if (keySpans == null) {
+            keySpans = new HashMap<>();
+            spans.put(key, keySpans);
+        }
+        Span old = keySpans.get(position);
+        if (old != null) {
+            unlink(old);
+        }
+        Span span = new Span(key, position, length, getHeadLength(position, length), tag, seq++);
+        span.lastAccess = ++clock;
+        keySpans.put(position, span);
+        link(span);
+        return span;
+    }
+
+    /**
+     * 数据被读取
+     *
+     * @param tag 新的 tag, 为 null 时不变
+     */
+    public void touch(String key, long position, Object tag) {
+        Span span = get(key, position);
+        if (span == null) {
+            return;
+        }
+        unlinkFromSet(span);
+        span.hits++;
+        span.lastAccess = ++clock;
+        if (tag != null) {
+            span.tag = tag;
+        }
+        linkToSet(span);
+    }
+
+    public void remove(String key, long position) {
+        Map<Long, Span> keySpans = spans.get(key);
+        if (keySpans == null) {
+            return;
+        }
+        Span span = keySpans.remove(position);
+        if (span != null) {
+            unlink(span);
+        }
+        if (keySpans.isEmpty()) {
+            spans.remove(key);
+        }
+    }
+
+    /**
+     * 一次播放结束, completion 为播放进度(0~1)
+     */
+    public void onWatched(String key, float completion) {
+        Float old = completions.get(key);
+        if (old != null && old >= completion) {
+            return;
+        }
+        completions.put(key, completion);
+        Map<Long, Span> keySpans = spans.get(key);
+        if (keySpans != null) {
+            for (Span span : keySpans.values()) {
+                unlinkFromSet(span);
+                linkToSet(span);
+            }
+        }
+    }
+
+    /**
+     * 准备在 position 写入 incomingBytes 字节前, 需要淘汰的下一段数据.
+     * 调用方删除它(并调用 {@link #remove})后再次调用, 直到返回 null.
+     */
+    public Span nextVictim(long position, long incomingBytes) {
+        long incomingHead = getHeadLength(position, incomingBytes);
+        long nextHeads = headTotal + incomingHead;
+        long nextBulk = bulkTotal + incomingBytes - incomingHead;
+        if (nextHeads > headQuotaBytes && !heads.isEmpty()) {
+            return heads.first();
+        }
+        if (nextHeads + nextBulk > maxBytes) {
+            if (!bulk.isEmpty()) {
+                return bulk.first();
+            }
+            if (!heads.isEmpty()) {
+                return heads.first();
+            }
+        }
+        return null;
+    }
+
+    public Span get(String key, long position) {
+        Map<Long, Span> keySpans = spans.get(key);
+        return keySpans == null ? null : keySpans.get(position);
+    }
+
+    public boolean contains(String key, long position) {
+        return get(key, position) != null;
+    }
+
+    public long getHeadTotal() {
+        return headTotal;
+    }
+
+    public long getBulkTotal() {
+        return bulkTotal;
+    }
+
+    public long getTotal() {
+        return headTotal + bulkTotal;
+    }
+
+    @Override
+    public String toString() {
+        return "ValueEvictionPolicy{heads=" + heads.size() + "/" + headTotal
+                + ", bulk=" + bulk.size() + "/" + bulkTotal
+                + ", max=" + maxBytes + ", headQuota=" + headQuotaBytes + "}";
+    }
+
+    private long score(Span span) {
+        long score = span.lastAccess + HIT_BONUS * Math.min(span.hits, MAX_HITS);
+        score -= Math.min(MAX_POSITION_PENALTY, POSITION_PENALTY_PER_MB * (span.position >> 20));
+        // 看完的视频只降低主体, 开头留给回看
+        Float completion = span.head ? null : completions.get(span.key);
+        if (completion != null && completion >= WATCHED_COMPLETION) {
+            score -= WATCHED_PENALTY;
+        }
+        return score;
+    }
+
+    private void link(Span span) {
+        headTotal += span.headLength;
+        bulkTotal += span.length - span.headLength;
+        linkToSet(span);
+    }
+
+    private void unlink(Span span) {
+        unlinkFromSet(span);
+        headTotal -= span.headLength;
+        bulkTotal -= span.length - span.headLength;
+    }
+
+    private void linkToSet(Span span) {
+        span.score = score(span);
+        (span.head ? heads : bulk).add(span);
+    }
+
+    private void unlinkFromSet(Span span) {
+        (span.head ? heads : bulk).remove(span);
+    }
+}
@@ -1,22 +1,340 @@
 package com.sogo.exoplayer;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * @auther shaopx
  * @date 2017/12/13.
+ * <p>
+ * 文章 id 到(签名)视频地址的缓存. 按 LRU 限制条数, 每条有过期时间:
+ * 能从签名参数中解析出过期时间时使用签名的时间, 否则使用 {@link #DEFAULT_TTL_MS}.
+ * 快过期的地址在读取时就当作不存在, 不用等到播放 403.
+ * 内容保存在 filesDir 下的小文件里, 在后台线程加载({@link #startLoading}, 或者第一次访问时开始),
+ * 加载完成之前读取不到保存的地址; 修改后在同一个后台线程写回.
  */
-
 public class VideoUrlCache {
+    private static final String TAG = "VideoUrlCache";
+
+    public static final int MAX_SIZE = 256;
+    public static final long DEFAULT_TTL_MS = 30 * 60 * 1000;
+    /**
+     * 距离过期不到这个时间的地址不再使用
+     */
+    public static final long EXPIRY_MARGIN_MS = 60 * 1000;
+
+    private static final String FILE_NAME = "video_urls";
+    private static final String SEPARATOR = "\t";
+
+    private static final class Entry {
+        final String url;
+        final long expiresAtMs;
+
+        Entry(String url, long expiresAtMs) {
+            this.url = url;
+            this.expiresAtMs = expiresAtMs;
+        }
+    }
+
+    // int key, 不装箱
+    private static final IntLruMap<Entry> videoUrls = new IntLruMap<>(MAX_SIZE);
+
+    // 加载和写回都在这个线程上, 按提交顺序执行
+    private static final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
-    private static Map<Integer, String> videoUrls = new HashMap<>();
+    private static File file;
+    private static boolean loadStarted = false;
+    private static boolean savePending = false;
 
     public static void putVideoUrl(int id, String data) {
-        videoUrls.put(id, data);
+        long now = System.currentTimeMillis();
+        long expiresAt = parseExpiresAt(data, now);
+        synchronized (VideoUrlCache.class) {
+            ensureLoading();
+            videoUrls.put(id, new Entry(data, expiresAt));
+            scheduleSave();
+        }
+    }
+
+    /**
+     * @return 没有缓存或者快要过期时返回 null
+     */
+    public static String getVideoUrl(int id) {
+        synchronized (VideoUrlCache.class) {
+            ensureLoading();
+            Entry entry = videoUrls.get(id);
+            if (entry == null) {
+                return null;
+            }
+            if (isExpired(entry, System.currentTimeMillis())) {
+                VLog.d(TAG, "getVideoUrl[" + id + "]: expired at " + entry.expiresAtMs);
+                videoUrls.remove(id);
+                scheduleSave();
+                return null;
+            }
+            return entry.url;
+        }
+    }
+
+    /**
+     * @return 地址的过期时间, 没有缓存时返回 0
+     */
+    public static long getExpiresAt(int id) {
+        synchronized (VideoUrlCache.class) {
+            ensureLoading();
+            Entry entry = videoUrls.peek(id);
+            return entry == null ? 0 : entry.expiresAtMs;
+        }
+    }
+
+    public static int size() {
+        synchronized (VideoUrlCache.class) {
+            ensureLoading();
+            return videoUrls.size();
+        }
+    }
+
+    /**
+     * 在后台线程加载保存的地址, 应用启动时调用
+     */
+    public static void startLoading() {
+        synchronized (VideoUrlCache.class) {
+            ensureLoading();
+        }
+    }
+
+    /**
+     * 等待后台的加载和写回完成
+     */
+    static void awaitIdle() throws InterruptedException {
+        final CountDownLatch idle = new CountDownLatch(1);
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                idle.countDown();
+            }
+        });
+        idle.await();
+    }
+
+    /**
+     * 指定保存的文件, 默认是 filesDir 下的 {@value #FILE_NAME}. 需要在第一次访问之前调用.
+     */
+    static synchronized void setFile(File file) {
+        VideoUrlCache.file = file;
+        loadStarted = false;
+        videoUrls.clear();
+    }
+
+    /**
+     * 从签名参数中解析过期时间: Expires / e / deadline (秒), 或 X-Amz-Date + X-Amz-Expires.
+     *
+     * @return 过期时间, 解析不到时返回 now + {@link #DEFAULT_TTL_MS}
+     */
+    static long parseExpiresAt(String url, long now) {
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            String amzDate = null;
+            long amzExpires = -1;
+            int fragment = url.indexOf('#', query);
+            String[] params = url.substring(query + 1, fragment < 0 ? url.length() : fragment).split("&");
+            for (String param : params) {
+                int eq = param.indexOf('=');
+                if (eq <= 0) {
+                    continue;
+                }
+                String name = param.substring(0, eq);
+                String value = param.substring(eq + 1);
+                try {
+                    if (name.equalsIgnoreCase("expires") || name.equals("e") || name.equals("deadline")) {
+                        return Long.parseLong(value) * 1000;
+                    } else if (name.equals("X-Amz-Expires")) {
+                        amzExpires = Long.parseLong(value);
+                    } else if (name.equals("X-Amz-Date")) {
+                        amzDate = value;
+                    }
+                } catch (NumberFormatException e) {
+                    VLog.d(TAG, "parseExpiresAt: bad " + param);
+                }
+            }
+            if (amzDate != null && amzExpires >= 0) {
+                long signedAt = parseAmzDate(amzDate);
+                if (signedAt > 0) {
+                    return signedAt + amzExpires * 1000;
+                }
+            }
+        }
+        return now + DEFAULT_TTL_MS;
+    }
+
+    private static long parseAmzDate(String value) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return format.parse(value).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isExpired(Entry entry, long now) {
+        return entry.expiresAtMs - EXPIRY_MARGIN_MS <= now;
+    }
+
+    // 以下方法需持有 VideoUrlCache.class 锁
+
+    private static void ensureLoading() {
+        if (loadStarted) {
+            return;
+        }
+        loadStarted = true;
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    private static void scheduleSave() {
+        if (savePending) {
+            return;
+        }
+        savePending = true;
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                save();
+            }
+        });
+    }
+
+    private static void save() {
+        final List<String> lines = new ArrayList<>();
+        File target;
+        synchronized (VideoUrlCache.class) {
+            savePending = false;
+            target = file;
+            final long now = System.currentTimeMillis();
+            // 从旧到新写入, 加载后的访问顺序不变
+            videoUrls.forEach(new IntLruMap.Visitor<Entry>() {
+                @Override
+                public void visit(int key, Entry entry) {
+                    if (!isExpired(entry, now)) {
+                        lines.add(key + SEPARATOR + entry.expiresAtMs + SEPARATOR + entry.url);
+                    }
+                }
+            });
+        }
+
+        File temp = new File(target.getPath() + ".tmp");
+        BufferedWriter out = null;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(target)) {
+                VLog.e(TAG, "save: rename failed");
+            }
+        } catch (IOException e) {
+            VLog.e(TAG, "save failed", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    // 在 ioExecutor 上调用
+    private static void load() {
+        File source;
+        synchronized (VideoUrlCache.class) {
+            if (file == null) {
+                file = new File(VUtil.getApplication().getFilesDir(), FILE_NAME);
+            }
+            source = file;
+        }
+        if (!source.exists()) {
+            return;
+        }
+        final List<Integer> ids = new ArrayList<>();
+        final List<Entry> entries = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(source), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR, 3);
+                if (fields.length != 3) {
+                    continue;
+                }
+                Entry entry = new Entry(fields[2], Long.parseLong(fields[1]));
+                if (!isExpired(entry, now)) {
+                    ids.add(Integer.parseInt(fields[0]));
+                    entries.add(entry);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            VLog.e(TAG, "load failed", e);
+        } finally {
+            closeQuietly(reader);
+        }
+
+        synchronized (VideoUrlCache.class) {
+            if (source != file) {
+                // 加载期间换了文件
+                return;
+            }
+            // 加载完成前写入的地址更新, 放在后面, 覆盖文件中同一个 id 的
+            final int loadedCount = ids.size();
+            videoUrls.forEach(new IntLruMap.Visitor<Entry>() {
+                @Override
+                public void visit(int key, Entry entry) {
+                    ids.add(key);
+                    entries.add(entry);
+                }
+            });
+            videoUrls.clear();
+            for (int i = 0; i < ids.size(); i++) {
+                videoUrls.put(ids.get(i), entries.get(i));
+            }
+            VLog.d(TAG, "load: " + loadedCount + " urls, " + videoUrls.size() + " after merge");
+        }
     }
 
-    public static String getVideoUrl(int id){
-        return videoUrls.get(id);
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
     }
 }
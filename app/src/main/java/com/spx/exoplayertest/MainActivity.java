@@ -10,7 +10,9 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import com.sogo.exoplayer.FeedAutoplay;
 import com.sogo.exoplayer.LdExoPlayerController;
+import com.sogo.exoplayer.ScrollPrefetcher;
 
 import java.util.Arrays;
 import java.util.List;
@@ -29,6 +31,7 @@ public class MainActivity extends AppCompatActivity {
 
     private RecyclerView mRecyclerView;
     private Adapter mAdapter;
+    private FeedAutoplay mAutoplay;
 
     private List<String> mUrls = Arrays.asList(sources);
 
@@ -39,8 +42,18 @@ public class MainActivity extends AppCompatActivity {
 
         mRecyclerView = findViewById(R.id.recyclerView);
         mAdapter = new Adapter();
-        mRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        mRecyclerView.setLayoutManager(layoutManager);
         mRecyclerView.setAdapter(mAdapter);
+        // 按滑动速度决定预加载哪些条目
+        ScrollPrefetcher.attach(mRecyclerView, layoutManager, new ScrollPrefetcher.UrlSource() {
+            @Override
+            public String getUrl(int position) {
+                return position >= 0 && position < mUrls.size() ? mUrls.get(position) : null;
+            }
+        });
+        // 停下后自动播放露出最多的一行
+        mAutoplay = FeedAutoplay.attach(mRecyclerView, layoutManager);
 
 
     }
@@ -48,11 +61,13 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onResume() {
         super.onResume();
+        mAutoplay.setEnabled(true);
     }
 
     @Override
     protected void onPause() {
         super.onPause();
+        mAutoplay.setEnabled(false);
     }
 
     private class ViewHolder extends RecyclerView.ViewHolder {
@@ -99,7 +114,8 @@ public class MainActivity extends AppCompatActivity {
         public void bindData(int position) {
             titleTv.setText("这是测试数据:[" + position + "] url:" + mUrls.get(position));
 
-            controller.bindData(itemView.getContext(), position,
+            // demo 数据用位置作为文章 id
+            controller.bindData(itemView.getContext(), position, position,
                     "position_" + position, mUrls.get(position), "");
         }
     }
@@ -118,6 +134,21 @@ public class MainActivity extends AppCompatActivity {
             holder.bindData(position);
         }
 
+        @Override
+        public void onViewAttachedToWindow(ViewHolder holder) {
+            holder.controller.onViewAttachedToWindow(holder.getAdapterPosition());
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(ViewHolder holder) {
+            holder.controller.onViewDetachedFromWindow();
+        }
+
+        @Override
+        public void onViewRecycled(ViewHolder holder) {
+            holder.controller.onViewRecycled();
+        }
+
         @Override
         public int getItemCount() {
             return mUrls.size();
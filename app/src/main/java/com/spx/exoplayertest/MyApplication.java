@@ -2,6 +2,11 @@ package com.spx.exoplayertest;
 
 import android.app.Application;
 
+import com.sogo.exoplayer.NetworkStateMonitor;
+import com.sogo.exoplayer.SegmentPool;
+import com.sogo.exoplayer.VLog;
+import com.sogo.exoplayer.VideoUrlCache;
+
 /**
  * Created by shaopengxiang on 2017/12/20.
  */
@@ -12,6 +17,25 @@ public class MyApplication extends Application {
     public void onCreate() {
         super.onCreate();
         sApplication = this;
+        // 在主线程注册网络回调, 之后播放线程只读缓存的状态
+        NetworkStateMonitor.getInstance();
+        // 保存的视频地址在后台线程读取, 第一次播放时不用在主线程读文件
+        VideoUrlCache.startLoading();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // 前台只是有点紧张时保留一半空闲的播放缓冲区, 其他情况全部释放
+        SegmentPool pool = SegmentPool.getInstance();
+        int trimmed = pool.trim(level == TRIM_MEMORY_RUNNING_MODERATE ? pool.getMaxFreeBytes() / 2 : 0);
+        VLog.d("MyApplication", "onTrimMemory: level " + level + ", trimmed " + trimmed + ", " + pool);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        SegmentPool.getInstance().trim(0);
     }
 
     public static MyApplication getApp(){
@@ -0,0 +1,163 @@
+package com.sogo.exoplayer;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 多个线程同时 attach / detach / preload, 每个绑定只能结束一次.
+ */
+public class AttachmentStateStressTest {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 20000;
+    private static final int ROWS = 6;
+
+    private static final class Holder implements PlayerManager.PlayerHolder {
+        @Override
+        public void onDetached() {
+        }
+
+        @Override
+        public void preload() {
+        }
+
+        @Override
+        public void autoplay(long settleNs) {
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void attachDetachPreloadFromManyThreads() throws Exception {
+        final AttachmentState state = new AttachmentState();
+        final ConcurrentHashMap<AttachmentState.Attachment, AtomicInteger> ended = new ConcurrentHashMap<>();
+        final Map<String, PlayerManager.PlayerHolder> holders = new ConcurrentHashMap<>();
+        final AtomicInteger attaches = new AtomicInteger();
+        final AtomicInteger preloads = new AtomicInteger();
+        final PreloadScheduler scheduler = new PreloadScheduler(2, 4, ROWS, new PreloadScheduler.Preloader() {
+            @Override
+            public void preload(String videoUrl, PreloadHandle handle) {
+                preloads.incrementAndGet();
+            }
+        });
+        final Holder[] rows = new Holder[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = new Holder();
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            final Random random = new Random(t);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < ITERATIONS; i++) {
+                            int row = random.nextInt(ROWS);
+                            String url = "url" + row;
+                            switch (random.nextInt(3)) {
+                                case 0:
+                                    holders.put(url, rows[row]);
+                                    // 和 PlayerManager.attchPlayer 一样, player 在使用时用 attachIfAbsent
+                                    AttachmentState.Attachment previous = random.nextBoolean()
+                                            ? state.attach(rows[row], url)
+                                            : state.attachIfAbsent(rows[row], url);
+                                    if (previous != null) {
+                                        attaches.incrementAndGet();
+                                        counter(ended, previous).incrementAndGet();
+                                    }
+                                    break;
+                                case 1:
+                                    AttachmentState.Attachment detached = state.detach(rows[row], url);
+                                    if (detached != null) {
+                                        counter(ended, detached).incrementAndGet();
+                                        holders.remove(url);
+                                    }
+                                    break;
+                                default:
+                                    holders.put(url, rows[row]);
+                                    scheduler.setVisiblePosition(random.nextInt(ROWS));
+                                    scheduler.submit(row, url);
+                                    break;
+                            }
+                        }
+                    } catch (InterruptedException ignored) {
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        assertTrue(done.await(50, TimeUnit.SECONDS));
+        scheduler.shutdown();
+        while (scheduler.getInFlightCount() > 0) {
+            Thread.sleep(1);
+        }
+
+        AttachmentState.Attachment last = state.get();
+        ended.remove(AttachmentState.Attachment.NONE);
+        // 除了最后一个, 每个绑定都被替换或解绑了恰好一次
+        int endedCount = 0;
+        for (Map.Entry<AttachmentState.Attachment, AtomicInteger> entry : ended.entrySet()) {
+            assertEquals(entry.getKey().toString(), 1, entry.getValue().get());
+            endedCount++;
+        }
+        assertEquals(attaches.get() - (last.isNone() ? 0 : 1), endedCount);
+        assertEquals(preloads.get(), scheduler.getCompletedCount());
+        assertTrue(holders.size() <= ROWS);
+    }
+
+    @Test(timeout = 60000)
+    public void onlyOneThreadAttachesTheSameHolder() throws Exception {
+        final Holder holder = new Holder();
+        for (int round = 0; round < 1000; round++) {
+            final AttachmentState state = new AttachmentState();
+            final AtomicInteger attached = new AtomicInteger();
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(THREADS);
+            for (int t = 0; t < THREADS; t++) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            if (state.attachIfAbsent(holder, "url") != null) {
+                                attached.incrementAndGet();
+                            }
+                        } catch (InterruptedException ignored) {
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }).start();
+            }
+            start.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(1, attached.get());
+        }
+    }
+
+    private static AtomicInteger counter(ConcurrentHashMap<AttachmentState.Attachment, AtomicInteger> ended,
+                                         AttachmentState.Attachment attachment) {
+        AtomicInteger counter = ended.get(attachment);
+        if (counter == null) {
+            counter = new AtomicInteger();
+            AtomicInteger existing = ended.putIfAbsent(attachment, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+}
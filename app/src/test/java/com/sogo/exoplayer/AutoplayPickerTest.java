@@ -0,0 +1,33 @@
+package com.sogo.exoplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AutoplayPickerTest {
+    private final AutoplayPicker picker = new AutoplayPicker();
+
+    @Test
+    public void picksMostVisibleRow() {
+        assertEquals(11, picker.pick(10, new float[]{0.3f, 1f, 0.2f}, 3, AutoplayPicker.NO_POSITION));
+        // 当前播放的行已经滑走
+        assertEquals(11, picker.pick(10, new float[]{0.3f, 1f, 0.2f}, 3, 10));
+    }
+
+    @Test
+    public void nothingVisibleEnough() {
+        assertEquals(AutoplayPicker.NO_POSITION, picker.pick(10, new float[]{0.5f, 0.5f}, 2, 10));
+        assertEquals(AutoplayPicker.NO_POSITION, picker.pick(0, new float[0], 0, AutoplayPicker.NO_POSITION));
+    }
+
+    @Test
+    public void keepsCurrentRowWhenCloseEnough() {
+        assertEquals(10, picker.pick(10, new float[]{0.7f, 0.8f}, 2, 10));
+        assertEquals(11, picker.pick(10, new float[]{0.65f, 0.9f}, 2, 10));
+    }
+
+    @Test
+    public void ignoresEntriesBeyondCount() {
+        assertEquals(10, picker.pick(10, new float[]{0.7f, 1f}, 1, AutoplayPicker.NO_POSITION));
+    }
+}
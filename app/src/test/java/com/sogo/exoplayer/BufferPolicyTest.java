@@ -0,0 +1,74 @@
+package com.sogo.exoplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BufferPolicyTest {
+
+    private static BufferPolicy newPolicy() {
+        return new BufferPolicy(new BufferPolicy.Watermarks(15000, 30000, 2500, 5000));
+    }
+
+    @Test
+    public void keepsDefaultsWithoutInformation() {
+        BufferPolicy.Watermarks watermarks = newPolicy().decide(BufferPolicy.DURATION_UNKNOWN,
+                PreloadBudget.NO_ESTIMATE);
+        assertEquals(15000, watermarks.minBufferMs);
+        assertEquals(30000, watermarks.maxBufferMs);
+        assertEquals(2500, watermarks.bufferForPlaybackMs);
+        assertEquals(5000, watermarks.bufferForPlaybackAfterRebufferMs);
+    }
+
+    @Test
+    public void shortClipsBufferLess() {
+        BufferPolicy.Watermarks watermarks = newPolicy().decide(12000, PreloadBudget.NO_ESTIMATE);
+        assertEquals(6000, watermarks.minBufferMs);
+        assertEquals(12000, watermarks.maxBufferMs);
+
+        // 低水位不低于下限, 起播缓冲不超过低水位
+        watermarks = newPolicy().decide(5000, PreloadBudget.NO_ESTIMATE);
+        assertEquals(BufferPolicy.MIN_BUFFER_FLOOR_MS, watermarks.minBufferMs);
+        assertEquals(5000, watermarks.maxBufferMs);
+        assertEquals(2500, watermarks.bufferForPlaybackMs);
+        assertEquals(BufferPolicy.MIN_BUFFER_FLOOR_MS, watermarks.bufferForPlaybackAfterRebufferMs);
+    }
+
+    @Test
+    public void abandonmentLowersWatermarks() {
+        BufferPolicy policy = newPolicy();
+        for (int i = 0; i < 20; i++) {
+            policy.onPlayEnded(1500, 40000);
+        }
+        assertTrue(policy.getAbandonRate() > 0.95f);
+        BufferPolicy.Watermarks watermarks = policy.decide(40000, PreloadBudget.NO_ESTIMATE);
+        assertTrue(watermarks.minBufferMs < 7000);
+        assertTrue(watermarks.maxBufferMs < 14000);
+
+        // 看完的多了以后恢复
+        for (int i = 0; i < 20; i++) {
+            policy.onPlayEnded(40000, 40000);
+        }
+        assertTrue(policy.getAbandonRate() < 0.05f);
+        watermarks = policy.decide(40000, PreloadBudget.NO_ESTIMATE);
+        assertTrue(watermarks.minBufferMs > 14000);
+        assertTrue(watermarks.maxBufferMs > 29000);
+    }
+
+    @Test
+    public void highBandwidthStartsSooner() {
+        BufferPolicy policy = newPolicy();
+        BufferPolicy.Watermarks watermarks = policy.decide(30000, 20 * 1000 * 1000);
+        assertEquals(BufferPolicy.HIGH_BANDWIDTH_BUFFER_FOR_PLAYBACK_MS, watermarks.bufferForPlaybackMs);
+        assertEquals(BufferPolicy.HIGH_BANDWIDTH_BUFFER_AFTER_REBUFFER_MS,
+                watermarks.bufferForPlaybackAfterRebufferMs);
+
+        watermarks = policy.decide(30000, 3 * 1000 * 1000);
+        assertEquals(BufferPolicy.MEDIUM_BANDWIDTH_BUFFER_FOR_PLAYBACK_MS, watermarks.bufferForPlaybackMs);
+        assertEquals(5000, watermarks.bufferForPlaybackAfterRebufferMs);
+
+        watermarks = policy.decide(30000, 300 * 1000);
+        assertEquals(2500, watermarks.bufferForPlaybackMs);
+    }
+}
@@ -0,0 +1,36 @@
+package com.sogo.exoplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class CacheKeyFactoryTest {
+
+    private static final String URL = "http://video.wenwen.sogou.com/e75aa445e10f4a51cf9b1df72b947e40.mp4.f20.mp4";
+
+    @Test
+    public void contentHashIgnoresHostAndSignature() {
+        CacheKeyFactory factory = new CacheKeyFactory(CacheKeyFactory.CONTENT_HASH);
+        String key = factory.buildKey(URL);
+        assertEquals("hash:e75aa445e10f4a51cf9b1df72b947e40.mp4.f20.mp4", key);
+        assertEquals(key, factory.buildKey("https://cdn2.example.com/v/E75AA445E10F4A51CF9B1DF72B947E40.mp4.f20.mp4?e=1&sign=x"));
+        // 不同转码格式不能共用
+        assertNotEquals(key, factory.buildKey("http://video.wenwen.sogou.com/e75aa445e10f4a51cf9b1df72b947e40.mp4.f10.mp4"));
+        // 没有 hash 时只去掉参数
+        assertEquals("http://a/b/video.mp4", factory.buildKey("http://a/b/video.mp4?token=1"));
+    }
+
+    @Test
+    public void countsSharedHits() {
+        CacheKeyFactory factory = new CacheKeyFactory(CacheKeyFactory.CONTENT_HASH);
+        String key = factory.buildKey(URL);
+        factory.onPlay(URL, key, false);
+        factory.onPlay(URL, key, true);
+        factory.onPlay(URL + "?e=2", key, true);
+        assertEquals(3, factory.getLookupCount());
+        assertEquals(2, factory.getHitCount());
+        assertEquals(1, factory.getSharedHitCount());
+        assertEquals(2f / 3, factory.getHitRate(), 0.001f);
+    }
+}
@@ -0,0 +1,81 @@
+package com.sogo.exoplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CacheMetricsTest {
+
+    @Test
+    public void tracksPerPlayBytesAndPreloadUtilization() {
+        CacheMetrics metrics = new CacheMetrics();
+        metrics.onPreloaded("a", 1000);
+        metrics.onPreloaded("b", 1000);
+
+        CacheMetrics.Play play = metrics.startPlay("a");
+        play.onCacheRead(800);
+        play.onNetworkRead(3000);
+        assertEquals(3000, metrics.snapshot().bytesFromNetwork);
+        metrics.finishPlay("a");
+
+        // b 播放前被淘汰了一部分
+        metrics.onEvicted("b", 600);
+        metrics.onEvicted("c", 100);
+        play = metrics.startPlay("b");
+        play.onCacheRead(400);
+        play.onNetworkRead(100);
+        metrics.finishPlay("b");
+
+        CacheMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.plays);
+        assertEquals(1200, snapshot.bytesFromCache);
+        assertEquals(3100, snapshot.bytesFromNetwork);
+        assertEquals(400, snapshot.lastPlayBytesFromCache);
+        assertEquals(100, snapshot.lastPlayBytesFromNetwork);
+        assertEquals(2000, snapshot.preloadedBytes);
+        assertEquals(1200, snapshot.preloadUsedBytes);
+        assertEquals(600, snapshot.preloadEvictedBytes);
+        assertEquals(2, snapshot.evictions);
+        assertEquals(700, snapshot.evictedBytes);
+        assertEquals(0.6f, snapshot.getPreloadUtilization(), 0.001f);
+    }
+
+    @Test
+    public void restartingKeyFinishesPreviousPlay() {
+        CacheMetrics metrics = new CacheMetrics();
+        metrics.startPlay("a").onNetworkRead(10);
+        metrics.startPlay("a").onNetworkRead(20);
+        metrics.finishPlay("a");
+        metrics.finishPlay("a");
+        assertEquals(2, metrics.snapshot().plays);
+        assertEquals(30, metrics.snapshot().bytesFromNetwork);
+    }
+
+    @Test
+    public void discardedPreparesAreNotPlays() {
+        CacheMetrics metrics = new CacheMetrics();
+        metrics.onPreloaded("a", 1000);
+        metrics.startPlay("a").onCacheRead(500);
+        metrics.discardPlay("a");
+        metrics.discardPlay("a");
+
+        CacheMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(0, snapshot.plays);
+        assertEquals(1, snapshot.discardedPlays);
+        assertEquals(500, snapshot.bytesFromCache);
+        assertEquals(0, snapshot.preloadUsedBytes);
+    }
+
+    @Test
+    public void unfinishedPlaysAreBounded() {
+        CacheMetrics metrics = new CacheMetrics();
+        for (int i = 0; i < 100; i++) {
+            metrics.startPlay("key" + i).onNetworkRead(10);
+        }
+        CacheMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(0, snapshot.plays);
+        assertEquals(100 - 16, snapshot.discardedPlays);
+        // 丢弃的播放读取的字节数仍然计入
+        assertEquals(1000, snapshot.bytesFromNetwork);
+    }
+}
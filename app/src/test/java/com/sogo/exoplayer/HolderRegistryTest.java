@@ -0,0 +1,90 @@
+package com.sogo.exoplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class HolderRegistryTest {
+
+    private static final class Holder implements PlayerManager.PlayerHolder {
+        @Override
+        public void onDetached() {
+        }
+
+        @Override
+        public void preload() {
+        }
+
+        @Override
+        public void autoplay(long settleNs) {
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        HolderRegistry registry = new HolderRegistry(3);
+        Holder[] holders = new Holder[4];
+        for (int i = 0; i < 3; i++) {
+            holders[i] = new Holder();
+            registry.put(i, "url" + i, holders[i]);
+        }
+        registry.get("url0");
+        holders[3] = new Holder();
+        registry.put(3, "url3", holders[3]);
+
+        assertEquals(3, registry.size());
+        assertEquals(1, registry.getEvictedCount());
+        assertNull(registry.get("url1"));
+        assertNull(registry.getUrlAt(1));
+        assertSame(holders[0], registry.get("url0"));
+        assertEquals("url3", registry.getUrlAt(3));
+    }
+
+    @Test
+    public void removeAndReplaceClearPositions() {
+        HolderRegistry registry = new HolderRegistry(8);
+        Holder a = new Holder();
+        Holder b = new Holder();
+        registry.put(0, "url0", a);
+        registry.put(1, "url1", b);
+
+        registry.remove("url0");
+        assertNull(registry.get("url0"));
+        assertNull(registry.getUrlAt(0));
+
+        // 同一个 url 换到另一个位置, 旧位置不再指向它
+        registry.put(2, "url1", b);
+        assertNull(registry.getUrlAt(1));
+        assertEquals("url1", registry.getUrlAt(2));
+
+        // 位置被另一个 url 占用后, 移除旧 url 不影响新的
+        registry.put(2, "url2", a);
+        registry.remove("url1");
+        assertEquals("url2", registry.getUrlAt(2));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void purgesCollectedHolders() throws InterruptedException {
+        HolderRegistry registry = new HolderRegistry(8);
+        Holder kept = new Holder();
+        registry.put(0, "url0", kept);
+        registry.put(1, "url1", new Holder());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (registry.getCollectedCount() == 0 && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+            // 访问时才会清理
+            registry.size();
+        }
+        assertEquals(1, registry.getCollectedCount());
+        assertEquals(1, registry.size());
+        assertNull(registry.get("url1"));
+        assertNull(registry.getUrlAt(1));
+        assertSame(kept, registry.get("url0"));
+        assertEquals("url0", registry.getUrlAt(0));
+    }
+}
@@ -0,0 +1,274 @@
+package com.sogo.exoplayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Dns;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 本地的慢速服务, 按 Range 返回数据, 每 8KB 停一下.
+ * 预加载下载开头时开始播放, 比较直接下载和 attach 之后重复下载的字节数.
+ * 预加载像 {@link InFlightDataSink} 一样每 16KB 报告一次提交的位置.
+ */
+public class InFlightRangesTest {
+    private static final String KEY = "video";
+    private static final int CHUNK_BYTES = 8 * 1024;
+    private static final long CHUNK_DELAY_MS = 20;
+    private static final int PRELOAD_BYTES = 64 * 1024;
+    private static final int PLAY_BYTES = 128 * 1024;
+    private static final int FRAGMENT_BYTES = 16 * 1024;
+    // 不报告提交位置的长预加载, 下载完要 1.3 秒左右
+    private static final int SLOW_PRELOAD_BYTES = 512 * 1024;
+
+    private ServerSocket serverSocket;
+    private final AtomicLong servedBytes = new AtomicLong();
+    private UpstreamClient client;
+    private InFlightRanges ranges;
+    private String url;
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }).start();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        client = new UpstreamClient(UpstreamClient.DEFAULT_MAX_IDLE_CONNECTIONS, UpstreamClient.DEFAULT_KEEP_ALIVE_MS,
+                UpstreamClient.DEFAULT_MAX_REQUESTS_PER_HOST, UpstreamClient.DEFAULT_DNS_TTL_MS, false, new Dns() {
+            @Override
+            public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+                return Collections.singletonList(InetAddress.getByName("127.0.0.1"));
+            }
+        });
+        ranges = new InFlightRanges();
+        url = "http://video.test:" + serverSocket.getLocalPort() + "/video";
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        serverSocket.close();
+        client.getClient().connectionPool().evictAll();
+    }
+
+    @Test
+    public void playbackWithoutAttachDownloadsPreloadedBytesAgain() throws Exception {
+        Thread preload = startPreload(PRELOAD_BYTES, true);
+        awaitInFlight();
+        assertEquals(PLAY_BYTES, fetch(0, PLAY_BYTES, InFlightRanges.PRIORITY_PLAYBACK, false));
+        preload.join();
+
+        assertEquals(PRELOAD_BYTES, ranges.getDuplicateBytes());
+        assertEquals(PRELOAD_BYTES + PLAY_BYTES, servedBytes.get());
+    }
+
+    @Test
+    public void playbackAttachesToPreload() throws Exception {
+        Thread preload = startPreload(PRELOAD_BYTES, true);
+        awaitInFlight();
+        assertFalse(ranges.isPromoted(KEY));
+        // 第一段提交到缓存就返回, 不等整个预加载结束
+        long from = ranges.attach(KEY, 0, InFlightRanges.DEFAULT_ATTACH_TIMEOUT_MS);
+        assertEquals(FRAGMENT_BYTES, from);
+        assertTrue(ranges.isPromoted(KEY));
+        // 之后的位置等包含它的那一段
+        assertEquals(3 * FRAGMENT_BYTES, ranges.attach(KEY, 2 * FRAGMENT_BYTES + 1,
+                InFlightRanges.DEFAULT_ATTACH_TIMEOUT_MS));
+        preload.join();
+
+        // 预加载结束后, 开头已经在缓存里, 播放只下载剩下的部分
+        from = ranges.attach(KEY, PRELOAD_BYTES, InFlightRanges.DEFAULT_ATTACH_TIMEOUT_MS);
+        assertEquals(PRELOAD_BYTES, from);
+        assertEquals(PLAY_BYTES - PRELOAD_BYTES, fetch(from, PLAY_BYTES, InFlightRanges.PRIORITY_PLAYBACK, false));
+
+        assertEquals(0, ranges.getDuplicateBytes());
+        assertEquals(PLAY_BYTES, servedBytes.get());
+        assertEquals(2, ranges.getAttachCount());
+        assertEquals(1, ranges.getPromotedCount());
+        assertFalse(ranges.isPromoted(KEY));
+        assertEquals(0, ranges.getInFlightCount());
+    }
+
+    @Test
+    public void attachWaitsForPreloadWithoutCommits() throws Exception {
+        // 没有报告提交位置的预加载, 等它结束
+        Thread preload = startPreload(PRELOAD_BYTES, false);
+        awaitInFlight();
+        assertEquals(0, ranges.attach(KEY, 0, InFlightRanges.DEFAULT_ATTACH_TIMEOUT_MS));
+        assertEquals(0, ranges.getInFlightCount());
+        assertEquals(0, ranges.getAttachTimeoutCount());
+        preload.join();
+    }
+
+    @Test
+    public void attachTimesOut() throws Exception {
+        Thread preload = startPreload(PRELOAD_BYTES, true);
+        awaitInFlight();
+        assertEquals(0, ranges.attach(KEY, 0, CHUNK_DELAY_MS));
+        assertEquals(1, ranges.getAttachTimeoutCount());
+        preload.join();
+    }
+
+    @Test
+    public void attachGivesUpOnSlowPreloadAfterDefaultTimeout() throws Exception {
+        Thread preload = startPreload(SLOW_PRELOAD_BYTES, false);
+        awaitInFlight();
+        long start = System.currentTimeMillis();
+        assertEquals(0, ranges.attach(KEY, 0, InFlightRanges.DEFAULT_ATTACH_TIMEOUT_MS));
+        long waited = System.currentTimeMillis() - start;
+        // 超时后照常打开, 不等预加载下载完
+        assertTrue("waited " + waited + "ms", waited >= InFlightRanges.DEFAULT_ATTACH_TIMEOUT_MS);
+        assertEquals(1, ranges.getInFlightCount());
+        assertEquals(1, ranges.getAttachTimeoutCount());
+        preload.join();
+    }
+
+    @Test
+    public void attachWithoutPreloadReturnsImmediately() throws Exception {
+        assertEquals(100, ranges.attach(KEY, 100, InFlightRanges.DEFAULT_ATTACH_TIMEOUT_MS));
+        assertEquals(0, ranges.getAttachCount());
+        // 预加载范围之外的位置不用等
+        Thread preload = startPreload(PRELOAD_BYTES, true);
+        awaitInFlight();
+        assertEquals(PRELOAD_BYTES, ranges.attach(KEY, PRELOAD_BYTES, InFlightRanges.DEFAULT_ATTACH_TIMEOUT_MS));
+        assertEquals(0, ranges.getAttachCount());
+        preload.join();
+    }
+
+    /**
+     * @param commit 是否每 {@link #FRAGMENT_BYTES} 报告一次提交的位置
+     */
+    private Thread startPreload(final int bytes, final boolean commit) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fetch(0, bytes, InFlightRanges.PRIORITY_PRELOAD, commit);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        thread.start();
+        return thread;
+    }
+
+    private void awaitInFlight() throws InterruptedException {
+        while (ranges.getInFlightCount() == 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * 下载 [start, end), 在 ranges 登记
+     *
+     * @param commit 和 {@link InFlightDataSink} 一样报告提交到缓存的位置
+     */
+    private long fetch(long start, long end, int priority, boolean commit) throws IOException {
+        InFlightRanges.Fetch fetch = ranges.begin(KEY, start, end - start, priority);
+        InFlightRanges.Fetch committing = commit ? ranges.beginCommit(KEY, start) : null;
+        long total = 0;
+        try {
+            Request request = new Request.Builder().url(url)
+                    .header("Range", "bytes=" + start + "-" + (end - 1)).build();
+            Response response = client.getClient().newCall(request).execute();
+            try {
+                InputStream in = response.body().byteStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    ranges.onBytes(fetch, read);
+                    total += read;
+                    if (committing != null && total > FRAGMENT_BYTES) {
+                        ranges.onCommitted(committing, start + (total - 1) / FRAGMENT_BYTES * FRAGMENT_BYTES);
+                    }
+                }
+                return total;
+            } finally {
+                response.close();
+            }
+        } finally {
+            // 和 TeeDataSource 一样, 先关闭 upstream 再关闭 sink
+            ranges.end(fetch);
+            if (committing != null) {
+                ranges.onCommitted(committing, start + total);
+                ranges.endCommit(committing);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            OutputStream out = socket.getOutputStream();
+            byte[] chunk = new byte[CHUNK_BYTES];
+            String line;
+            while (in.readLine() != null) {
+                long start = 0;
+                long end = 0;
+                while ((line = in.readLine()) != null && !line.isEmpty()) {
+                    if (line.toLowerCase().startsWith("range: bytes=")) {
+                        String[] range = line.substring("range: bytes=".length()).split("-");
+                        start = Long.parseLong(range[0].trim());
+                        end = Long.parseLong(range[1].trim()) + 1;
+                    }
+                }
+                long length = end - start;
+                out.write(("HTTP/1.1 206 Partial Content\r\nContent-Length: " + length
+                        + "\r\nContent-Range: bytes " + start + "-" + (end - 1) + "/*\r\n\r\n").getBytes("UTF-8"));
+                for (long sent = 0; sent < length; ) {
+                    int n = (int) Math.min(CHUNK_BYTES, length - sent);
+                    Thread.sleep(CHUNK_DELAY_MS);
+                    // 先计数, 客户端读完时计数已经更新
+                    servedBytes.addAndGet(n);
+                    out.write(chunk, 0, n);
+                    out.flush();
+                    sent += n;
+                }
+            }
+        } catch (IOException | InterruptedException ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.sogo.exoplayer;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class IntLruMapTest {
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        IntLruMap<String> map = new IntLruMap<>(3);
+        map.put(1, "a");
+        map.put(2, "b");
+        map.put(3, "c");
+        map.get(1);
+        map.put(4, "d");
+        assertNull(map.get(2));
+        assertEquals("a", map.get(1));
+        assertEquals(3, map.size());
+        assertEquals("d", map.remove(4));
+        assertNull(map.remove(4));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void matchesLinkedHashMap() {
+        final int maxSize = 100;
+        IntLruMap<Integer> map = new IntLruMap<>(maxSize);
+        Map<Integer, Integer> expected = new LinkedHashMap<Integer, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+                return size() > maxSize;
+            }
+        };
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            // 负数和冲突较多的 key 也要覆盖
+            int key = (random.nextInt(300) - 150) * 1024;
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(expected.put(key, i), map.put(key, i));
+                    break;
+                case 1:
+                    assertEquals(expected.get(key), map.get(key));
+                    break;
+                default:
+                    assertEquals(expected.remove(key), map.remove(key));
+                    break;
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        final StringBuilder order = new StringBuilder();
+        map.forEach(new IntLruMap.Visitor<Integer>() {
+            @Override
+            public void visit(int key, Integer value) {
+                order.append(key).append(',');
+            }
+        });
+        StringBuilder expectedOrder = new StringBuilder();
+        for (Integer key : expected.keySet()) {
+            expectedOrder.append(key).append(',');
+        }
+        assertEquals(expectedOrder.toString(), order.toString());
+    }
+}
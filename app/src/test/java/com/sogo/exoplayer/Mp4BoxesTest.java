@@ -0,0 +1,83 @@
+package com.sogo.exoplayer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class Mp4BoxesTest {
+
+    @Test
+    public void findsFirstVideoSampleEnd() throws IOException {
+        byte[] audio = trak(0x736f756e, stbl(stco(100), stsz(0, 50)));
+        byte[] video = trak(Mp4Boxes.HANDLER_VIDE, stbl(stco(4000), stsz(0, 12000)));
+        byte[] moov = box(Mp4Boxes.TYPE_MOOV, concat(audio, video));
+
+        assertEquals(16000, Mp4Boxes.findFirstVideoSampleEnd(moov, moov.length));
+    }
+
+    @Test
+    public void usesFixedSampleSize() throws IOException {
+        byte[] video = trak(Mp4Boxes.HANDLER_VIDE, stbl(stco(4000), stsz(800, 0)));
+        byte[] moov = box(Mp4Boxes.TYPE_MOOV, video);
+
+        assertEquals(4800, Mp4Boxes.findFirstVideoSampleEnd(moov, moov.length));
+    }
+
+    @Test
+    public void rejectsTruncatedMoov() throws IOException {
+        byte[] video = trak(Mp4Boxes.HANDLER_VIDE, stbl(stco(4000), stsz(0, 12000)));
+        byte[] moov = box(Mp4Boxes.TYPE_MOOV, video);
+
+        assertEquals(-1, Mp4Boxes.findFirstVideoSampleEnd(moov, moov.length - 4));
+        assertEquals(-1, Mp4Boxes.findFirstVideoSampleEnd(new byte[4], 4));
+    }
+
+    private static byte[] trak(int handler, byte[] stbl) throws IOException {
+        byte[] hdlr = box(Mp4Boxes.TYPE_HDLR, ints(0, 0, handler));
+        byte[] minf = box(Mp4Boxes.TYPE_MINF, stbl);
+        return box(Mp4Boxes.TYPE_TRAK, box(Mp4Boxes.TYPE_MDIA, concat(hdlr, minf)));
+    }
+
+    private static byte[] stbl(byte[] stco, byte[] stsz) throws IOException {
+        return box(Mp4Boxes.TYPE_STBL, concat(stco, stsz));
+    }
+
+    private static byte[] stco(int firstChunkOffset) throws IOException {
+        return box(Mp4Boxes.TYPE_STCO, ints(0, 1, firstChunkOffset));
+    }
+
+    private static byte[] stsz(int sampleSize, int firstEntry) throws IOException {
+        return sampleSize != 0
+                ? box(Mp4Boxes.TYPE_STSZ, ints(0, sampleSize, 10))
+                : box(Mp4Boxes.TYPE_STSZ, ints(0, 0, 1, firstEntry));
+    }
+
+    private static byte[] box(int type, byte[] payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(Mp4Boxes.HEADER_SIZE + payload.length);
+        out.writeInt(type);
+        out.write(payload);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] ints(int... values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
@@ -0,0 +1,163 @@
+package com.sogo.exoplayer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PlaybackTimingsTest {
+    private static final long MS = 1000000L;
+
+    @Test
+    public void stagesAreRelativeToTap() {
+        PlaybackTimings timings = new PlaybackTimings();
+        PlaybackTimings.Session session = timings.session("a");
+        long tap = System.nanoTime();
+        session.mark(PlaybackTimings.TAP, tap);
+        session.mark(PlaybackTimings.ATTACH, tap + 5 * MS);
+        assertSame(session, timings.startSession("a"));
+        session.mark(PlaybackTimings.FIRST_BYTES, tap + 120 * MS);
+        session.mark(PlaybackTimings.FIRST_BYTES, tap + 500 * MS);
+        session.mark(PlaybackTimings.FIRST_FRAME, tap + 350 * MS);
+
+        assertEquals(5, session.getElapsedMs(PlaybackTimings.ATTACH));
+        assertEquals(120, session.getElapsedMs(PlaybackTimings.FIRST_BYTES));
+        assertEquals(350, session.getElapsedMs(PlaybackTimings.FIRST_FRAME));
+        assertEquals(-1, session.getElapsedMs(PlaybackTimings.TRACKS_SELECTED));
+
+        timings.finish("a");
+        assertEquals(1, timings.getFinishedCount());
+        PlaybackTimings.Percentiles firstFrame = timings.getPercentiles(PlaybackTimings.FIRST_FRAME);
+        assertEquals(1, firstFrame.count);
+        assertEquals(360, firstFrame.p50);
+    }
+
+    @Test
+    public void preparedAheadStagesCountAsZero() {
+        PlaybackTimings timings = new PlaybackTimings();
+        long now = System.nanoTime();
+        PlaybackTimings.Session prepared = timings.startSession("b");
+        prepared.mark(PlaybackTimings.FIRST_BYTES, now);
+        prepared.mark(PlaybackTimings.SOURCE_PREPARED, now + 10 * MS);
+
+        PlaybackTimings.Session session = timings.session("b");
+        assertSame(prepared, session);
+        session.mark(PlaybackTimings.TAP, now + 1000 * MS);
+        assertEquals(0, session.getElapsedMs(PlaybackTimings.FIRST_BYTES));
+        assertEquals(0, session.getElapsedMs(PlaybackTimings.SOURCE_PREPARED));
+
+        // 没有播放的提前 prepare 记录不计入汇总, 再次 prepare 时替换
+        PlaybackTimings.Session stale = timings.startSession("c");
+        assertNotSame(stale, timings.startSession("c"));
+        timings.finish("c");
+        assertEquals(0, timings.getFinishedCount());
+    }
+
+    @Test
+    public void autoplaySwitchIsMeasuredFromSettle() {
+        PlaybackTimings timings = new PlaybackTimings();
+        long settle = System.nanoTime();
+        // 惯性滑动时已经提前 prepare
+        PlaybackTimings.Session prepared = timings.startSession("e");
+        prepared.mark(PlaybackTimings.SOURCE_PREPARED, settle - 200 * MS);
+
+        PlaybackTimings.Session session = timings.onSettle("e", settle);
+        assertSame(prepared, session);
+        assertTrue(session.isAutoplay());
+        session.mark(PlaybackTimings.ATTACH, settle + 250 * MS);
+        session.mark(PlaybackTimings.FIRST_FRAME, settle + 305 * MS);
+        assertEquals(0, session.getElapsedMs(PlaybackTimings.SOURCE_PREPARED));
+        timings.finish("e");
+
+        PlaybackTimings.Percentiles autoplay = timings.getPercentiles(PlaybackTimings.AUTOPLAY_SWITCH);
+        assertEquals(1, autoplay.count);
+        assertEquals(310, autoplay.p50);
+
+        // 点击播放的不计入
+        PlaybackTimings.Session tapped = timings.session("f");
+        tapped.mark(PlaybackTimings.TAP, settle);
+        tapped.mark(PlaybackTimings.FIRST_FRAME, settle + 100 * MS);
+        timings.finish("f");
+        assertEquals(1, timings.getPercentiles(PlaybackTimings.AUTOPLAY_SWITCH).count);
+        assertEquals(2, timings.getPercentiles(PlaybackTimings.FIRST_FRAME).count);
+    }
+
+    @Test
+    public void rebuffersAfterFirstFrameAreRecorded() {
+        PlaybackTimings timings = new PlaybackTimings();
+        PlaybackTimings.Session session = timings.session("d");
+        long t = System.nanoTime();
+        session.mark(PlaybackTimings.TAP, t);
+        // 起播前的缓冲不算
+        session.onBuffering(t);
+        session.onReady(t + 300 * MS);
+        session.mark(PlaybackTimings.FIRST_FRAME, t + 300 * MS);
+        session.onBuffering(t + 2000 * MS);
+        session.onReady(t + 2800 * MS);
+        // seek 引起的缓冲不算
+        session.onSeek();
+        session.onBuffering(t + 3000 * MS);
+        session.onReady(t + 3500 * MS);
+
+        assertEquals(1, session.getRebufferCount());
+        assertEquals(800, session.getRebufferMs());
+        PlaybackTimings.Percentiles rebuffer = timings.getPercentiles(PlaybackTimings.REBUFFER);
+        assertEquals(1, rebuffer.count);
+        assertEquals(810, rebuffer.p50);
+    }
+
+    @Test
+    public void percentilesFromManySessions() {
+        PlaybackTimings timings = new PlaybackTimings();
+        long t = System.nanoTime();
+        for (int i = 1; i <= 1000; i++) {
+            String key = "k" + i;
+            PlaybackTimings.Session session = timings.session(key);
+            session.mark(PlaybackTimings.TAP, t);
+            // 1ms ~ 1000ms 均匀分布, 另有 1% 很慢
+            long ms = i <= 990 ? i : 5000 + i;
+            session.mark(PlaybackTimings.FIRST_FRAME, t + ms * MS);
+            timings.finish(key);
+        }
+        PlaybackTimings.Percentiles p = timings.getPercentiles(PlaybackTimings.FIRST_FRAME);
+        assertEquals(1000, p.count);
+        assertEquals(510, p.p50);
+        assertEquals(960, p.p95);
+        assertEquals(1000, p.p99);
+        assertTrue(timings.dump().contains("firstFrame: n=1000 p50=510 p95=960 p99=1000"));
+    }
+
+    @Test
+    public void concurrentSessionsDoNotLoseSamples() throws Exception {
+        final PlaybackTimings timings = new PlaybackTimings();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final int thread = i;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 2000; j++) {
+                        String key = thread + ":" + j;
+                        PlaybackTimings.Session session = timings.session(key);
+                        session.mark(PlaybackTimings.TAP);
+                        session.mark(PlaybackTimings.FIRST_FRAME);
+                        timings.finish(key);
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(8000, timings.getFinishedCount());
+        assertEquals(8000, timings.getPercentiles(PlaybackTimings.FIRST_FRAME).count);
+    }
+}
@@ -0,0 +1,104 @@
+package com.sogo.exoplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PreloadBudgetTest {
+
+    @Test
+    public void fallsBackToWifiSwitchWithoutSamples() {
+        PreloadBudget budget = new PreloadBudget();
+        assertEquals(2, budget.getLookAhead(true));
+        assertEquals(0, budget.getLookAhead(false));
+        assertFalse(budget.shouldPreload(1, false));
+        assertTrue(budget.shouldPreload(1, true));
+    }
+
+    @Test
+    public void congestedWifiStopsPreloading() {
+        PreloadBudget budget = new PreloadBudget();
+        simulate(budget, 300 * 1000, 900);
+        assertEquals(0, budget.getLookAhead(true));
+        assertFalse(budget.allowsBackgroundLoading(true));
+        assertFalse(budget.shouldPreload(1, true));
+    }
+
+    @Test
+    public void fastCellularPreloadsNextRow() {
+        PreloadBudget budget = new PreloadBudget();
+        simulate(budget, 20 * 1000 * 1000, 80);
+        assertEquals(1, budget.getLookAhead(false));
+        assertEquals(PreloadBudget.MAX_METERED_HEAD_BYTES, budget.getHeadBytes(false));
+        assertTrue(budget.shouldPreload(1, false));
+        assertFalse(budget.shouldPreload(2, false));
+
+        assertEquals(3, budget.getLookAhead(true));
+        assertEquals(PreloadBudget.MAX_HEAD_BYTES, budget.getHeadBytes(true));
+    }
+
+    @Test
+    public void headBytesFollowBandwidth() {
+        PreloadBudget budget = new PreloadBudget();
+        simulate(budget, 4 * 1000 * 1000, 100);
+        assertEquals(2, budget.getLookAhead(true));
+        assertEquals(500 * 1000, budget.getHeadBytes(true));
+
+        // 延迟变高后少预加载一个
+        for (int i = 0; i < 10; i++) {
+            budget.onLatencySample(2000);
+        }
+        assertEquals(1, budget.getLookAhead(true));
+    }
+
+    @Test
+    public void sessionBudgetIsEnforced() {
+        PreloadBudget budget = new PreloadBudget();
+        simulate(budget, 20 * 1000 * 1000, 80);
+        budget.onPreloaded(PreloadBudget.METERED_SESSION_BYTES);
+        assertFalse(budget.shouldPreload(1, false));
+        assertTrue(budget.shouldPreload(1, true));
+        assertEquals(1, budget.getDeniedCount());
+        assertEquals(1, budget.getAllowedCount());
+
+        budget.resetSession();
+        assertTrue(budget.shouldPreload(1, false));
+    }
+
+    @Test
+    public void resetEstimatesFallsBackToWifiSwitch() {
+        PreloadBudget budget = new PreloadBudget();
+        simulate(budget, 20 * 1000 * 1000, 80);
+        assertEquals(3, budget.getLookAhead(true));
+        assertTrue(budget.allowsBackgroundLoading(false));
+
+        budget.resetEstimates();
+        assertEquals(2, budget.getLookAhead(true));
+        assertEquals(0, budget.getLookAhead(false));
+        assertFalse(budget.allowsBackgroundLoading(false));
+    }
+
+    @Test
+    public void backgroundLoadingFlagFollowsState() {
+        PreloadBudget budget = new PreloadBudget();
+        assertTrue(budget.allowsBackgroundLoading(true));
+        assertFalse(budget.allowsBackgroundLoading(false));
+
+        simulate(budget, 20 * 1000 * 1000, 80);
+        assertTrue(budget.allowsBackgroundLoading(false));
+        budget.onPreloaded(PreloadBudget.METERED_SESSION_BYTES);
+        assertFalse(budget.allowsBackgroundLoading(false));
+        assertTrue(budget.allowsBackgroundLoading(true));
+        budget.resetSession();
+        assertTrue(budget.allowsBackgroundLoading(false));
+    }
+
+    private static void simulate(PreloadBudget budget, long bitrate, long latencyMs) {
+        for (int i = 0; i < 5; i++) {
+            budget.onBandwidthSample(bitrate);
+            budget.onLatencySample(latencyMs);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.sogo.exoplayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PreloadSchedulerTest {
+
+    private static final long PLANNED_BYTES = 1024 * 1024;
+    private static final long CHUNK_BYTES = 1024;
+
+    private final List<String> loaded = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private PreloadScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        // 单个工作线程, 第一个任务会阻塞在 gate 上, 方便观察队列
+        scheduler = new PreloadScheduler(1, 4, 3, new PreloadScheduler.Preloader() {
+            @Override
+            public void preload(String videoUrl, PreloadHandle handle) {
+                loaded.add(videoUrl);
+                handle.setPlannedBytes(PLANNED_BYTES);
+                handle.addDownloadedBytes(CHUNK_BYTES);
+                started.countDown();
+                // 模拟下载, 每次读取后检查取消
+                long deadline = System.currentTimeMillis() + 5000;
+                while (gate.getCount() > 0 && !handle.isCanceled() && System.currentTimeMillis() < deadline) {
+                    if (handle.getDownloadedBytes() < PLANNED_BYTES) {
+                        handle.addDownloadedBytes(CHUNK_BYTES);
+                    }
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void runsNearestFirst() throws Exception {
+        scheduler.submit(0, "url0");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.getInFlightCount());
+
+        scheduler.submit(3, "url3");
+        scheduler.submit(1, "url1");
+        scheduler.submit(2, "url2");
+        assertEquals(3, scheduler.getQueueDepth());
+
+        gate.countDown();
+        waitForCompleted(4);
+        assertEquals("url0", loaded.get(0));
+        assertEquals("url1", loaded.get(1));
+        assertEquals("url2", loaded.get(2));
+        assertEquals("url3", loaded.get(3));
+    }
+
+    @Test
+    public void deduplicatesAndCancels() throws Exception {
+        scheduler.submit(0, "url0");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertFalse(scheduler.submit(0, "url0"));
+        assertTrue(scheduler.submit(1, "url1"));
+        assertFalse(scheduler.submit(1, "url1"));
+        assertTrue(scheduler.submit(2, "url2"));
+        assertEquals(2, scheduler.getDeduplicatedCount());
+
+        assertTrue(scheduler.cancel("url1"));
+        assertFalse(scheduler.cancel("url1"));
+        assertEquals(1, scheduler.getQueueDepth());
+
+        // 可见位置移走后, 超出范围的任务被取消
+        scheduler.setVisiblePosition(10);
+        assertEquals(0, scheduler.getQueueDepth());
+        assertEquals(2, scheduler.getCancelledCount());
+
+        gate.countDown();
+        waitForCompleted(1);
+        assertEquals(1, loaded.size());
+    }
+
+    @Test
+    public void dropsFarthestWhenQueueFull() throws Exception {
+        scheduler.submit(0, "url0");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        scheduler.submit(3, "url3");
+        scheduler.submit(1, "url1");
+        scheduler.submit(2, "url2");
+        scheduler.submit(-1, "url-1");
+        scheduler.submit(-2, "url-2");
+        assertEquals(4, scheduler.getQueueDepth());
+        assertEquals(1, scheduler.getCancelledCount());
+
+        gate.countDown();
+        waitForCompleted(5);
+        assertFalse(loaded.contains("url3"));
+    }
+
+    @Test
+    public void cancelsRunningPreload() throws Exception {
+        scheduler.submit(0, "url0");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(scheduler.cancel("url0"));
+        assertFalse(scheduler.cancel("url0"));
+
+        // 不需要等 gate, 取消后马上结束
+        waitForCompleted(1);
+        assertEquals(1, scheduler.getCancelledInFlightCount());
+        long downloaded = scheduler.getCancelledDownloadedBytes();
+        assertTrue(downloaded > 0 && downloaded < PLANNED_BYTES);
+        assertEquals(PLANNED_BYTES - downloaded, scheduler.getSavedBytes());
+    }
+
+    @Test
+    public void resubmitAfterCancelRunsAgain() throws Exception {
+        scheduler.submit(0, "url0");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(scheduler.cancel("url0"));
+        // 条目滑回来, 被取消的任务可能还没结束
+        assertTrue(scheduler.submit(0, "url0"));
+        assertEquals(0, scheduler.getDeduplicatedCount());
+
+        gate.countDown();
+        waitForCompleted(2);
+        assertEquals(2, loaded.size());
+        assertEquals("url0", loaded.get(1));
+        assertEquals(1, scheduler.getCancelledInFlightCount());
+    }
+
+    @Test
+    public void startingAnotherVideoCancelsOthers() throws Exception {
+        scheduler.submit(0, "url0");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        scheduler.submit(1, "url1");
+        scheduler.submit(2, "url2");
+
+        assertEquals(2, scheduler.cancelOthers("url2"));
+        assertEquals(1, scheduler.getQueueDepth());
+        waitForCompleted(2);
+        assertEquals(1, scheduler.getCancelledInFlightCount());
+        assertEquals("url2", loaded.get(1));
+    }
+
+    @Test
+    public void scrollingAwayCancelsRunningPreload() throws Exception {
+        scheduler.submit(0, "url0");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        scheduler.setVisiblePosition(10);
+        waitForCompleted(1);
+        assertEquals(1, scheduler.getCancelledInFlightCount());
+    }
+
+    private void waitForCompleted(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (scheduler.getCompletedCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, scheduler.getCompletedCount());
+    }
+}
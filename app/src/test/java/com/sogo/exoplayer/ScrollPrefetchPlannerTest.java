@@ -0,0 +1,81 @@
+package com.sogo.exoplayer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScrollPrefetchPlannerTest {
+    private static final int ITEMS = 100;
+    private static final int VISIBLE = 2;
+    private static final int LOOK_AHEAD = 2;
+
+    private final ScrollPrefetchPlanner planner = new ScrollPrefetchPlanner();
+
+    @Test
+    public void flingSkipsRowsThatFlyPast() {
+        ScrollPrefetchPlanner.Plan plan = planner.plan(10, VISIBLE, 30f, 20.4f, ITEMS, LOOK_AHEAD);
+        assertTrue(plan.isFling());
+        assertEquals(30, plan.settlePosition);
+        assertEquals(30, plan.anchor);
+        assertEquals(30, plan.preparePosition);
+        // 停下时可见的两行, 然后往下两行
+        assertEquals(Arrays.asList(30, 31, 32, 33), plan.preloadPositions);
+        assertFalse(plan.skips(11));
+        assertTrue(plan.skips(12));
+        assertTrue(plan.skips(29));
+        assertFalse(plan.skips(30));
+    }
+
+    @Test
+    public void flingUpPreloadsAboveSettle() {
+        ScrollPrefetchPlanner.Plan plan = planner.plan(50, VISIBLE, -40f, -30f, ITEMS, LOOK_AHEAD);
+        assertEquals(20, plan.settlePosition);
+        assertEquals(Arrays.asList(20, 21, 19, 18), plan.preloadPositions);
+        assertTrue(plan.skips(22));
+        assertTrue(plan.skips(49));
+        assertFalse(plan.skips(50));
+        assertFalse(plan.skips(21));
+    }
+
+    @Test
+    public void flingIsClampedToListEnd() {
+        ScrollPrefetchPlanner.Plan plan = planner.plan(90, VISIBLE, 50f, 40f, ITEMS, LOOK_AHEAD);
+        assertEquals(ITEMS - VISIBLE, plan.settlePosition);
+        assertEquals(Arrays.asList(98, 99), plan.preloadPositions);
+    }
+
+    @Test
+    public void slowScrollPreloadsFurtherAhead() {
+        ScrollPrefetchPlanner.Plan plan = planner.plan(10, VISIBLE, 1f, 0f, ITEMS, LOOK_AHEAD);
+        assertFalse(plan.isFling());
+        assertEquals(10, plan.anchor);
+        assertEquals(ScrollPrefetchPlanner.NO_POSITION, plan.preparePosition);
+        assertEquals(Arrays.asList(10, 11, 12, 13, 14), plan.preloadPositions);
+        assertFalse(plan.skips(12));
+    }
+
+    @Test
+    public void normalScrollFollowsDirection() {
+        ScrollPrefetchPlanner.Plan plan = planner.plan(10, VISIBLE, -3f, 0f, ITEMS, LOOK_AHEAD);
+        assertEquals(Arrays.asList(10, 11, 9, 8), plan.preloadPositions);
+    }
+
+    @Test
+    public void fastScrollWithoutFlingIsNotAFling() {
+        // 手指快速拖动但没有惯性
+        ScrollPrefetchPlanner.Plan plan = planner.plan(10, VISIBLE, 20f, 0f, ITEMS, LOOK_AHEAD);
+        assertFalse(plan.isFling());
+        assertEquals(Arrays.asList(10, 11, 12, 13), plan.preloadPositions);
+    }
+
+    @Test
+    public void noBudgetStillPreparesSettleRow() {
+        ScrollPrefetchPlanner.Plan plan = planner.plan(0, VISIBLE, 30f, 10f, ITEMS, 0);
+        assertTrue(plan.preloadPositions.isEmpty());
+        assertEquals(10, plan.preparePosition);
+    }
+}
@@ -0,0 +1,89 @@
+package com.sogo.exoplayer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentPoolTest {
+    private static final int SEGMENT = 1024;
+
+    @Test
+    public void recycledSegmentsAreReused() {
+        SegmentPool pool = new SegmentPool(SEGMENT, 64 * SEGMENT, 64 * SEGMENT);
+        byte[] first = pool.obtain();
+        assertEquals(SEGMENT, first.length);
+        pool.recycle(first);
+        assertSame(first, pool.obtain());
+        assertEquals(2, pool.getObtainCount());
+        assertEquals(1, pool.getReuseCount());
+        assertEquals(SEGMENT, pool.getInUseBytes());
+    }
+
+    @Test
+    public void keepsAtMostMaxFreeBytes() {
+        SegmentPool pool = new SegmentPool(SEGMENT, 64 * SEGMENT, 4 * SEGMENT);
+        List<byte[]> segments = obtain(pool, 40);
+        for (byte[] segment : segments) {
+            pool.recycle(segment);
+        }
+        assertEquals(0, pool.getInUseBytes());
+        assertEquals(4 * SEGMENT, pool.getFreeBytes());
+        assertEquals(36, pool.getTrimmedCount());
+        assertEquals(40 * SEGMENT, pool.getPeakInUseBytes());
+    }
+
+    @Test
+    public void reportsGlobalBudget() {
+        SegmentPool pool = new SegmentPool(SEGMENT, 8 * SEGMENT, 8 * SEGMENT);
+        List<byte[]> segments = obtain(pool, 7);
+        assertFalse(pool.isOverBudget());
+        segments.add(pool.obtain());
+        assertTrue(pool.isOverBudget());
+        pool.recycle(segments.remove(0));
+        assertFalse(pool.isOverBudget());
+    }
+
+    @Test
+    public void trimReleasesFreeSegments() {
+        SegmentPool pool = new SegmentPool(SEGMENT, 64 * SEGMENT, 32 * SEGMENT);
+        for (byte[] segment : obtain(pool, 20)) {
+            pool.recycle(segment);
+        }
+        assertEquals(15, pool.trim(5 * SEGMENT));
+        assertEquals(5 * SEGMENT, pool.getFreeBytes());
+        assertEquals(5, pool.trim(0));
+        assertEquals(0, pool.getFreeBytes());
+        // 池子空了以后重新分配
+        assertEquals(SEGMENT, pool.obtain().length);
+        assertEquals(0, pool.getReuseCount());
+    }
+
+    /**
+     * 模拟连续切换 20 个视频, 每个 player 用到 200 块后全部释放
+     */
+    @Test
+    public void switchingPlayersStopsAllocating() {
+        SegmentPool pool = new SegmentPool(SEGMENT, 1024 * SEGMENT, 256 * SEGMENT);
+        for (int i = 0; i < 20; i++) {
+            for (byte[] segment : obtain(pool, 200)) {
+                pool.recycle(segment);
+            }
+        }
+        assertEquals(20 * 200, pool.getObtainCount());
+        assertEquals(19 * 200, pool.getReuseCount());
+    }
+
+    private static List<byte[]> obtain(SegmentPool pool, int count) {
+        List<byte[]> segments = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            segments.add(pool.obtain());
+        }
+        return segments;
+    }
+}
@@ -0,0 +1,112 @@
+package com.sogo.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheSpan;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentedPreloaderTest {
+
+    private static final String KEY = "video";
+
+    @Test
+    public void missingRangesSkipCachedSpans() {
+        SegmentedPreloader preloader = new SegmentedPreloader(cache(0, 100, 200, 100), null);
+
+        List<SegmentedPreloader.Range> missing = preloader.getMissingRanges(KEY, new SegmentedPreloader.Range(50, 400));
+        assertEquals(2, missing.size());
+        assertRange(100, 100, missing.get(0));
+        assertRange(300, 150, missing.get(1));
+    }
+
+    @Test
+    public void missingRangesKeepUnknownLength() {
+        SegmentedPreloader preloader = new SegmentedPreloader(cache(0, 100), null);
+
+        List<SegmentedPreloader.Range> missing = preloader.getMissingRanges(KEY,
+                new SegmentedPreloader.Range(0, C.LENGTH_UNSET));
+        assertEquals(1, missing.size());
+        assertRange(100, C.LENGTH_UNSET, missing.get(0));
+    }
+
+    @Test
+    public void fullyCachedRangeHasNothingMissing() {
+        SegmentedPreloader preloader = new SegmentedPreloader(cache(0, 100, 100, 100), null);
+
+        assertTrue(preloader.getMissingRanges(KEY, new SegmentedPreloader.Range(20, 150)).isEmpty());
+    }
+
+    @Test
+    public void resumesFromWhereInterruptedPreloadStopped() {
+        // mdat 从 1000 开始, moov 在文件末尾; 上次预加载下载了开头 3000 和 moov 的一半后被取消
+        SegmentedPreloader.Layout layout = new SegmentedPreloader.Layout(1000, 1500,
+                new SegmentedPreloader.Range(90000, 2000));
+        SegmentedPreloader preloader = new SegmentedPreloader(cache(0, 3000, 90000, 1000), null);
+
+        List<SegmentedPreloader.Range> plan = layout.getRanges(4000);
+        assertEquals(2, plan.size());
+        assertRange(0, 5000, plan.get(0));
+        assertEquals(2000 + 1000, preloader.getMissingBytes(KEY, plan));
+
+        List<SegmentedPreloader.Range> head = preloader.getMissingRanges(KEY, plan.get(0));
+        assertEquals(1, head.size());
+        assertRange(3000, 2000, head.get(0));
+        List<SegmentedPreloader.Range> moov = preloader.getMissingRanges(KEY, plan.get(1));
+        assertEquals(1, moov.size());
+        assertRange(91000, 1000, moov.get(0));
+    }
+
+    @Test
+    public void layoutsAreBoundedLru() {
+        SegmentedPreloader preloader = new SegmentedPreloader(cache(), null, 2);
+        SegmentedPreloader.Layout layout = new SegmentedPreloader.Layout(1000, 1500, null);
+        preloader.putLayout("a", layout);
+        preloader.putLayout("b", layout);
+        assertNotNull(preloader.getLayout("a"));
+        preloader.putLayout("c", layout);
+
+        assertEquals(2, preloader.getLayoutCount());
+        assertNull(preloader.getLayout("b"));
+        assertNotNull(preloader.getLayout("a"));
+        assertNotNull(preloader.getLayout("c"));
+    }
+
+    private static void assertRange(long position, long length, SegmentedPreloader.Range range) {
+        assertEquals(position, range.position);
+        assertEquals(length, range.length);
+    }
+
+    /**
+     * 只实现 getCachedSpans 的缓存, spans 依次是每段的位置和长度
+     */
+    private static Cache cache(long... spans) {
+        final NavigableSet<CacheSpan> cached = new TreeSet<>();
+        for (int i = 0; i < spans.length; i += 2) {
+            cached.add(new CacheSpan(KEY, spans[i], spans[i + 1], 0, new File(KEY + "." + i)));
+        }
+        return (Cache) Proxy.newProxyInstance(Cache.class.getClassLoader(), new Class[]{Cache.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getCachedSpans".equals(method.getName())) {
+                            return KEY.equals(args[0]) ? cached : new TreeSet<CacheSpan>();
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,216 @@
+package com.sogo.exoplayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Dns;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 本地的 HTTP/1.1 keep-alive 服务, 统计建立的连接数和同时处理的请求数.
+ * /slow 等待一段时间再返回.
+ */
+public class UpstreamClientTest {
+    private static final String HOST = "video.test";
+    private static final int BODY_BYTES = 16 * 1024;
+    private static final long SLOW_MS = 100;
+
+    private ServerSocket serverSocket;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger dnsLookups = new AtomicInteger();
+    private UpstreamClient client;
+    private String base;
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        connections.incrementAndGet();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }).start();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        client = new UpstreamClient(UpstreamClient.DEFAULT_MAX_IDLE_CONNECTIONS, UpstreamClient.DEFAULT_KEEP_ALIVE_MS,
+                2, UpstreamClient.DEFAULT_DNS_TTL_MS, false, new Dns() {
+            @Override
+            public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+                dnsLookups.incrementAndGet();
+                return Collections.singletonList(InetAddress.getByName("127.0.0.1"));
+            }
+        });
+        base = "http://" + HOST + ":" + serverSocket.getLocalPort();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        serverSocket.close();
+        client.getClient().connectionPool().evictAll();
+    }
+
+    @Test
+    public void sequentialRequestsReuseOneConnection() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            assertEquals(BODY_BYTES, fetch("/video?i=" + i));
+        }
+        assertEquals(1, connections.get());
+        assertEquals(1, dnsLookups.get());
+        assertEquals(1, client.getIdleConnectionCount());
+    }
+
+    @Test
+    public void newConnectionsUseCachedDns() throws IOException {
+        fetch("/video");
+        client.getClient().connectionPool().evictAll();
+        fetch("/video");
+        assertEquals(2, connections.get());
+        assertEquals(1, dnsLookups.get());
+        assertEquals(1, client.getDns().getHitCount());
+    }
+
+    @Test
+    public void concurrentRequestsAreLimitedPerHost() throws Exception {
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final int n = i;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (fetch("/slow?i=" + n) != BODY_BYTES) {
+                            failures.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(0, failures.get());
+        assertEquals(2, maxInFlight.get());
+        // 超过限制的请求等前面的完成, 复用它们的连接
+        assertTrue("connections=" + connections.get(), connections.get() <= 2);
+        assertEquals(0, client.getInFlight(HOST));
+        assertEquals(0, client.getPermitTimeoutCount());
+    }
+
+    @Test
+    public void requestFailsWhenNoPermitInTime() throws IOException {
+        // 两个没有读完的响应占着名额, 像暂停的 player 一样
+        List<Response> held = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            held.add(client.getClient().newCall(new Request.Builder().url(base + "/video?held=" + i).build()).execute());
+        }
+        try {
+            fetch("/video");
+            fail("expected a permit timeout");
+        } catch (InterruptedIOException expected) {
+            // 没有拿到名额的请求不会发出去
+            assertEquals(2, client.getInFlight(HOST));
+            assertEquals(2, connections.get());
+        } finally {
+            for (Response response : held) {
+                response.close();
+            }
+        }
+        assertEquals(1, client.getPermitTimeoutCount());
+        assertEquals(0, client.getInFlight(HOST));
+        assertEquals(BODY_BYTES, fetch("/video"));
+    }
+
+    @Test
+    public void networkChangeDropsConnectionsAndDns() throws IOException {
+        fetch("/video");
+        client.onNetworkChanged();
+        fetch("/video");
+        assertEquals(2, connections.get());
+        assertEquals(2, dnsLookups.get());
+    }
+
+    private int fetch(String path) throws IOException {
+        Request request = new Request.Builder().url(base + path).build();
+        Response response = client.getClient().newCall(request).execute();
+        try {
+            return response.body().bytes().length;
+        } finally {
+            response.close();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            OutputStream out = socket.getOutputStream();
+            byte[] body = new byte[BODY_BYTES];
+            String requestLine;
+            while ((requestLine = in.readLine()) != null) {
+                String line;
+                while ((line = in.readLine()) != null && !line.isEmpty()) {
+                    // 忽略请求头
+                }
+                int current = inFlight.incrementAndGet();
+                int max = maxInFlight.get();
+                while (current > max && !maxInFlight.compareAndSet(max, current)) {
+                    max = maxInFlight.get();
+                }
+                if (requestLine.contains("/slow")) {
+                    Thread.sleep(SLOW_MS);
+                }
+                inFlight.decrementAndGet();
+                out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + body.length + "\r\n\r\n").getBytes("UTF-8"));
+                out.write(body);
+                out.flush();
+            }
+        } catch (IOException | InterruptedException ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.sogo.exoplayer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用本地 http 服务模拟会过期的签名地址: /video?token=N 只有最新的 token 返回 200, 旧的返回 403;
+ * /sign 签发新的 token, 前几次请求返回 503 用来验证重试.
+ */
+public class UrlRefresherTest {
+
+    private HttpServer server;
+    private String base;
+    private final AtomicInteger token = new AtomicInteger(1);
+    private final AtomicInteger signFailures = new AtomicInteger(0);
+    private final AtomicInteger signRequests = new AtomicInteger(0);
+
+    @Before
+    public void setUp() throws IOException {
+        File file = File.createTempFile("video_urls", null);
+        file.delete();
+        VideoUrlCache.setFile(file);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/video", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String query = exchange.getRequestURI().getQuery();
+                respond(exchange, ("token=" + token.get()).equals(query) ? 200 : 403, "video");
+            }
+        });
+        server.createContext("/sign", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                signRequests.incrementAndGet();
+                if (signFailures.getAndDecrement() > 0) {
+                    respond(exchange, 503, "");
+                    return;
+                }
+                respond(exchange, 200, base + "/video?token=" + token.incrementAndGet());
+            }
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void backoffIsExponentialAndBounded() {
+        assertEquals(0, UrlRefresher.backoffDelay(0, 500, 8000));
+        assertEquals(500, UrlRefresher.backoffDelay(1, 500, 8000));
+        assertEquals(1000, UrlRefresher.backoffDelay(2, 500, 8000));
+        assertEquals(4000, UrlRefresher.backoffDelay(4, 500, 8000));
+        assertEquals(8000, UrlRefresher.backoffDelay(5, 500, 8000));
+        assertEquals(8000, UrlRefresher.backoffDelay(100, 500, 8000));
+    }
+
+    @Test
+    public void refreshesExpiredUrlAfterRetries() throws Exception {
+        String expired = base + "/video?token=0";
+        assertEquals(403, get(expired));
+
+        signFailures.set(2);
+        UrlRefresher refresher = new UrlRefresher(provider(), 4, 10, 100);
+        Result result = new Result();
+        assertTrue(refresher.refresh(7, expired, result));
+        assertFalse(refresher.refresh(7, expired, result));
+        assertTrue(result.done.await(5, TimeUnit.SECONDS));
+
+        assertNotNull(result.url.get());
+        assertEquals(3, signRequests.get());
+        assertEquals(200, get(result.url.get()));
+        assertEquals(result.url.get(), VideoUrlCache.getVideoUrl(7));
+        assertFalse(refresher.isRefreshing(7));
+        assertEquals(1, refresher.getRefreshedCount());
+        refresher.shutdown();
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws Exception {
+        signFailures.set(10);
+        UrlRefresher refresher = new UrlRefresher(provider(), 3, 10, 100);
+        Result result = new Result();
+        refresher.refresh(8, base + "/video?token=0", result);
+        assertTrue(result.done.await(5, TimeUnit.SECONDS));
+
+        assertNotNull(result.error.get());
+        assertEquals(3, signRequests.get());
+        assertEquals(1, refresher.getFailedCount());
+        refresher.shutdown();
+    }
+
+    @Test
+    public void providerCrashDoesNotLeaveIdRefreshing() throws Exception {
+        UrlRefresher refresher = new UrlRefresher(new UrlRefresher.Provider() {
+            @Override
+            public String refresh(int id, String expiredUrl) {
+                throw new IllegalStateException("bad response");
+            }
+        }, 2, 10, 100);
+        Result result = new Result();
+        assertTrue(refresher.refresh(9, base + "/video?token=0", result));
+        assertTrue(result.done.await(5, TimeUnit.SECONDS));
+
+        assertNotNull(result.error.get());
+        assertFalse(refresher.isRefreshing(9));
+        assertEquals(1, refresher.getFailedCount());
+        // 可以再次刷新
+        assertTrue(refresher.refresh(9, base + "/video?token=0", new Result()));
+        refresher.shutdown();
+    }
+
+    private UrlRefresher.Provider provider() {
+        return new UrlRefresher.Provider() {
+            @Override
+            public String refresh(int id, String expiredUrl) throws IOException {
+                HttpURLConnection connection = (HttpURLConnection) new URL(base + "/sign?id=" + id).openConnection();
+                try {
+                    if (connection.getResponseCode() != 200) {
+                        throw new IOException("sign: " + connection.getResponseCode());
+                    }
+                    return read(connection.getInputStream());
+                } finally {
+                    connection.disconnect();
+                }
+            }
+        };
+    }
+
+    private static final class Result implements UrlRefresher.Callback {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<String> url = new AtomicReference<>();
+        final AtomicReference<IOException> error = new AtomicReference<>();
+
+        @Override
+        public void onRefreshed(int id, String videoUrl) {
+            url.set(videoUrl);
+            done.countDown();
+        }
+
+        @Override
+        public void onFailed(int id, IOException e) {
+            error.set(e);
+            done.countDown();
+        }
+    }
+
+    private static int get(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            sb.append(new String(buffer, 0, n, "UTF-8"));
+        }
+        in.close();
+        return sb.toString();
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(code, bytes.length == 0 ? -1 : bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
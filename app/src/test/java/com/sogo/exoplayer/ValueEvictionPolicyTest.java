@@ -0,0 +1,229 @@
+package com.sogo.exoplayer;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ValueEvictionPolicyTest {
+
+    private static final long MB = 1024 * 1024;
+    private static final long HEAD = 512 * 1024;
+    private static final long SPAN = 2 * MB;
+
+    @Test
+    public void headsOnlyCompeteWithHeads() {
+        ValueEvictionPolicy policy = new ValueEvictionPolicy(10 * MB, 2 * MB, HEAD);
+        policy.add("a", 0, HEAD, null);
+        policy.add("b", 0, HEAD, null);
+        policy.add("a", HEAD, 4 * MB, null);
+        policy.add("b", HEAD, 4 * MB, null);
+        // 总量超出时先淘汰主体
+        ValueEvictionPolicy.Span victim = policy.nextVictim(HEAD, 2 * MB);
+        assertSame(policy.get("a", HEAD), victim);
+        policy.remove(victim.key, victim.position);
+        assertNull(policy.nextVictim(HEAD, 2 * MB));
+
+        // 开头超出额度时淘汰开头
+        policy.add("c", 0, HEAD, null);
+        policy.add("d", 0, HEAD, null);
+        assertNull(policy.nextVictim(0, 0));
+        victim = policy.nextVictim(0, HEAD);
+        assertTrue(victim.head);
+        assertEquals("a", victim.key);
+    }
+
+    @Test
+    public void onlyHeadOverlapCountsAgainstQuota() {
+        ValueEvictionPolicy policy = new ValueEvictionPolicy(10 * MB, 2 * MB, HEAD);
+        // 一个 span 从 0 写到 2MB, 只有前 HEAD 算开头
+        policy.add("a", 0, 2 * MB, null);
+        policy.add("b", HEAD / 2, HEAD, null);
+        assertEquals(HEAD + HEAD / 2, policy.getHeadTotal());
+        assertEquals(2 * MB - HEAD + HEAD / 2, policy.getBulkTotal());
+        assertTrue(policy.get("a", 0).head);
+        // 写入的开头部分仍在额度内
+        assertNull(policy.nextVictim(0, 2 * MB));
+        assertNull(policy.nextVictim(HEAD / 2, HEAD));
+
+        policy.remove("a", 0);
+        assertEquals(HEAD / 2, policy.getHeadTotal());
+        assertEquals(HEAD / 2, policy.getBulkTotal());
+    }
+
+    @Test
+    public void watchedAndRarelyReadSpansGoFirst() {
+        ValueEvictionPolicy policy = new ValueEvictionPolicy(100 * MB, 10 * MB, HEAD);
+        policy.add("watched", 10 * MB, SPAN, null);
+        policy.add("popular", 10 * MB, SPAN, null);
+        policy.add("fresh", 10 * MB, SPAN, null);
+        policy.touch("popular", 10 * MB, null);
+        policy.touch("popular", 10 * MB, null);
+        policy.touch("watched", 10 * MB, null);
+        policy.onWatched("watched", 1f);
+        assertEquals("watched", policy.nextVictim(HEAD, 100 * MB).key);
+        policy.remove("watched", 10 * MB);
+        assertEquals("fresh", policy.nextVictim(HEAD, 100 * MB).key);
+    }
+
+    /**
+     * 回放一段模拟的信息流访问: 顺序浏览, 预加载后面 3 个的开头, 大部分只看开头就划走,
+     * 少部分看完, 还有一部分回看热门视频. 比较起播时开头已经在缓存中的比例.
+     */
+    @Test
+    public void replayedTraceKeepsMoreHeadsThanLru() {
+        Random random = new Random(7);
+        int videos = 600;
+        long[] sizes = new long[videos];
+        for (int i = 0; i < videos; i++) {
+            sizes[i] = (4 + random.nextInt(40)) * MB;
+        }
+        int[] trace = new int[3000];
+        boolean[] revisit = new boolean[trace.length];
+        int next = 0;
+        for (int i = 0; i < trace.length; i++) {
+            if (random.nextInt(5) == 0 && next > 20) {
+                // 热门视频集中在前面
+                trace[i] = (int) (Math.pow(random.nextDouble(), 3) * 40);
+                revisit[i] = true;
+            } else {
+                trace[i] = next++ % videos;
+            }
+        }
+
+        long capacity = 64 * MB;
+        int[] lru = replay(new LruCache(capacity), trace, revisit, sizes, new Random(11));
+        int[] value = replay(new PolicyCache(new ValueEvictionPolicy(capacity, 16 * MB, HEAD)),
+                trace, revisit, sizes, new Random(11));
+        String hits = "head hits(all/revisit): lru=" + lru[0] + "/" + lru[1]
+                + ", value=" + value[0] + "/" + value[1] + ", plays=" + trace.length;
+        assertTrue(hits, value[0] >= lru[0]);
+        assertTrue(hits, value[1] > lru[1]);
+    }
+
+    /**
+     * @return 起播时开头已经缓存的次数, 其中回看的次数
+     */
+    private static int[] replay(SimCache cache, int[] trace, boolean[] revisit, long[] sizes, Random random) {
+        int hits = 0;
+        int revisitHits = 0;
+        for (int i = 0; i < trace.length; i++) {
+            // 预加载下面几个的开头
+            for (int j = 1; j <= 3 && i + j < trace.length; j++) {
+                String key = "v" + trace[i + j];
+                if (!cache.contains(key, 0)) {
+                    cache.write(key, 0, HEAD);
+                }
+            }
+            int video = trace[i];
+            String key = "v" + video;
+            if (cache.contains(key, 0)) {
+                hits++;
+                if (revisit[i]) {
+                    revisitHits++;
+                }
+            }
+            boolean watchAll = random.nextInt(4) == 0;
+            long end = watchAll ? sizes[video] : Math.min(sizes[video], HEAD + SPAN);
+            // 播放从头读, 缓存里没有的按 2MB 一段写入
+            readOrWrite(cache, key, 0, HEAD);
+            for (long position = HEAD; position < end; position += SPAN) {
+                readOrWrite(cache, key, position, Math.min(SPAN, sizes[video] - position));
+            }
+            cache.watched(key, (float) end / sizes[video]);
+        }
+        return new int[]{hits, revisitHits};
+    }
+
+    private static void readOrWrite(SimCache cache, String key, long position, long length) {
+        if (cache.contains(key, position)) {
+            cache.read(key, position);
+        } else {
+            cache.write(key, position, length);
+        }
+    }
+
+    private interface SimCache {
+        boolean contains(String key, long position);
+
+        void read(String key, long position);
+
+        void write(String key, long position, long length);
+
+        void watched(String key, float completion);
+    }
+
+    private static final class LruCache implements SimCache {
+        private final long capacity;
+        private final LinkedHashMap<String, Long> spans = new LinkedHashMap<>(16, 0.75f, true);
+        private long total = 0;
+
+        LruCache(long capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public boolean contains(String key, long position) {
+            return spans.containsKey(key + "@" + position);
+        }
+
+        @Override
+        public void read(String key, long position) {
+            spans.get(key + "@" + position);
+        }
+
+        @Override
+        public void write(String key, long position, long length) {
+            Iterator<Map.Entry<String, Long>> iterator = spans.entrySet().iterator();
+            while (total + length > capacity && iterator.hasNext()) {
+                total -= iterator.next().getValue();
+                iterator.remove();
+            }
+            spans.put(key + "@" + position, length);
+            total += length;
+        }
+
+        @Override
+        public void watched(String key, float completion) {
+        }
+    }
+
+    private static final class PolicyCache implements SimCache {
+        private final ValueEvictionPolicy policy;
+
+        PolicyCache(ValueEvictionPolicy policy) {
+            this.policy = policy;
+        }
+
+        @Override
+        public boolean contains(String key, long position) {
+            return policy.contains(key, position);
+        }
+
+        @Override
+        public void read(String key, long position) {
+            policy.touch(key, position, null);
+        }
+
+        @Override
+        public void write(String key, long position, long length) {
+            ValueEvictionPolicy.Span victim;
+            while ((victim = policy.nextVictim(position, length)) != null) {
+                policy.remove(victim.key, victim.position);
+            }
+            policy.add(key, position, length, null);
+        }
+
+        @Override
+        public void watched(String key, float completion) {
+            policy.onWatched(key, completion);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.sogo.exoplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VideoUrlCacheTest {
+    private static final long NOW = 1500000000000L;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("video_urls", null);
+        file.delete();
+        VideoUrlCache.setFile(file);
+    }
+
+    @Test
+    public void parsesSignedExpiry() {
+        assertEquals(1500000600000L, VideoUrlCache.parseExpiresAt("http://a/b.mp4?sign=x&e=1500000600", NOW));
+        assertEquals(1500000600000L, VideoUrlCache.parseExpiresAt("http://a/b.mp4?Expires=1500000600&Signature=y", NOW));
+        // 2017-07-14T02:40:00Z + 600s
+        assertEquals(1500000600000L, VideoUrlCache.parseExpiresAt(
+                "http://a/b.mp4?X-Amz-Date=20170714T024000Z&X-Amz-Expires=600", NOW));
+        assertEquals(NOW + VideoUrlCache.DEFAULT_TTL_MS, VideoUrlCache.parseExpiresAt("http://a/b.mp4", NOW));
+        assertEquals(NOW + VideoUrlCache.DEFAULT_TTL_MS, VideoUrlCache.parseExpiresAt("http://a/b.mp4?e=abc", NOW));
+    }
+
+    @Test
+    public void expiringUrlIsNotReturned() {
+        long now = System.currentTimeMillis();
+        String fresh = "http://a/1.mp4?e=" + (now / 1000 + 3600);
+        String expiring = "http://a/2.mp4?e=" + (now + VideoUrlCache.EXPIRY_MARGIN_MS / 2) / 1000;
+        VideoUrlCache.putVideoUrl(1, fresh);
+        VideoUrlCache.putVideoUrl(2, expiring);
+        assertEquals(fresh, VideoUrlCache.getVideoUrl(1));
+        assertNull(VideoUrlCache.getVideoUrl(2));
+        assertEquals(1, VideoUrlCache.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        for (int i = 0; i <= VideoUrlCache.MAX_SIZE; i++) {
+            VideoUrlCache.putVideoUrl(i, "http://a/" + i + ".mp4");
+            VideoUrlCache.getVideoUrl(0);
+        }
+        assertEquals(VideoUrlCache.MAX_SIZE, VideoUrlCache.size());
+        assertEquals("http://a/0.mp4", VideoUrlCache.getVideoUrl(0));
+        assertNull(VideoUrlCache.getVideoUrl(1));
+    }
+
+    @Test
+    public void loadsInBackgroundAndKeepsNewerUrls() throws Exception {
+        VideoUrlCache.putVideoUrl(1, "http://a/1.mp4");
+        VideoUrlCache.putVideoUrl(2, "http://a/2.mp4");
+        VideoUrlCache.awaitIdle();
+        assertTrue(file.exists());
+
+        // 重新打开, 加载完成前写入的地址不会被文件里的旧地址覆盖
+        VideoUrlCache.setFile(file);
+        VideoUrlCache.putVideoUrl(2, "http://a/2-new.mp4");
+        VideoUrlCache.startLoading();
+        VideoUrlCache.awaitIdle();
+        assertEquals("http://a/1.mp4", VideoUrlCache.getVideoUrl(1));
+        assertEquals("http://a/2-new.mp4", VideoUrlCache.getVideoUrl(2));
+        assertEquals(2, VideoUrlCache.size());
+    }
+}